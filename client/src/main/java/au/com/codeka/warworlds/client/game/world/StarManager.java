@@ -9,9 +9,13 @@ import au.com.codeka.warworlds.client.util.eventbus.EventHandler;
 import au.com.codeka.warworlds.common.Log;
 import au.com.codeka.warworlds.common.proto.ModifyStarPacket;
 import au.com.codeka.warworlds.common.proto.Packet;
+import au.com.codeka.warworlds.common.proto.RequestStarsPacket;
 import au.com.codeka.warworlds.common.proto.Star;
+import au.com.codeka.warworlds.common.proto.StarDelta;
+import au.com.codeka.warworlds.common.proto.StarDeltasPacket;
 import au.com.codeka.warworlds.common.proto.StarModification;
 import au.com.codeka.warworlds.common.proto.StarUpdatedPacket;
+import au.com.codeka.warworlds.common.sim.StarDeltaHelper;
 import au.com.codeka.warworlds.common.sim.StarModifier;
 import au.com.codeka.warworlds.common.sim.SuspiciousModificationException;
 import com.google.common.collect.Lists;
@@ -94,8 +98,9 @@ public class StarManager {
         return;
       }
 
-      // Save the now-modified star.
-      Star newStar = starBuilder.build();
+      // Save the now-modified star. It's not a version the server knows about, so clear the seq:
+      // that way, we'll ask for the whole star if the server sends us a delta for it.
+      Star newStar = starBuilder.seq(null).build();
       stars.put(star.id, newStar, EmpireManager.i.getMyEmpire());
       App.i.getEventBus().publish(newStar);
 
@@ -126,5 +131,39 @@ public class StarManager {
       long endTime = System.nanoTime();
       log.info("Updated %d stars in DB in %d ms", pkt.stars.size(), (endTime - startTime) / 1000000L);
     }
+
+    /**
+     * When the server sends us deltas for stars we've already got, apply them to our cached copy.
+     * If we don't have the version of the star the delta is against, ask for the whole star.
+     */
+    @EventHandler(thread = Threads.BACKGROUND)
+    public void onStarDeltasPacket(StarDeltasPacket pkt) {
+      Map<Long, Star> values = new HashMap<>();
+      List<Long> missingStarIds = new ArrayList<>();
+      for (StarDelta delta : pkt.deltas) {
+        Star star = stars.get(delta.star_id);
+        if (star == null || star.seq == null || !star.seq.equals(delta.base_seq)) {
+          missingStarIds.add(delta.star_id);
+          continue;
+        }
+
+        Star newStar = StarDeltaHelper.apply(star, delta);
+        App.i.getEventBus().publish(newStar);
+        values.put(newStar.id, newStar);
+      }
+      if (!values.isEmpty()) {
+        stars.putAll(values, EmpireManager.i.getMyEmpire());
+      }
+
+      if (!missingStarIds.isEmpty()) {
+        log.info("Couldn't apply delta to %d stars, requesting them again.",
+            missingStarIds.size());
+        App.i.getServer().send(new Packet.Builder()
+            .request_stars(new RequestStarsPacket.Builder()
+                .star_id(missingStarIds)
+                .build())
+            .build());
+      }
+    }
   };
 }
@@ -13,11 +13,13 @@ import au.com.codeka.warworlds.common.Log;
 import au.com.codeka.warworlds.common.debug.PacketDebug;
 import au.com.codeka.warworlds.common.net.PacketDecoder;
 import au.com.codeka.warworlds.common.net.PacketEncoder;
+import au.com.codeka.warworlds.common.net.PacketFlags;
 import au.com.codeka.warworlds.common.proto.DeviceInfo;
 import au.com.codeka.warworlds.common.proto.HelloPacket;
 import au.com.codeka.warworlds.common.proto.LoginRequest;
 import au.com.codeka.warworlds.common.proto.LoginResponse;
 import au.com.codeka.warworlds.common.proto.Packet;
+import com.google.common.collect.Lists;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
@@ -133,6 +135,7 @@ public class Server {
               .empire_id(loginResponse.empire.id)
               .our_star_last_simulation(StarManager.i.getLastSimulationOfOurStar())
               .last_chat_time(ChatManager.i.getLastChatTime())
+              .compression(Lists.newArrayList(PacketFlags.DEFLATE, PacketFlags.LZ))
               .build())
           .build());
 
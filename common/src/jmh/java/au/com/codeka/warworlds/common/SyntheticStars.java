@@ -0,0 +1,164 @@
+package au.com.codeka.warworlds.common;
+
+import au.com.codeka.warworlds.common.proto.BuildRequest;
+import au.com.codeka.warworlds.common.proto.Building;
+import au.com.codeka.warworlds.common.proto.Colony;
+import au.com.codeka.warworlds.common.proto.ColonyFocus;
+import au.com.codeka.warworlds.common.proto.Design;
+import au.com.codeka.warworlds.common.proto.EmpireStorage;
+import au.com.codeka.warworlds.common.proto.Fleet;
+import au.com.codeka.warworlds.common.proto.Planet;
+import au.com.codeka.warworlds.common.proto.Star;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates made-up {@link Star}s for benchmarks. The stars look like the ones you'd see in a real
+ * game (colonized planets with buildings and build requests, a few empires' fleets and so on), but
+ * they're generated from a fixed seed so that every run sees exactly the same stars.
+ */
+public class SyntheticStars {
+  private static final String[] NAMES = {
+      "Achernar", "Betelgeuse", "Canopus", "Deneb", "Electra", "Fomalhaut", "Gacrux", "Hadar"
+  };
+
+  private final Random rand;
+  private long nextId = 1000;
+
+  public SyntheticStars(long seed) {
+    rand = new Random(seed);
+  }
+
+  /**
+   * Generates a star.
+   *
+   * @param numPlanets The number of planets the star has.
+   * @param numColonies The number of those planets which are colonized, split between
+   *     {@code numEmpires} empires.
+   * @param numFleets The number of fleets at the star, also split between the empires.
+   * @param numBuildRequests The number of build requests on each colony.
+   * @param numEmpires The number of empires with colonies and fleets on the star.
+   * @param lastSimulation The star's last_simulation time.
+   */
+  public Star generate(
+      int numPlanets,
+      int numColonies,
+      int numFleets,
+      int numBuildRequests,
+      int numEmpires,
+      long lastSimulation) {
+    long starId = nextId++;
+
+    List<Planet> planets = new ArrayList<>();
+    for (int i = 0; i < numPlanets; i++) {
+      Planet.Builder planet = new Planet.Builder()
+          .index(i)
+          .planet_type(Planet.PLANET_TYPE.values()[rand.nextInt(Planet.PLANET_TYPE.values().length)])
+          .population_congeniality(100 + rand.nextInt(900))
+          .farming_congeniality(10 + rand.nextInt(90))
+          .mining_congeniality(10 + rand.nextInt(90))
+          .energy_congeniality(10 + rand.nextInt(90));
+      if (i < numColonies) {
+        planet.colony(generateColony(
+            empireId(i, numEmpires), numBuildRequests, lastSimulation));
+      }
+      planets.add(planet.build());
+    }
+
+    List<EmpireStorage> empireStores = new ArrayList<>();
+    for (int i = 0; i < Math.min(numEmpires, Math.max(numColonies, 1)); i++) {
+      empireStores.add(new EmpireStorage.Builder()
+          .empire_id(empireId(i, numEmpires))
+          .total_goods(rand.nextFloat() * 500.0f)
+          .total_minerals(rand.nextFloat() * 500.0f)
+          .total_energy(rand.nextFloat() * 500.0f)
+          .max_goods(1000.0f)
+          .max_minerals(1000.0f)
+          .max_energy(1000.0f)
+          .build());
+    }
+
+    List<Fleet> fleets = new ArrayList<>();
+    for (int i = 0; i < numFleets; i++) {
+      fleets.add(new Fleet.Builder()
+          .id(nextId++)
+          .empire_id(empireId(i, numEmpires))
+          .design_type(rand.nextBoolean() ? Design.DesignType.FIGHTER : Design.DesignType.SCOUT)
+          .num_ships(1.0f + rand.nextInt(200))
+          .state(Fleet.FLEET_STATE.IDLE)
+          .state_start_time(lastSimulation)
+          .stance(Fleet.FLEET_STANCE.AGGRESSIVE)
+          .build());
+    }
+
+    return new Star.Builder()
+        .id(starId)
+        .name(NAMES[rand.nextInt(NAMES.length)] + " " + starId)
+        .sector_x((long) rand.nextInt(100))
+        .sector_y((long) rand.nextInt(100))
+        .classification(Star.CLASSIFICATION.values()[rand.nextInt(5)])
+        .size(10 + rand.nextInt(40))
+        .offset_x(rand.nextInt(1024))
+        .offset_y(rand.nextInt(1024))
+        .planets(planets)
+        .empire_stores(empireStores)
+        .fleets(fleets)
+        .last_simulation(lastSimulation)
+        .build();
+  }
+
+  private Colony generateColony(long empireId, int numBuildRequests, long lastSimulation) {
+    List<BuildRequest> buildRequests = new ArrayList<>();
+    for (int i = 0; i < numBuildRequests; i++) {
+      boolean ship = rand.nextBoolean();
+      buildRequests.add(new BuildRequest.Builder()
+          .id(nextId++)
+          .design_type(ship ? Design.DesignType.FIGHTER : Design.DesignType.SILO)
+          .count(ship ? 10 + rand.nextInt(100) : 1)
+          .start_time(lastSimulation - rand.nextInt(3600000))
+          .progress(rand.nextFloat() * 0.5f)
+          .build());
+    }
+
+    float farming = rand.nextFloat();
+    float mining = rand.nextFloat() * (1.0f - farming);
+    float construction = rand.nextFloat() * (1.0f - farming - mining);
+    return new Colony.Builder()
+        .id(nextId++)
+        .empire_id(empireId)
+        .population(100.0f + rand.nextInt(900))
+        .focus(new ColonyFocus.Builder()
+            .farming(farming)
+            .mining(mining)
+            .construction(construction)
+            .energy(1.0f - farming - mining - construction)
+            .build())
+        .defence_bonus(1.0f)
+        .buildings(generateBuildings())
+        .build_requests(buildRequests)
+        .build();
+  }
+
+  private List<Building> generateBuildings() {
+    List<Building> buildings = new ArrayList<>();
+    if (rand.nextBoolean()) {
+      buildings.add(new Building.Builder()
+          .design_type(Design.DesignType.SHIPYARD)
+          .level(1 + rand.nextInt(3))
+          .build());
+    }
+    if (rand.nextBoolean()) {
+      buildings.add(new Building.Builder()
+          .design_type(Design.DesignType.SILO)
+          .level(1)
+          .build());
+    }
+    return buildings;
+  }
+
+  /** Empires are numbered from 1; the i'th colony or fleet belongs to empire (i % numEmpires). */
+  private static long empireId(int i, int numEmpires) {
+    return 1 + (i % Math.max(1, numEmpires));
+  }
+}
@@ -0,0 +1,132 @@
+package au.com.codeka.warworlds.common.net;
+
+import au.com.codeka.warworlds.common.SyntheticStars;
+import au.com.codeka.warworlds.common.proto.Packet;
+import au.com.codeka.warworlds.common.proto.Star;
+import au.com.codeka.warworlds.common.proto.StarDelta;
+import au.com.codeka.warworlds.common.proto.StarDeltasPacket;
+import au.com.codeka.warworlds.common.proto.StarUpdatedPacket;
+import au.com.codeka.warworlds.common.sim.StarDeltaHelper;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to encode and decode packets with each of the compression codecs in
+ * {@link PacketFlags}, compared to the way {@link PacketEncoder} used to do it (encode to a new
+ * array, then gzip it with {@link GzipHelper} every time).
+ *
+ * <p>The packets are shaped like the ones the server sends most often: a single star being updated,
+ * the response to watching a 3x3 block of sectors, and a handful of star deltas. Run with
+ * "-prof gc" to see the allocation rate as well.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PacketCodecBenchmark {
+  @Param({"star", "sectors", "deltas"})
+  public String payload;
+
+  /** One of the compression values from {@link PacketFlags}. */
+  @Param({"0", "1", "2", "3"})
+  public int compression;
+
+  private Packet packet;
+  private FrameEncoder encoder;
+  private FrameDecoder decoder;
+  private byte[] frame;
+  private int frameFlags;
+
+  @Setup
+  public void setup() {
+    SyntheticStars syntheticStars = new SyntheticStars(1234);
+    long now = System.currentTimeMillis();
+    switch (payload) {
+      case "star":
+        packet = starsPacket(syntheticStars.generate(7, 4, 6, 2, 2, now));
+        break;
+      case "sectors": {
+        // Nine sectors of around 15 stars each, most of which nobody has colonized.
+        List<Star> stars = new ArrayList<>();
+        for (int i = 0; i < 9 * 15; i++) {
+          boolean colonized = i % 10 == 0;
+          stars.add(syntheticStars.generate(
+              5, colonized ? 2 : 0, colonized ? 3 : 1, colonized ? 1 : 0, 1, now));
+        }
+        packet = new Packet.Builder()
+            .star_updated(new StarUpdatedPacket.Builder().stars(stars).build())
+            .build();
+        break;
+      }
+      case "deltas": {
+        // A fleet's num_ships changing on a few stars, like you'd see during combat.
+        List<StarDelta> deltas = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+          Star star = syntheticStars.generate(7, 4, 6, 2, 2, now).newBuilder().seq(1L).build();
+          Star.Builder newStar = star.newBuilder().seq(2L);
+          newStar.fleets.set(0, star.fleets.get(0).newBuilder().num_ships(1.0f).build());
+          deltas.add(StarDeltaHelper.diff(star, newStar.build()));
+        }
+        packet = new Packet.Builder()
+            .star_deltas(new StarDeltasPacket.Builder().deltas(deltas).build())
+            .build();
+        break;
+      }
+      default:
+        throw new IllegalArgumentException("Unknown payload: " + payload);
+    }
+
+    encoder = new FrameEncoder(compression);
+    decoder = new FrameDecoder();
+    ByteBuffer buffer = encoder.encode(packet);
+    frameFlags = buffer.getInt(4);
+    frame = new byte[buffer.remaining()];
+    buffer.get(frame);
+  }
+
+  @Benchmark
+  public ByteBuffer encode() {
+    return encoder.encode(packet);
+  }
+
+  @Benchmark
+  public Packet decode() throws IOException {
+    return decoder.decode(
+        frame, FrameEncoder.HEADER_SIZE, frame.length - FrameEncoder.HEADER_SIZE, frameFlags);
+  }
+
+  /** What {@link PacketEncoder#send} used to do for every packet, regardless of compression. */
+  @Benchmark
+  public byte[] legacyEncode() {
+    byte[] bytes = packet.encode();
+    byte[] compressed = GzipHelper.compress(bytes);
+    if (compressed != null && compressed.length < bytes.length) {
+      return compressed;
+    }
+    return bytes;
+  }
+
+  private static Packet starsPacket(Star star) {
+    List<Star> stars = new ArrayList<>();
+    stars.add(star);
+    return new Packet.Builder()
+        .star_updated(new StarUpdatedPacket.Builder().stars(stars).build())
+        .build();
+  }
+}
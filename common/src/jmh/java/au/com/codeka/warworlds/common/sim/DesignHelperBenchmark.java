@@ -0,0 +1,58 @@
+package au.com.codeka.warworlds.common.sim;
+
+import au.com.codeka.warworlds.common.proto.Design;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link DesignHelper#getDesign}, looking up every design type in turn, against searching
+ * through the list of designs like we used to. To see what difference it makes to a whole star,
+ * compare {@link SimulationBenchmark#simulateCombat}, which looks up a design for every potential
+ * target of every fleet.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DesignHelperBenchmark {
+  private Design.DesignType[] types;
+
+  @Setup
+  public void setup() {
+    types = new Design.DesignType[DesignHelper.getDesigns().size()];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = DesignHelper.getDesigns().get(i).type;
+    }
+  }
+
+  @Benchmark
+  public void getDesign(Blackhole blackhole) {
+    for (Design.DesignType type : types) {
+      blackhole.consume(DesignHelper.getDesign(type));
+    }
+  }
+
+  @Benchmark
+  public void linearSearch(Blackhole blackhole) {
+    for (Design.DesignType type : types) {
+      for (Design design : DesignHelper.getDesigns()) {
+        if (design.type.equals(type)) {
+          blackhole.consume(design);
+          break;
+        }
+      }
+    }
+  }
+}
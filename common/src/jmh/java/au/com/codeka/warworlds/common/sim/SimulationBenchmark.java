@@ -0,0 +1,125 @@
+package au.com.codeka.warworlds.common.sim;
+
+import au.com.codeka.warworlds.common.SyntheticStars;
+import au.com.codeka.warworlds.common.Time;
+import au.com.codeka.warworlds.common.proto.Fleet;
+import au.com.codeka.warworlds.common.proto.Star;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Simulation#simulate} on stars of various sizes, both for the usual case where
+ * the star was simulated a few minutes ago and for stars that nobody has looked at for days, where
+ * we have to catch up on every step since.
+ *
+ * <p>Each benchmark is run in both average time and sample time mode: the latter gives the
+ * percentiles, which is where the long catch-ups show up. Run with "-prof gc" to see the
+ * allocation rate as well.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimulationBenchmark {
+  @State(Scope.Thread)
+  public static class SimulateState {
+    /** The size of the star, see {@link #generateStar}. */
+    @Param({"small", "medium", "large"})
+    public String size;
+
+    /**
+     * How long ago (in minutes) the star was last simulated. 10 minutes is a single step, the
+     * others are one and three days.
+     */
+    @Param({"10", "1440", "4320"})
+    public int catchUpMinutes;
+
+    @Param({"ON", "OFF"})
+    public Simulation.FastForwardMode fastForwardMode;
+
+    private Star star;
+    private long now;
+
+    @Setup
+    public void setup() {
+      now = System.currentTimeMillis();
+      star = generateStar(new SyntheticStars(1234), size, now - catchUpMinutes * Time.MINUTE);
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class CombatState {
+    /** The number of fleets fighting, split between two empires. */
+    @Param({"10", "50", "200", "500"})
+    public int numFleets;
+
+    private Star star;
+    private long now;
+
+    @Setup
+    public void setup() {
+      now = System.currentTimeMillis();
+      Star.Builder starBuilder = new SyntheticStars(1234)
+          .generate(5, 2, numFleets, 1, 2, now - 10 * Time.MINUTE)
+          .newBuilder();
+      for (int i = 0; i < starBuilder.fleets.size(); i++) {
+        starBuilder.fleets.set(i, starBuilder.fleets.get(i).newBuilder()
+            .state(Fleet.FLEET_STATE.ATTACKING)
+            .build());
+      }
+      star = starBuilder.build();
+    }
+  }
+
+  /** Simulates the star up to "now", plus a day of prediction, like the server does. */
+  @Benchmark
+  public Star.Builder simulate(SimulateState state) {
+    Star.Builder star = state.star.newBuilder();
+    Simulation simulation = new Simulation(state.now, null);
+    simulation.setFastForwardMode(state.fastForwardMode);
+    simulation.simulate(star);
+    return star;
+  }
+
+  /**
+   * Simulates a star where every fleet is attacking. The star was simulated one step ago and we
+   * don't predict, so nearly all of the time is spent in combat.
+   */
+  @Benchmark
+  public Star.Builder simulateCombat(CombatState state) {
+    Star.Builder star = state.star.newBuilder();
+    Simulation simulation = new Simulation(state.now, false, null);
+    simulation.simulate(star);
+    return star;
+  }
+
+  /**
+   * Generates a star of the given size.
+   *
+   * @param size One of "small" (a single colony and a couple of fleets), "medium" (a typical
+   *     star in the middle of an empire) or "large" (a busy star shared by several empires).
+   */
+  static Star generateStar(SyntheticStars syntheticStars, String size, long lastSimulation) {
+    switch (size) {
+      case "small":
+        return syntheticStars.generate(3, 1, 2, 1, 1, lastSimulation);
+      case "medium":
+        return syntheticStars.generate(7, 4, 10, 3, 2, lastSimulation);
+      case "large":
+        return syntheticStars.generate(10, 10, 50, 10, 4, lastSimulation);
+      default:
+        throw new IllegalArgumentException("Unknown size: " + size);
+    }
+  }
+}
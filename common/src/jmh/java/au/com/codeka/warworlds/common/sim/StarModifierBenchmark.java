@@ -0,0 +1,93 @@
+package au.com.codeka.warworlds.common.sim;
+
+import au.com.codeka.warworlds.common.SyntheticStars;
+import au.com.codeka.warworlds.common.Time;
+import au.com.codeka.warworlds.common.proto.ColonyFocus;
+import au.com.codeka.warworlds.common.proto.Design;
+import au.com.codeka.warworlds.common.proto.Planet;
+import au.com.codeka.warworlds.common.proto.Star;
+import au.com.codeka.warworlds.common.proto.StarModification;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link StarModifier#modifyStar} with a few of the modifications that players make
+ * most often. Every modification simulates the star twice (once before and once after applying
+ * it), so this is mostly a measure of {@link Simulation} as it's actually used by the server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StarModifierBenchmark {
+  /** The size of the star, see {@link SimulationBenchmark#generateStar}. */
+  @Param({"small", "medium", "large"})
+  public String size;
+
+  @Param({"ADJUST_FOCUS", "ADD_BUILD_REQUEST", "SPLIT_FLEET"})
+  public StarModification.MODIFICATION_TYPE modificationType;
+
+  private Star star;
+  private StarModification modification;
+  private StarModifier starModifier;
+  private long nextId = 1000000;
+
+  @Setup
+  public void setup() {
+    // StarModifier always simulates up to the current time, so the star has to be recent.
+    star = SimulationBenchmark.generateStar(
+        new SyntheticStars(1234), size, System.currentTimeMillis() - 10 * Time.MINUTE);
+    starModifier = new StarModifier(() -> nextId++);
+
+    // The first colony and the first fleet on the star both belong to empire #1.
+    Planet planet = star.planets.get(0);
+    StarModification.Builder modificationBuilder = new StarModification.Builder()
+        .type(modificationType)
+        .empire_id(planet.colony.empire_id);
+    switch (modificationType) {
+      case ADJUST_FOCUS:
+        modificationBuilder
+            .colony_id(planet.colony.id)
+            .focus(new ColonyFocus.Builder()
+                .farming(0.25f)
+                .mining(0.25f)
+                .energy(0.25f)
+                .construction(0.25f)
+                .build());
+        break;
+      case ADD_BUILD_REQUEST:
+        modificationBuilder
+            .colony_id(planet.colony.id)
+            .design_type(Design.DesignType.SILO)
+            .count(1);
+        break;
+      case SPLIT_FLEET:
+        modificationBuilder
+            .fleet_id(star.fleets.get(0).id)
+            .count(1);
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported modification: " + modificationType);
+    }
+    modification = modificationBuilder.build();
+  }
+
+  @Benchmark
+  public Star.Builder modifyStar() throws SuspiciousModificationException {
+    Star.Builder starBuilder = star.newBuilder();
+    starModifier.modifyStar(starBuilder, modification);
+    return starBuilder;
+  }
+}
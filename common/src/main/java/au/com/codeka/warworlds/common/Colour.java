@@ -2,6 +2,10 @@ package au.com.codeka.warworlds.common;
 
 /**
  * Helper class that represents an ARGB colour.
+ *
+ * <p>Each of the static helpers comes in two flavours: one that returns a new {@link Colour}, and
+ * one that writes into a {@link Colour} you pass in (which can be one of the inputs). The planet
+ * renderer uses the second kind so that it doesn't allocate for every pixel.
  */
 public class Colour {
   public double a;
@@ -26,11 +30,10 @@ public class Colour {
   }
 
   public Colour reset(int argb) {
-    double[] components = fromArgb(argb);
-    a = components[0];
-    r = components[1];
-    g = components[2];
-    b = components[3];
+    a = ((((long) argb) & 0xff000000L) >> 24) / 255.0;
+    r = (double) ((argb & 0x00ff0000) >> 16) / 255.0;
+    g = (double) ((argb & 0x0000ff00) >> 8) / 255.0;
+    b = (double) (argb & 0x000000ff) / 255.0;
     return this;
   }
 
@@ -69,7 +72,12 @@ public class Colour {
   }
 
   public static Colour multiplyAlpha(Colour c) {
-    return new Colour(
+    return multiplyAlpha(c, new Colour());
+  }
+
+  /** Multiplies the colour components of c by its alpha, and stores the result in result. */
+  public static Colour multiplyAlpha(Colour c, Colour result) {
+    return result.reset(
         c.a,
         c.r * c.a,
         c.g * c.a,
@@ -81,41 +89,60 @@ public class Colour {
    * is returned. Otherwise, a colour "between" lhs and rhs is returned.
    */
   public static Colour interpolate(Colour lhs, Colour rhs, double n) {
+    return interpolate(lhs, rhs, n, new Colour());
+  }
+
+  /** Like {@link #interpolate(Colour, Colour, double)}, but stores the result in result. */
+  public static Colour interpolate(Colour lhs, Colour rhs, double n, Colour result) {
     final double a = lhs.a + (rhs.a - lhs.a) * n;
     final double r = lhs.r + (rhs.r - lhs.r) * n;
     final double g = lhs.g + (rhs.g - lhs.g) * n;
     final double b = lhs.b + (rhs.b - lhs.b) * n;
 
-    return new Colour(a, r, g, b);
+    return result.reset(a, r, g, b);
   }
 
   /**
    * Blends the given rhs onto the given lhs, using alpha blending.
    */
   public static Colour blend(Colour lhs, Colour rhs) {
+    return blend(lhs, rhs, new Colour());
+  }
+
+  /** Like {@link #blend(Colour, Colour)}, but stores the result in result. */
+  public static Colour blend(Colour lhs, Colour rhs, Colour result) {
     double a = lhs.a + rhs.a * (1.0 - lhs.a);
     if (a > 1.0)
       a = 1.0;
     if (a <= 0.0) {
-      a = 0.0;
-      return Colour.TRANSPARENT;
+      return result.reset(Colour.TRANSPARENT);
     }
 
     double r = ((lhs.r * lhs.a) + (rhs.r * rhs.a * (1.0 - lhs.a))) / a;
     double g = ((lhs.g * lhs.a) + (rhs.g * rhs.a * (1.0 - lhs.a))) / a;
     double b = ((lhs.b * lhs.a) + (rhs.b * rhs.a * (1.0 - lhs.a))) / a;
-    return new Colour(a, r, g, b);
+    return result.reset(a, r, g, b);
   }
 
   /** Multiplies two colours together. */
   public static Colour multiply(Colour lhs, Colour rhs) {
-    return new Colour(lhs.a * rhs.a, lhs.r * rhs.r, lhs.g * rhs.g, lhs.b * rhs.b);
+    return multiply(lhs, rhs, new Colour());
+  }
+
+  /** Multiplies two colours together, and stores the result in result. */
+  public static Colour multiply(Colour lhs, Colour rhs, Colour result) {
+    return result.reset(lhs.a * rhs.a, lhs.r * rhs.r, lhs.g * rhs.g, lhs.b * rhs.b);
   }
 
   /**
    * Adds the given rhs onto the given lhs, using additive blending.
    */
   public static Colour add(Colour lhs, Colour rhs) {
+    return add(lhs, rhs, new Colour());
+  }
+
+  /** Like {@link #add(Colour, Colour)}, but stores the result in result. */
+  public static Colour add(Colour lhs, Colour rhs, Colour result) {
     double a = lhs.a + rhs.a;
     if (a > 1.0)
       a = 1.0;
@@ -129,7 +156,7 @@ public class Colour {
     if (b > 1.0)
       b = 1.0;
 
-    return new Colour(a, r, g, b);
+    return result.reset(a, r, g, b);
   }
 
   public static Colour RED = new Colour(1.0, 1.0, 0.0, 0.0);
@@ -40,13 +40,23 @@ public class ColourGradient {
    * Gets the {@link Colour} at the corresponding point on the gradient.
    */
   public Colour getColour(double n) {
+    return getColour(n, new Colour());
+  }
+
+  /**
+   * Gets the {@link Colour} at the corresponding point on the gradient, and stores it in the given
+   * {@link Colour}.
+   *
+   * @return The result parameter, for convenience.
+   */
+  public Colour getColour(double n, Colour result) {
     if (nodes.size() == 0) {
-      return new Colour(Colour.TRANSPARENT);
+      return result.reset(Colour.TRANSPARENT);
     }
 
     // if the value they gave us is less that our first node, return it's colour.
     if (nodes.get(0).n > n) {
-      return new Colour(nodes.get(0).colour);
+      return result.reset(nodes.get(0).colour);
     }
 
     final int last = nodes.size() - 1;
@@ -55,14 +65,12 @@ public class ColourGradient {
       Node rhs = nodes.get(i + 1);
       if (rhs.n > n) {
         double factor = (n - lhs.n) / (rhs.n - lhs.n);
-
-        Colour c = new Colour(lhs.colour);
-        return Colour.interpolate(c, rhs.colour, factor);
+        return Colour.interpolate(lhs.colour, rhs.colour, factor, result);
       }
     }
 
     // if we get here, it's because the n they gave us is bigger than all nodes we've got
-    return new Colour(nodes.get(nodes.size() - 1).colour);
+    return result.reset(nodes.get(nodes.size() - 1).colour);
   }
 
   /**
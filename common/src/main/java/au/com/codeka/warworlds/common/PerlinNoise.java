@@ -4,22 +4,56 @@ import java.util.Random;
 
 /**
  * This class generates perlin noise, which we can apply to various parts of the planet.
+ *
+ * <p>Once it's been set up, a {@link PerlinNoise} has no mutable state (the values we cache for
+ * each octave are worked out once and never change after that), so it's safe to call
+ * {@link #getNoise} from multiple threads at once.
  */
 public class PerlinNoise {
+  /**
+   * The most lattice points we'll cache for a single octave. The lower octaves have few enough
+   * points that we can work them all out up front, and then neighbouring pixels (which mostly fall
+   * in the same lattice cell) don't have to work out the same four values again and again. The
+   * higher octaves have too many points to be worth it.
+   */
+  private static final int MAX_CACHED_LATTICE_POINTS = 128 * 128;
+
+  /** Where the raw noise at each lattice point comes from. */
+  public enum RawNoise {
+    /**
+     * The same values we've always generated, by seeding a {@link Random} for each lattice point.
+     * Use this for anything that has to match images rendered before {@link #Hash} existed.
+     */
+    Compatible,
+
+    /**
+     * A hash of the lattice point. It costs about the same as {@link #Compatible}, but nearby
+     * lattice points don't get related seeds, so it doesn't have the faint patterns you can get
+     * from the first value of a {@link Random}.
+     */
+    Hash
+  }
+
   protected double persistence;
   protected Interpolator interpolator;
   protected long rawSeed;
   protected int startOctave;
   protected int endOctave;
-  protected Random rawRand;
+  protected RawNoise rawNoise;
+
+  /**
+   * The things we need for each octave that don't depend on (u,v), worked out the first time we
+   * generate any noise. See {@link #getOctaves()}.
+   */
+  private volatile Octaves octaves;
 
   public PerlinNoise() {
     rawSeed = 0;
     persistence = 0;
     startOctave = 0;
     endOctave = 0;
-    rawRand = new Random();
     interpolator = new NoneInterpolator();
+    rawNoise = RawNoise.Compatible;
   }
 
   /**
@@ -43,16 +77,18 @@ public class PerlinNoise {
    * from 0..1);
    */
   public double getNoise(double u, double v) {
+    final Octaves octaves = getOctaves();
     double total = 0.0;
 
     for (int octave = 0; octave <= endOctave - startOctave; octave++) {
-      final double freq = Math.pow(2, octave + startOctave) + 1;
-      final double amplitude = Math.pow(persistence, octave);
+      final double freq = octaves.freq[octave];
+      final double amplitude = octaves.amplitude[octave];
 
       final double x = (u * freq);
       final double y = (v * freq);
 
-      final double n = interpolatedNoise(x, y, octave);
+      final double n = interpolatedNoise(
+          x, y, octave, octaves.lattice[octave], octaves.latticeSize[octave]);
       total += n * amplitude;
     }
 
@@ -67,25 +103,72 @@ public class PerlinNoise {
   }
 
   private double rawNoise(int x, int y, int octave) {
-    final long seed = ((octave * 1000000L) + (x * 1000000000L) + (y * 100000000000L)) ^ rawSeed;
-    rawRand.setSeed(seed);
-    double r = rawRand.nextDouble();
+    double r;
+    if (rawNoise == RawNoise.Hash) {
+      r = hashDouble(x, y, octave);
+    } else {
+      final long seed = ((octave * 1000000L) + (x * 1000000000L) + (y * 100000000000L)) ^ rawSeed;
+      r = nextDouble(seed);
+    }
 
     // we want the value to be between -1 and +1
     return (r * 2.0) - 1.0;
   }
 
-  private double interpolatedNoise(double x, double y, int octave) {
+  /**
+   * Hashes the given lattice point (and our seed) to a value between 0 and 1. The mixing steps are
+   * the finalizer from SplitMix64, so every bit of the input affects every bit of the output.
+   */
+  private double hashDouble(int x, int y, int octave) {
+    long h = rawSeed
+        + x * 0x9e3779b97f4a7c15L
+        + y * 0xc2b2ae3d27d4eb4fL
+        + octave * 0x165667b19e3779f9L;
+    h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+    h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+    h = h ^ (h >>> 31);
+    return (h >>> 11) * 0x1.0p-53;
+  }
+
+  /**
+   * Returns the same value as {@code new Random(seed).nextDouble()}, but without the allocation,
+   * and without the shared {@link Random} we used to re-seed for every call, which meant we
+   * couldn't generate noise on more than one thread at a time.
+   */
+  private static double nextDouble(long seed) {
+    final long multiplier = 0x5DEECE66DL;
+    final long mask = (1L << 48) - 1;
+
+    long s = (seed ^ multiplier) & mask;
+    s = (s * multiplier + 0xBL) & mask;
+    final long hi = s >>> (48 - 26);
+    s = (s * multiplier + 0xBL) & mask;
+    final long lo = s >>> (48 - 27);
+    return ((hi << 27) + lo) * 0x1.0p-53;
+  }
+
+  private double interpolatedNoise(double x, double y, int octave, double[] lattice, int size) {
     final int ix = (int) x;
     final double fx = x - (double) ix;
 
     final int iy = (int) y;
     final double fy = y - (double) iy;
 
-    final double nx1y1 = rawNoise(ix, iy, octave);
-    final double nx2y1 = rawNoise(ix + 1, iy, octave);
-    final double nx1y2 = rawNoise(ix, iy + 1, octave);
-    final double nx2y2 = rawNoise(ix + 1, iy + 1, octave);
+    final double nx1y1;
+    final double nx2y1;
+    final double nx1y2;
+    final double nx2y2;
+    if (ix >= 0 && iy >= 0 && ix + 1 < size && iy + 1 < size) {
+      nx1y1 = lattice[iy * size + ix];
+      nx2y1 = lattice[iy * size + ix + 1];
+      nx1y2 = lattice[(iy + 1) * size + ix];
+      nx2y2 = lattice[(iy + 1) * size + ix + 1];
+    } else {
+      nx1y1 = rawNoise(ix, iy, octave);
+      nx2y1 = rawNoise(ix + 1, iy, octave);
+      nx1y2 = rawNoise(ix, iy + 1, octave);
+      nx2y2 = rawNoise(ix + 1, iy + 1, octave);
+    }
 
     final double ny1 = interpolator.interpolate(nx1y1, nx2y1, fx);
     final double ny2 = interpolator.interpolate(nx1y2, nx2y2, fx);
@@ -93,6 +176,47 @@ public class PerlinNoise {
     return interpolator.interpolate(ny1, ny2, fy);
   }
 
+  /**
+   * Gets the {@link Octaves}, working them out if this is the first time. If more than one thread
+   * gets here at once they'll each work out their own, but they'll all be the same so it doesn't
+   * matter which one ends up in {@link #octaves}. That means the parameters can't change once we've
+   * started generating noise, but nothing changes them after construction anyway.
+   */
+  private Octaves getOctaves() {
+    Octaves octaves = this.octaves;
+    if (octaves != null) {
+      return octaves;
+    }
+
+    final int numOctaves = Math.max(0, endOctave - startOctave + 1);
+    octaves = new Octaves(numOctaves);
+    for (int octave = 0; octave < numOctaves; octave++) {
+      octaves.freq[octave] = Math.pow(2, octave + startOctave) + 1;
+      octaves.amplitude[octave] = Math.pow(persistence, octave);
+
+      // Enough of the lattice to cover (u,v) coordinates from 0 to 1. Anything outside of that
+      // isn't cached.
+      final double size = octaves.freq[octave] + 2;
+      if (size * size > MAX_CACHED_LATTICE_POINTS) {
+        continue;
+      }
+      octaves.latticeSize[octave] = (int) size;
+      octaves.lattice[octave] = buildLattice((int) size, octave);
+    }
+    this.octaves = octaves;
+    return octaves;
+  }
+
+  private double[] buildLattice(int size, int octave) {
+    double[] lattice = new double[size * size];
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        lattice[y * size + x] = rawNoise(x, y, octave);
+      }
+    }
+    return lattice;
+  }
+
   protected interface Interpolator {
     double interpolate(double a, double b, double n);
   }
@@ -126,4 +250,22 @@ public class PerlinNoise {
       return a + n * (b - a);
     }
   }
+
+  /**
+   * The frequency and amplitude of each octave, plus the raw noise at each point of its lattice if
+   * it has few enough points (otherwise the lattice is null and its size is zero).
+   */
+  private static class Octaves {
+    private final double[] freq;
+    private final double[] amplitude;
+    private final double[][] lattice;
+    private final int[] latticeSize;
+
+    private Octaves(int numOctaves) {
+      freq = new double[numOctaves];
+      amplitude = new double[numOctaves];
+      lattice = new double[numOctaves][];
+      latticeSize = new int[numOctaves];
+    }
+  }
 }
@@ -0,0 +1,193 @@
+package au.com.codeka.warworlds.common;
+
+import java.util.List;
+
+/**
+ * A uniform grid over a list of points, for finding the point closest to a given location without
+ * having to look at every point. {@link Voronoi} builds one of these once it's generated, since
+ * textures look up the closest point for every pixel.
+ *
+ * <p>The grid has about two points per cell. To find the closest point, we search outwards from
+ * the cell the query falls in, one ring of cells at a time, until the closest point we've found is
+ * closer than anything outside the cells we've searched could be.
+ */
+class PointGrid {
+  /** A little slack in the search bounds, in case of rounding when we bucketed the points. */
+  private static final double EPSILON = 1e-9;
+
+  /**
+   * With only a few points (some of the templates have less than ten) it's quicker to just look at
+   * all of them than to search the grid.
+   */
+  private static final int MAX_POINTS_FOR_LINEAR_SEARCH = 32;
+
+  private final List<Vector2> points;
+  private final int size;
+  private final double minX;
+  private final double minY;
+  private final double maxX;
+  private final double maxY;
+  private final double cellWidth;
+  private final double cellHeight;
+
+  /**
+   * The indices of the points in each cell, in ascending order. The points of cell (x, y) are
+   * {@code cellPoints[cellStart[i]]} to {@code cellPoints[cellStart[i + 1] - 1]}, where
+   * {@code i = y * size + x}.
+   */
+  private final int[] cellStart;
+  private final int[] cellPoints;
+
+  PointGrid(List<Vector2> points) {
+    this.points = points;
+    final int numPoints = points.size();
+    size = Math.max(1, (int) Math.sqrt(numPoints / 2.0));
+
+    double minX = Double.POSITIVE_INFINITY;
+    double minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY;
+    double maxY = Double.NEGATIVE_INFINITY;
+    for (int i = 0; i < numPoints; i++) {
+      Vector2 pt = points.get(i);
+      minX = Math.min(minX, pt.x);
+      minY = Math.min(minY, pt.y);
+      maxX = Math.max(maxX, pt.x);
+      maxY = Math.max(maxY, pt.y);
+    }
+    if (numPoints == 0) {
+      minX = minY = maxX = maxY = 0.0;
+    }
+    this.minX = minX;
+    this.minY = minY;
+    this.maxX = maxX;
+    this.maxY = maxY;
+    cellWidth = maxX > minX ? (maxX - minX) / size : 1.0;
+    cellHeight = maxY > minY ? (maxY - minY) / size : 1.0;
+
+    // Count the points in each cell, then fill them in. Going through the points in order means
+    // each cell's points end up in ascending order.
+    int[] pointCells = new int[numPoints];
+    cellStart = new int[size * size + 1];
+    for (int i = 0; i < numPoints; i++) {
+      Vector2 pt = points.get(i);
+      pointCells[i] = cellY(pt.y) * size + cellX(pt.x);
+      cellStart[pointCells[i] + 1]++;
+    }
+    for (int i = 0; i < size * size; i++) {
+      cellStart[i + 1] += cellStart[i];
+    }
+    cellPoints = new int[numPoints];
+    int[] next = new int[size * size];
+    for (int i = 0; i < numPoints; i++) {
+      int cell = pointCells[i];
+      cellPoints[cellStart[cell] + next[cell]++] = i;
+    }
+  }
+
+  /**
+   * Finds the index of the point closest to the given location. If more than one point is the same
+   * distance away, it's the one with the lowest index (the same one a linear search would find).
+   *
+   * @return The index of the closest point, or -1 if there are no points.
+   */
+  int findClosest(double u, double v) {
+    if (points.size() <= MAX_POINTS_FOR_LINEAR_SEARCH) {
+      return findClosestLinear(u, v);
+    }
+
+    final int cx = cellX(u);
+    final int cy = cellY(v);
+    final double outsideX = Math.max(0.0, Math.max(minX - u, u - maxX));
+    final double outsideY = Math.max(0.0, Math.max(minY - v, v - maxY));
+
+    int closest = -1;
+    double closestDistance2 = 0.0;
+    for (int ring = 0; ; ring++) {
+      final int left = cx - ring;
+      final int right = cx + ring;
+      final int top = cy - ring;
+      final int bottom = cy + ring;
+      for (int y = Math.max(0, top); y <= Math.min(size - 1, bottom); y++) {
+        final boolean edgeRow = (y == top || y == bottom);
+        for (int x = Math.max(0, left); x <= Math.min(size - 1, right); x++) {
+          if (!edgeRow && x != left && x != right) {
+            // We already searched the inside of the ring.
+            continue;
+          }
+
+          final int cell = y * size + x;
+          for (int j = cellStart[cell]; j < cellStart[cell + 1]; j++) {
+            final int index = cellPoints[j];
+            final double distance2 = points.get(index).distanceTo2(u, v);
+            if (closest < 0 || distance2 < closestDistance2
+                || (distance2 == closestDistance2 && index < closest)) {
+              closest = index;
+              closestDistance2 = distance2;
+            }
+          }
+        }
+      }
+
+      // Work out how close a point outside of the cells we've searched could possibly be. Sides
+      // of the ring that are past the edge of the grid don't count, there's nothing out there.
+      // If the point's outside the grid, it's at least as far as the grid's edge in the other
+      // direction, too.
+      boolean searchedAll = true;
+      double bound2 = Double.POSITIVE_INFINITY;
+      if (left > 0) {
+        searchedAll = false;
+        bound2 = Math.min(bound2, distance2(u - (minX + left * cellWidth), outsideY));
+      }
+      if (right < size - 1) {
+        searchedAll = false;
+        bound2 = Math.min(bound2, distance2((minX + (right + 1) * cellWidth) - u, outsideY));
+      }
+      if (top > 0) {
+        searchedAll = false;
+        bound2 = Math.min(bound2, distance2(v - (minY + top * cellHeight), outsideX));
+      }
+      if (bottom < size - 1) {
+        searchedAll = false;
+        bound2 = Math.min(bound2, distance2((minY + (bottom + 1) * cellHeight) - v, outsideX));
+      }
+      if (searchedAll || (closest >= 0 && closestDistance2 < bound2)) {
+        return closest;
+      }
+    }
+  }
+
+  private int findClosestLinear(double u, double v) {
+    int closest = -1;
+    double closestDistance2 = 0.0;
+    for (int i = 0; i < points.size(); i++) {
+      final double distance2 = points.get(i).distanceTo2(u, v);
+      if (closest < 0 || distance2 < closestDistance2) {
+        closest = i;
+        closestDistance2 = distance2;
+      }
+    }
+    return closest;
+  }
+
+  /**
+   * Gets the squared distance of a vector with the given components, after taking a little off
+   * each of them to allow for rounding (so it's a lower bound on the real distance).
+   */
+  private static double distance2(double dx, double dy) {
+    dx = Math.max(0.0, dx - EPSILON);
+    dy = Math.max(0.0, dy - EPSILON);
+    return dx * dx + dy * dy;
+  }
+
+  private int cellX(double x) {
+    return clamp((int) Math.floor((x - minX) / cellWidth));
+  }
+
+  private int cellY(double y) {
+    return clamp((int) Math.floor((y - minY) / cellHeight));
+  }
+
+  private int clamp(int cell) {
+    return cell < 0 ? 0 : (cell >= size ? size - 1 : cell);
+  }
+}
@@ -0,0 +1,301 @@
+package au.com.codeka.warworlds.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * An incremental (Bowyer-Watson) Delaunay triangulation of a list of points, used by
+ * {@link Voronoi}.
+ *
+ * <p>Each time we add a point, we have to replace all of the triangles whose circumscribed circle
+ * contains it. Rather than checking every triangle, we walk from the last triangle we added towards
+ * the point until we find the triangle it's in, then spread out from there through neighbouring
+ * triangles. The triangles we're after form a connected region around the point, so we find the
+ * same ones without having to look at the rest of the triangulation. To keep the walks short, we
+ * remember the last triangle we added in each cell of a coarse grid over the unit square, and start
+ * from the one in the same cell as the new point.
+ *
+ * <p>To find a triangle's neighbours, we keep a map from each edge to the triangles that share it.
+ * Normally that's two triangles (or one, on the outside), but duplicate points can leave us with
+ * flat triangles that share an edge with more than one other.
+ */
+class Triangulation {
+  /** The number of cells along each side of the grid of starting triangles. */
+  private static final int GRID_SIZE = 64;
+
+  private final List<Vector2> points;
+
+  /** All of the triangles, in the order they were added. */
+  private final LinkedHashSet<Node> nodes = new LinkedHashSet<>();
+
+  /** Maps each edge (see {@link #key}) to the triangles that share it. */
+  private final HashMap<Long, ArrayList<Node>> edges = new HashMap<>();
+
+  private long nextOrder;
+  private int nextVisit;
+  private Node last;
+
+  /** The last triangle we added in each cell of the grid, see {@link #gridCell}. */
+  private final Node[] grid = new Node[GRID_SIZE * GRID_SIZE];
+
+  Triangulation(List<Vector2> points) {
+    this.points = points;
+  }
+
+  /** Adds the given triangle, which must not overlap any of the triangles we already have. */
+  void addTriangle(Triangle t) {
+    Node node = new Node(t, nextOrder++, orientation(t.a, t.b, t.c) >= 0);
+    nodes.add(node);
+    addEdge(t.a, t.b, node);
+    addEdge(t.b, t.c, node);
+    addEdge(t.c, t.a, node);
+    last = node;
+  }
+
+  /** Gets all of the triangles, in the order they were added. */
+  List<Triangle> getTriangles() {
+    ArrayList<Triangle> triangles = new ArrayList<>(nodes.size());
+    for (Node node : nodes) {
+      triangles.add(node.triangle);
+    }
+    return triangles;
+  }
+
+  /**
+   * Adds the point with the given index to the triangulation. All the triangles whose circumscribed
+   * circle contains the point are removed, and the hole they leave is filled with triangles from
+   * the point to each edge around the hole.
+   */
+  void addVertex(int vIndex) {
+    Vector2 pt = points.get(vIndex);
+    ArrayList<Node> circumscribed = findCircumscribed(pt);
+
+    // We add the new triangles in the order of the triangles they replace (and of the edges within
+    // each triangle) so that we end up with exactly the same list of triangles as if we had
+    // checked every triangle in order.
+    circumscribed.sort((lhs, rhs) -> Long.compare(lhs.order, rhs.order));
+    ArrayList<Edge> uniqueEdges = new ArrayList<>();
+    for (Node node : circumscribed) {
+      Triangle t = node.triangle;
+      addIfUnique(uniqueEdges, node, t.a, t.b);
+      addIfUnique(uniqueEdges, node, t.b, t.c);
+      addIfUnique(uniqueEdges, node, t.c, t.a);
+    }
+
+    for (Node node : circumscribed) {
+      Triangle t = node.triangle;
+      removeEdge(t.a, t.b, node);
+      removeEdge(t.b, t.c, node);
+      removeEdge(t.c, t.a, node);
+      nodes.remove(node);
+    }
+    for (Edge e : uniqueEdges) {
+      addTriangle(new Triangle(points, vIndex, e.a, e.b));
+    }
+    grid[gridCell(pt)] = last;
+  }
+
+  /**
+   * Adds the edge from a to b of the given triangle to the list, unless another triangle we're
+   * removing shares it.
+   */
+  private void addIfUnique(ArrayList<Edge> uniqueEdges, Node node, int a, int b) {
+    for (Node other : edges.get(key(a, b))) {
+      if (other != node && other.circumscribed) {
+        return;
+      }
+    }
+    uniqueEdges.add(new Edge(points, a, b));
+  }
+
+  /** Finds all of the triangles whose circumscribed circle contains the given point. */
+  private ArrayList<Node> findCircumscribed(Vector2 pt) {
+    final int visit = ++nextVisit;
+    ArrayList<Node> circumscribed = new ArrayList<>();
+
+    Node start = locate(pt);
+    if (start != null) {
+      // The triangle the point is in should always be one of them, but if the point is right on
+      // an edge, rounding might mean it's the one next door instead.
+      checkCircumscribed(start, pt, visit, circumscribed);
+      if (circumscribed.isEmpty()) {
+        checkNeighbours(start, pt, visit, circumscribed);
+      }
+    }
+    if (circumscribed.isEmpty()) {
+      // We couldn't find where the point is, so fall back to checking every triangle.
+      for (Node node : nodes) {
+        checkCircumscribed(node, pt, visit, circumscribed);
+      }
+      return circumscribed;
+    }
+
+    for (int i = 0; i < circumscribed.size(); i++) {
+      checkNeighbours(circumscribed.get(i), pt, visit, circumscribed);
+    }
+    return circumscribed;
+  }
+
+  private void checkNeighbours(Node node, Vector2 pt, int visit, ArrayList<Node> circumscribed) {
+    Triangle t = node.triangle;
+    for (Node neighbour : edges.get(key(t.a, t.b))) {
+      checkCircumscribed(neighbour, pt, visit, circumscribed);
+    }
+    for (Node neighbour : edges.get(key(t.b, t.c))) {
+      checkCircumscribed(neighbour, pt, visit, circumscribed);
+    }
+    for (Node neighbour : edges.get(key(t.c, t.a))) {
+      checkCircumscribed(neighbour, pt, visit, circumscribed);
+    }
+  }
+
+  private static void checkCircumscribed(
+      Node node, Vector2 pt, int visit, ArrayList<Node> circumscribed) {
+    if (node.visit == visit) {
+      return;
+    }
+    node.visit = visit;
+    if (node.triangle.isInCircumscribedCircle(pt)) {
+      node.circumscribed = true;
+      circumscribed.add(node);
+    }
+  }
+
+  /**
+   * Walks from the last triangle we added to the triangle that contains the given point. At each
+   * step we cross an edge that has the point on the other side of it.
+   *
+   * @return The triangle containing the point, or null if we walked off the edge of the
+   *     triangulation or took too many steps (which can only happen if rounding or duplicate points
+   *     have left us with a triangulation that isn't quite Delaunay).
+   */
+  private Node locate(Vector2 pt) {
+    Node node = grid[gridCell(pt)];
+    if (node == null || node.circumscribed) {
+      // Nothing in this cell yet, or it's been removed since.
+      node = last;
+    }
+    final int maxSteps = nodes.size();
+    for (int step = 0; node != null && step <= maxSteps; step++) {
+      Triangle t = node.triangle;
+      Node next = null;
+      // Start at a different edge each time, so we can't go around in circles.
+      for (int i = 0; i < 3; i++) {
+        int edge = (step + i) % 3;
+        if (edge == 0 && isOnOtherSide(node, t.a, t.b, pt)) {
+          next = findNeighbour(node, t.a, t.b);
+          break;
+        } else if (edge == 1 && isOnOtherSide(node, t.b, t.c, pt)) {
+          next = findNeighbour(node, t.b, t.c);
+          break;
+        } else if (edge == 2 && isOnOtherSide(node, t.c, t.a, pt)) {
+          next = findNeighbour(node, t.c, t.a);
+          break;
+        }
+      }
+      if (next == null) {
+        return node;
+      } else if (next == node) {
+        // We walked off the edge.
+        return null;
+      }
+      node = next;
+    }
+    return null;
+  }
+
+  /**
+   * Finds the triangle on the other side of the edge from a to b of the given triangle, or returns
+   * the triangle itself if there's nothing on the other side.
+   */
+  private Node findNeighbour(Node node, int a, int b) {
+    for (Node other : edges.get(key(a, b))) {
+      if (other != node) {
+        return other;
+      }
+    }
+    return node;
+  }
+
+  /** Gets the index in {@link #grid} of the cell the given point is in. */
+  private static int gridCell(Vector2 pt) {
+    int x = Math.min(GRID_SIZE - 1, Math.max(0, (int) (pt.x * GRID_SIZE)));
+    int y = Math.min(GRID_SIZE - 1, Math.max(0, (int) (pt.y * GRID_SIZE)));
+    return y * GRID_SIZE + x;
+  }
+
+  /** Checks whether the given point is on the other side of the edge from a to b of a triangle. */
+  private boolean isOnOtherSide(Node node, int a, int b, Vector2 pt) {
+    Vector2 from = points.get(node.anticlockwise ? a : b);
+    Vector2 to = points.get(node.anticlockwise ? b : a);
+    return orientation(from, to, pt) < 0;
+  }
+
+  private double orientation(int a, int b, int c) {
+    return orientation(points.get(a), points.get(b), points.get(c));
+  }
+
+  /**
+   * Returns a positive number if a, b and c go anti-clockwise, negative if they go clockwise and
+   * zero if they're in a straight line. "Anti-clockwise" assumes the y-axis goes up, it doesn't
+   * matter as long as we're consistent.
+   */
+  private static double orientation(Vector2 a, Vector2 b, Vector2 c) {
+    return (b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x);
+  }
+
+  private void addEdge(int a, int b, Node node) {
+    ArrayList<Node> shared = edges.get(key(a, b));
+    if (shared == null) {
+      shared = new ArrayList<>(2);
+      edges.put(key(a, b), shared);
+    }
+    shared.add(node);
+  }
+
+  private void removeEdge(int a, int b, Node node) {
+    ArrayList<Node> shared = edges.get(key(a, b));
+    shared.remove(node);
+    if (shared.isEmpty()) {
+      edges.remove(key(a, b));
+    }
+  }
+
+  /**
+   * Gets the key for the edge between a and b, which is the same whichever way around it goes. If
+   * we just put one index in the top half of the key and the other in the bottom,
+   * {@link Long#hashCode} would XOR them together and lots of edges would end up in the same
+   * bucket, so we mix them up a bit (multiplying by an odd number means two edges still can't end
+   * up with the same key).
+   */
+  private static long key(int a, int b) {
+    long key = a < b ? ((long) a << 32) | b : ((long) b << 32) | a;
+    return key * 0x9e3779b97f4a7c15L;
+  }
+
+  /** A {@link Triangle} plus the bits we need to keep track of it in the triangulation. */
+  private static class Node {
+    private final Triangle triangle;
+    private final long order;
+
+    /** Whether the triangle's vertices (a, b, c) go anti-clockwise. */
+    private final boolean anticlockwise;
+
+    /**
+     * Set once we find the triangle's circumscribed circle contains a point we're adding, after
+     * which it's removed from the triangulation.
+     */
+    private boolean circumscribed;
+
+    /** The last call to {@link #findCircumscribed} that looked at this triangle. */
+    private int visit;
+
+    private Node(Triangle triangle, long order, boolean anticlockwise) {
+      this.triangle = triangle;
+      this.order = order;
+      this.anticlockwise = anticlockwise;
+    }
+  }
+}
@@ -94,7 +94,12 @@ public class Vector3 {
   }
 
   public static Vector3 cross(Vector3 a, Vector3 b) {
-    return new Vector3(
+    return cross(a, b, new Vector3());
+  }
+
+  /** Calculates the cross product of a and b, and stores it in result (which can't be a or b). */
+  public static Vector3 cross(Vector3 a, Vector3 b, Vector3 result) {
+    return result.reset(
         (a.y * b.z) - (a.z * b.y),
         (a.z * b.x) - (a.x * b.z),
         (a.x * b.y) - (a.y * b.x));
@@ -22,6 +22,12 @@ public class Voronoi {
   // maps from points to a list of the neighbouring points
   protected HashMap<Vector2, List<Vector2>> pointNeighbours;
 
+  // the same as pointNeighbours, but indexed by the point's index in the point cloud
+  private List<List<Vector2>> pointNeighboursByIndex;
+
+  // lets us find the closest point without looking at every point
+  private PointGrid pointGrid;
+
   /**
    * Constructs a {@link Voronoi} diagram from the given {@link PointCloud}. You must call
    * {@link #generate()} to actually generate the triangulation/voronoi.
@@ -35,20 +41,21 @@ public class Voronoi {
    * Generates the delaunay trianglation/voronoi diagram of the point cloud.
    */
   protected void generate() {
-    List<Triangle> newTriangles = new ArrayList<>();
     List<Vector2> points = pointCloud.getPoints();
+    Triangulation triangulation = new Triangulation(points);
 
     // first, create a "super triangle" that encompasses the whole point cloud. This is
     // easy because the point cloud is confined to the range (0,0)-(1,1) so we just add
     // two triangles to encompass that (plus a little bit of leeway)
-    List<Triangle> superTriangles = createSuperTriangles(points, newTriangles);
+    List<Triangle> superTriangles = createSuperTriangles(points, triangulation);
 
     // go through the vertices and add them...
     final int size = points.size();
     for (int i = 0; i < size; i++) {
       // add this vertex to the triangulation
-      addVertex(points, newTriangles, i);
+      triangulation.addVertex(i);
     }
+    List<Triangle> newTriangles = triangulation.getTriangles();
 
     // now go through the triangles and copy any that don't share a vertex with the super
     // triangles to the final array
@@ -106,32 +113,44 @@ public class Voronoi {
         pointNeighbours.put(pt, new ArrayList<>(neighbours));
       }
     }
+
+    pointNeighboursByIndex = new ArrayList<>(numPoints);
+    for (int i = 0; i < numPoints; i++) {
+      pointNeighboursByIndex.add(pointNeighbours.get(points.get(i)));
+    }
+    pointGrid = new PointGrid(points);
   }
 
   /**
    * Finds the point closest to the given input point.
    */
   public Vector2 findClosestPoint(Vector2 uv) {
-    Vector2 closestPoint = null;
-    double closestDistance2 = 0.0;
+    int index = pointGrid.findClosest(uv.x, uv.y);
+    return index < 0 ? null : pointCloud.getPoints().get(index);
+  }
 
-    List<Vector2> points = pointCloud.getPoints();
-    int numPoints = points.size();
-    for (int i = 0; i < numPoints; i++) {
-      Vector2 pt = points.get(i);
-      if (closestPoint == null) {
-        closestPoint = pt;
-        closestDistance2 = pt.distanceTo2(uv);
-      } else {
-        double distance2 = pt.distanceTo2(uv);
-        if (distance2 < closestDistance2) {
-          closestDistance2 = distance2;
-          closestPoint = pt;
-        }
-      }
-    }
+  /**
+   * Finds the index (in the {@link PointCloud}) of the point closest to the given input point, or
+   * -1 if there are no points. If you're going to want the point's neighbours as well, this plus
+   * {@link #getNeighbours(int)} saves looking the point up by value.
+   */
+  public int findClosestPointIndex(Vector2 uv) {
+    return pointGrid.findClosest(uv.x, uv.y);
+  }
+
+  /**
+   * Like {@link #findClosestPointIndex(Vector2)}, but for callers that have the point as a pair of
+   * coordinates and don't want to allocate a {@link Vector2} for it.
+   */
+  public int findClosestPointIndex(double u, double v) {
+    return pointGrid.findClosest(u, v);
+  }
 
-    return closestPoint;
+  /**
+   * Gets the point with the given index in the {@link PointCloud}.
+   */
+  public Vector2 getPoint(int index) {
+    return pointCloud.getPoints().get(index);
   }
 
   /**
@@ -141,6 +160,13 @@ public class Voronoi {
     return pointNeighbours.get(pt);
   }
 
+  /**
+   * Gets the points that neighbour the point with the given index in the {@link PointCloud}.
+   */
+  public List<Vector2> getNeighbours(int index) {
+    return pointNeighboursByIndex.get(index);
+  }
+
   /**
    * When we first add triangles to the \c pointCloudToTriangles map, they're just added in
    * any old order. This doesn't work when trying to determine if a point is inside the cell
@@ -271,52 +297,16 @@ public class Voronoi {
     value.add(t);
   }
 
-  /**
-   * Adds a new point vertex (given by \c vIndex) to the given triangulation.
-   */
-  private void addVertex(List<Vector2> points, List<Triangle> triangles, int vIndex) {
-    Vector2 pt = points.get(vIndex);
-
-    // extract all triangles in the circumscribed circle around this point
-    ArrayList<Triangle> circumscribedTriangles = new ArrayList<Triangle>();
-    for (Triangle t : triangles) {
-      if (t.isInCircumscribedCircle(pt)) {
-        circumscribedTriangles.add(t);
-      }
-    }
-    triangles.removeAll(circumscribedTriangles);
-
-    // create an edge buffer of all edges in those triangles
-    ArrayList<Edge> edgeBuffer = new ArrayList<>();
-    for (Triangle t : circumscribedTriangles) {
-      edgeBuffer.add(new Edge(points, t.a, t.b));
-      edgeBuffer.add(new Edge(points, t.b, t.c));
-      edgeBuffer.add(new Edge(points, t.c, t.a));
-    }
-
-    // extract all of the edges that aren't doubled-up
-    ArrayList<Edge> uniqueEdges = new ArrayList<>();
-    for (Edge e : edgeBuffer) {
-      if (!e.isIn(edgeBuffer)) {
-        uniqueEdges.add(e);
-      }
-    }
-
-    // now add triangles using the unique edges and the new point!
-    for (Edge e : uniqueEdges) {
-      triangles.add(new Triangle(points, vIndex, e.a, e.b));
-    }
-  }
-
   /**
    * Creates two "super" triangles that encompasses all points in the point cloud.
    *
    * @param points    The point cloud points.
-   * @param triangles The triangle list we'll be generating.
+   * @param triangulation The triangulation we'll be generating.
    * @return The super triangles we added. Any triangles in the final triangulation that share
    * a vertex with these will need to be removed as well.
    */
-  private List<Triangle> createSuperTriangles(List<Vector2> points, List<Triangle> triangles) {
+  private List<Triangle> createSuperTriangles(
+      List<Vector2> points, Triangulation triangulation) {
     double minX = 1.0, minY = 1.0, maxX = 0.0, maxY = 0.0;
     for (Vector2 pt : points) {
       if (pt.x < minX) {
@@ -343,7 +333,7 @@ public class Voronoi {
     superTriangles.add(new Triangle(points, points.size() - 4, points.size() - 2, points.size() - 1));
 
     for (Triangle t : superTriangles) {
-      triangles.add(t);
+      triangulation.addTriangle(t);
     }
 
     return superTriangles;
@@ -50,6 +50,11 @@ public class PacketDebug {
       sb.append(pkt.star_updated.stars.size());
       sb.append(" stars");
     }
+    if (pkt.star_deltas != null) {
+      sb.append(" : ");
+      sb.append(pkt.star_deltas.deltas.size());
+      sb.append(" deltas");
+    }
 
     return sb.toString();
   }
@@ -0,0 +1,61 @@
+package au.com.codeka.warworlds.common.net;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link PacketCodec} that uses raw deflate. Unlike {@link GzipHelper}, we keep the same
+ * {@link Deflater} and {@link Inflater} around and just reset them for each packet.
+ */
+class DeflateCodec implements PacketCodec {
+  private Deflater deflater;
+  private Inflater inflater;
+
+  @Override
+  public int compress(byte[] src, int srcLen, byte[] dst, int dstOffset, int maxLen) {
+    if (deflater == null) {
+      deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true /* nowrap */);
+    }
+    deflater.reset();
+    deflater.setInput(src, 0, srcLen);
+    deflater.finish();
+
+    int len = 0;
+    while (!deflater.finished()) {
+      if (len >= maxLen) {
+        return -1;
+      }
+      len += deflater.deflate(dst, dstOffset + len, maxLen - len);
+    }
+    return len;
+  }
+
+  @Override
+  public void decompress(byte[] src, int srcOffset, int srcLen, byte[] dst, int dstLen)
+      throws IOException {
+    if (inflater == null) {
+      inflater = new Inflater(true /* nowrap */);
+    }
+    inflater.reset();
+    inflater.setInput(src, srcOffset, srcLen);
+
+    try {
+      int len = 0;
+      while (len < dstLen) {
+        int n = inflater.inflate(dst, len, dstLen - len);
+        if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        len += n;
+      }
+      if (len != dstLen) {
+        throw new IOException(
+            String.format("Expected %d bytes after inflating, got %d.", dstLen, len));
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Error inflating packet.", e);
+    }
+  }
+}
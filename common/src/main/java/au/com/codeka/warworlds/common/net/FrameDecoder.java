@@ -0,0 +1,81 @@
+package au.com.codeka.warworlds.common.net;
+
+import au.com.codeka.warworlds.common.proto.Packet;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+/**
+ * Decodes the payload of frames encoded by {@link FrameEncoder} back into {@link Packet}s.
+ *
+ * <p>Like the encoder, this reuses its buffers and codecs between packets, so it's not thread-safe.
+ * Each connection should have its own.
+ */
+public class FrameDecoder {
+  /** If our buffer grows bigger than this for a huge packet, we'll let it go afterwards. */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+  private DeflateCodec deflateCodec;
+  private LzCodec lzCodec;
+  private byte[] buffer = new byte[1024];
+
+  /**
+   * Decodes a {@link Packet} from the payload of a frame (that is, everything after the length and
+   * flags).
+   *
+   * @param bytes The buffer containing the payload.
+   * @param offset The offset into {@code bytes} where the payload starts.
+   * @param len The length of the payload.
+   * @param flags The frame's {@link PacketFlags}.
+   */
+  public Packet decode(byte[] bytes, int offset, int len, int flags) throws IOException {
+    int compression = flags & PacketFlags.COMPRESSION_MASK;
+    switch (compression) {
+      case PacketFlags.NONE:
+        return Packet.ADAPTER.decode(new ByteArrayInputStream(bytes, offset, len));
+      case PacketFlags.COMPRESSED: {
+        byte[] compressed = new byte[len];
+        System.arraycopy(bytes, offset, compressed, 0, len);
+        byte[] uncompressed = GzipHelper.decompress(compressed);
+        if (uncompressed == null) {
+          throw new IOException("Error decompressing packet.");
+        }
+        return Packet.ADAPTER.decode(uncompressed);
+      }
+      case PacketFlags.DEFLATE:
+        if (deflateCodec == null) {
+          deflateCodec = new DeflateCodec();
+        }
+        return decode(deflateCodec, bytes, offset, len);
+      case PacketFlags.LZ:
+        if (lzCodec == null) {
+          lzCodec = new LzCodec();
+        }
+        return decode(lzCodec, bytes, offset, len);
+      default:
+        throw new IOException("Unknown compression: " + compression);
+    }
+  }
+
+  private Packet decode(PacketCodec codec, byte[] bytes, int offset, int len) throws IOException {
+    if (len < 4) {
+      throw new IOException("Compressed packet too short: " + len);
+    }
+    int uncompressedLen = (bytes[offset] & 0xff)
+        | ((bytes[offset + 1] & 0xff) << 8)
+        | ((bytes[offset + 2] & 0xff) << 16)
+        | ((bytes[offset + 3] & 0xff) << 24);
+    if (uncompressedLen < 0 || uncompressedLen > PacketDecoder.MAX_PACKET_SIZE) {
+      throw new IOException("Invalid uncompressed length: " + uncompressedLen);
+    }
+
+    if (buffer.length < uncompressedLen) {
+      buffer = new byte[Math.max(uncompressedLen, buffer.length * 2)];
+    }
+    codec.decompress(bytes, offset + 4, len - 4, buffer, uncompressedLen);
+    Packet pkt = Packet.ADAPTER.decode(new ByteArrayInputStream(buffer, 0, uncompressedLen));
+    if (buffer.length > MAX_RETAINED_BUFFER_SIZE) {
+      buffer = new byte[1024];
+    }
+    return pkt;
+  }
+}
@@ -0,0 +1,160 @@
+package au.com.codeka.warworlds.common.net;
+
+import au.com.codeka.warworlds.common.proto.Packet;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes {@link Packet}s into frames: the (little-endian) length and {@link PacketFlags}, followed
+ * by the packet itself, compressed if that makes it smaller.
+ *
+ * <p>The buffers and the compression codec's state are reused from one packet to the next, so an
+ * encoder is not thread-safe. Each connection should have its own.
+ */
+public class FrameEncoder {
+  /** The size of the header at the start of each frame: the length and the flags. */
+  public static final int HEADER_SIZE = 8;
+
+  /** Packets smaller than this aren't worth compressing. */
+  private static final int COMPRESSION_THRESHOLD = 256;
+
+  /** If our buffers grow bigger than this for a huge packet, we'll let them go afterwards. */
+  private static final int MAX_RETAINED_BUFFER_SIZE = 256 * 1024;
+
+  private int compression;
+  private PacketCodec codec;
+  private ReusableByteArrayOutputStream encoded = new ReusableByteArrayOutputStream();
+  private byte[] frame = new byte[1024];
+  private int payloadSize;
+
+  /**
+   * @param compression The compression to use, one of the compression values in
+   *     {@link PacketFlags}.
+   */
+  public FrameEncoder(int compression) {
+    setCompression(compression);
+  }
+
+  /** Sets the compression to use, one of the compression values in {@link PacketFlags}. */
+  public void setCompression(int compression) {
+    this.compression = compression;
+    switch (compression) {
+      case PacketFlags.DEFLATE:
+        codec = new DeflateCodec();
+        break;
+      case PacketFlags.LZ:
+        codec = new LzCodec();
+        break;
+      case PacketFlags.NONE:
+      case PacketFlags.COMPRESSED:
+        codec = null;
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown compression: " + compression);
+    }
+  }
+
+  /**
+   * Encodes the given {@link Packet} into a frame.
+   *
+   * @return A {@link ByteBuffer} containing the frame. It's backed by our own buffer, so it's only
+   *     valid until the next time you call this.
+   */
+  public ByteBuffer encode(Packet packet) {
+    encoded.reset();
+    try {
+      Packet.ADAPTER.encode(encoded, packet);
+    } catch (IOException e) {
+      // Can't happen, we're writing to memory.
+      throw new IllegalStateException(e);
+    }
+    byte[] bytes = encoded.getBuffer();
+    int len = encoded.size();
+
+    int flags = PacketFlags.NONE;
+    int compressedLen = -1;
+    if (len >= COMPRESSION_THRESHOLD) {
+      if (compression == PacketFlags.COMPRESSED) {
+        compressedLen = compressGzip(bytes, len);
+      } else if (codec != null) {
+        // Leave space for the header and the uncompressed length. We only want the compressed
+        // version if it's actually smaller.
+        ensureFrameCapacity(HEADER_SIZE + len);
+        compressedLen = codec.compress(bytes, len, frame, HEADER_SIZE + 4, len - 4);
+        if (compressedLen >= 0) {
+          writeIntLe(frame, HEADER_SIZE, len);
+          compressedLen += 4;
+        }
+      }
+    }
+
+    if (compressedLen >= 0) {
+      flags = compression;
+      payloadSize = compressedLen;
+    } else {
+      ensureFrameCapacity(HEADER_SIZE + len);
+      System.arraycopy(bytes, 0, frame, HEADER_SIZE, len);
+      payloadSize = len;
+    }
+    writeIntLe(frame, 0, payloadSize);
+    writeIntLe(frame, 4, flags);
+
+    ByteBuffer result = ByteBuffer.wrap(frame, 0, HEADER_SIZE + payloadSize);
+    result.order(ByteOrder.LITTLE_ENDIAN);
+    if (frame.length > MAX_RETAINED_BUFFER_SIZE) {
+      // Don't hang on to this for the next packet, it's most likely going to be much smaller.
+      frame = new byte[1024];
+    }
+    if (encoded.getBuffer().length > MAX_RETAINED_BUFFER_SIZE) {
+      encoded = new ReusableByteArrayOutputStream();
+    }
+    return result;
+  }
+
+  /** Gets the size of the payload (that is, not including the header) of the last frame. */
+  public int getLastPayloadSize() {
+    return payloadSize;
+  }
+
+  /**
+   * Compresses with gzip, for clients that don't understand anything else. Returns the compressed
+   * length (the data is in {@link #frame}) or -1 if it's not smaller.
+   */
+  private int compressGzip(byte[] bytes, int len) {
+    byte[] uncompressed = new byte[len];
+    System.arraycopy(bytes, 0, uncompressed, 0, len);
+    byte[] compressed = GzipHelper.compress(uncompressed);
+    if (compressed == null || compressed.length >= len) {
+      return -1;
+    }
+    ensureFrameCapacity(HEADER_SIZE + compressed.length);
+    System.arraycopy(compressed, 0, frame, HEADER_SIZE, compressed.length);
+    return compressed.length;
+  }
+
+  private void ensureFrameCapacity(int capacity) {
+    if (frame.length < capacity) {
+      frame = new byte[Math.max(capacity, frame.length * 2)];
+    }
+  }
+
+  static void writeIntLe(byte[] buf, int pos, int value) {
+    buf[pos] = (byte) value;
+    buf[pos + 1] = (byte) (value >>> 8);
+    buf[pos + 2] = (byte) (value >>> 16);
+    buf[pos + 3] = (byte) (value >>> 24);
+  }
+
+  /** A {@link ByteArrayOutputStream} that lets us get at its buffer without copying it. */
+  private static class ReusableByteArrayOutputStream extends ByteArrayOutputStream {
+    ReusableByteArrayOutputStream() {
+      super(1024);
+    }
+
+    byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
@@ -0,0 +1,175 @@
+package au.com.codeka.warworlds.common.net;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A simple, fast LZ77-style {@link PacketCodec}. It doesn't compress as well as deflate, but it's
+ * several times faster to compress and decompress, which matters more for the server than the
+ * last few percent of bandwidth.
+ *
+ * <p>The format is the same as an LZ4 block: a sequence of (literals, match) pairs, each starting
+ * with a token byte whose high four bits are the number of literals and low four bits are the
+ * length of the match (minus {@link #MIN_MATCH}). A value of 15 in either means more length bytes
+ * follow, each adding up to 255. The literals come next, followed by the match as a two-byte
+ * little-endian offset back into the output. The last sequence has literals only.
+ */
+class LzCodec implements PacketCodec {
+  private static final int MIN_MATCH = 4;
+  private static final int MAX_OFFSET = 65535;
+  private static final int HASH_BITS = 12;
+
+  /** Position (plus one, so that zero means empty) of the last time we saw each 4-byte hash. */
+  private final int[] hashTable = new int[1 << HASH_BITS];
+
+  @Override
+  public int compress(byte[] src, int srcLen, byte[] dst, int dstOffset, int maxLen) {
+    Arrays.fill(hashTable, 0);
+    int dstEnd = dstOffset + maxLen;
+    int op = dstOffset;
+    int anchor = 0;
+    int ip = 0;
+
+    while (ip + MIN_MATCH <= srcLen) {
+      int seq = readInt(src, ip);
+      int hash = (seq * -1640531535) >>> (32 - HASH_BITS);
+      int ref = hashTable[hash] - 1;
+      hashTable[hash] = ip + 1;
+      if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != seq) {
+        ip++;
+        continue;
+      }
+
+      int matchLen = MIN_MATCH;
+      while (ip + matchLen < srcLen && src[ref + matchLen] == src[ip + matchLen]) {
+        matchLen++;
+      }
+
+      op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLen, dst, op, dstEnd);
+      if (op < 0) {
+        return -1;
+      }
+      ip += matchLen;
+      anchor = ip;
+    }
+
+    op = writeSequence(src, anchor, srcLen - anchor, 0, 0, dst, op, dstEnd);
+    if (op < 0) {
+      return -1;
+    }
+    return op - dstOffset;
+  }
+
+  @Override
+  public void decompress(byte[] src, int srcOffset, int srcLen, byte[] dst, int dstLen)
+      throws IOException {
+    int ip = srcOffset;
+    int srcEnd = srcOffset + srcLen;
+    int op = 0;
+
+    try {
+      while (true) {
+        int token = src[ip++] & 0xff;
+
+        int literalLen = token >>> 4;
+        if (literalLen == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xff;
+            literalLen += b;
+          } while (b == 255);
+        }
+        if (ip + literalLen > srcEnd || op + literalLen > dstLen) {
+          throw new IOException("Corrupt LZ data: literals out of bounds.");
+        }
+        System.arraycopy(src, ip, dst, op, literalLen);
+        ip += literalLen;
+        op += literalLen;
+        if (ip >= srcEnd) {
+          break;
+        }
+
+        int offset = (src[ip] & 0xff) | ((src[ip + 1] & 0xff) << 8);
+        ip += 2;
+        int matchLen = token & 0x0f;
+        if (matchLen == 15) {
+          int b;
+          do {
+            b = src[ip++] & 0xff;
+            matchLen += b;
+          } while (b == 255);
+        }
+        matchLen += MIN_MATCH;
+
+        int ref = op - offset;
+        if (offset == 0 || ref < 0 || op + matchLen > dstLen) {
+          throw new IOException("Corrupt LZ data: match out of bounds.");
+        }
+        // The match can overlap the bytes we're writing, so we have to copy one byte at a time.
+        for (int i = 0; i < matchLen; i++) {
+          dst[op++] = dst[ref++];
+        }
+      }
+    } catch (ArrayIndexOutOfBoundsException e) {
+      throw new IOException("Corrupt LZ data: truncated.", e);
+    }
+
+    if (op != dstLen) {
+      throw new IOException(
+          String.format("Expected %d bytes after decompressing, got %d.", dstLen, op));
+    }
+  }
+
+  /**
+   * Writes a single sequence: the given literals from {@code src} and then a match of
+   * {@code matchLen} bytes, {@code offset} bytes back. If {@code matchLen} is zero, this is the
+   * final sequence and only the literals are written.
+   *
+   * @return The new output position, or -1 if it wouldn't fit before {@code dstEnd}.
+   */
+  private static int writeSequence(
+      byte[] src, int literalStart, int literalLen, int offset, int matchLen,
+      byte[] dst, int op, int dstEnd) {
+    // Worst case: token, literal length bytes, literals, offset, match length bytes.
+    int maxSize = 1 + literalLen / 255 + 1 + literalLen + 2 + matchLen / 255 + 1;
+    if (op + maxSize > dstEnd) {
+      return -1;
+    }
+
+    int matchCode = matchLen == 0 ? 0 : matchLen - MIN_MATCH;
+    int tokenPos = op++;
+    int token = (Math.min(literalLen, 15) << 4) | Math.min(matchCode, 15);
+    dst[tokenPos] = (byte) token;
+    op = writeLength(literalLen, dst, op);
+    System.arraycopy(src, literalStart, dst, op, literalLen);
+    op += literalLen;
+
+    if (matchLen > 0) {
+      dst[op++] = (byte) offset;
+      dst[op++] = (byte) (offset >>> 8);
+      op = writeLength(matchCode, dst, op);
+    }
+    return op;
+  }
+
+  /** Writes the extra length bytes for a length that didn't fit in its four bits of the token. */
+  private static int writeLength(int len, byte[] dst, int op) {
+    if (len < 15) {
+      return op;
+    }
+    len -= 15;
+    while (len >= 255) {
+      dst[op++] = (byte) 255;
+      len -= 255;
+    }
+    dst[op++] = (byte) len;
+    return op;
+  }
+
+  private static int readInt(byte[] buf, int pos) {
+    return (buf[pos] & 0xff)
+        | ((buf[pos + 1] & 0xff) << 8)
+        | ((buf[pos + 2] & 0xff) << 16)
+        | ((buf[pos + 3] & 0xff) << 24);
+  }
+}
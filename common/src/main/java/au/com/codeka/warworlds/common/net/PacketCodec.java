@@ -0,0 +1,28 @@
+package au.com.codeka.warworlds.common.net;
+
+import java.io.IOException;
+
+/**
+ * A compression codec for packets. Codecs can hold on to state between calls (so that they don't
+ * have to allocate it every time), so they're not thread-safe: each {@link FrameEncoder} and
+ * {@link FrameDecoder} gets its own.
+ */
+interface PacketCodec {
+  /**
+   * Compresses {@code srcLen} bytes of {@code src} into {@code dst}, starting at {@code dstOffset}.
+   *
+   * @return The number of compressed bytes written, or -1 if the compressed data would be bigger
+   *     than {@code maxLen} bytes (in which case, you should just send it uncompressed).
+   */
+  int compress(byte[] src, int srcLen, byte[] dst, int dstOffset, int maxLen);
+
+  /**
+   * Decompresses {@code srcLen} bytes of {@code src}, starting at {@code srcOffset}, into the first
+   * {@code dstLen} bytes of {@code dst}.
+   *
+   * @throws IOException If the data is corrupt, or doesn't decompress to exactly {@code dstLen}
+   *     bytes.
+   */
+  void decompress(byte[] src, int srcOffset, int srcLen, byte[] dst, int dstLen)
+      throws IOException;
+}
@@ -18,7 +18,11 @@ public class PacketDecoder {
     void onDisconnect();
   }
 
+  /** Packets bigger than this are assumed to be garbage. */
+  public static final int MAX_PACKET_SIZE = 16 * 1024 * 1024;
+
   private final BufferedSource source;
+  private final FrameDecoder frameDecoder = new FrameDecoder();
   private final Thread thread;
 
   private PacketHandler handler;
@@ -41,11 +45,11 @@ public class PacketDecoder {
         while (!source.exhausted()) {
           int size = source.readIntLe();
           int flags = source.readIntLe();
-          byte[] bytes = source.readByteArray(size);
-          if ((flags & PacketFlags.COMPRESSED) != 0) {
-            bytes = GzipHelper.decompress(bytes);
+          if (size < 0 || size > MAX_PACKET_SIZE) {
+            throw new IOException("Invalid packet size: " + size);
           }
-          Packet pkt = Packet.ADAPTER.decode(bytes);
+          byte[] bytes = source.readByteArray(size);
+          Packet pkt = frameDecoder.decode(bytes, 0, size, flags);
 
           handler.onPacket(PacketDecoder.this, pkt, size);
         }
@@ -4,6 +4,7 @@ import au.com.codeka.warworlds.common.Log;
 import au.com.codeka.warworlds.common.proto.Packet;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import javax.annotation.Nullable;
 import okio.BufferedSink;
 import okio.Okio;
@@ -20,6 +21,7 @@ public class PacketEncoder {
 
   private final BufferedSink sink;
   private final Object lock = new Object();
+  private final FrameEncoder frameEncoder;
   @Nullable private PacketHandler handler;
 
   public PacketEncoder(OutputStream outs) {
@@ -29,6 +31,9 @@ public class PacketEncoder {
   public PacketEncoder(OutputStream outs, @Nullable PacketHandler handler) {
     this.sink = Okio.buffer(Okio.sink(outs));
     this.handler = handler;
+
+    // We always use gzip, since that's what every server understands.
+    this.frameEncoder = new FrameEncoder(PacketFlags.COMPRESSED);
   }
 
   public void setPacketHandler(@Nullable PacketHandler handler) {
@@ -36,25 +41,16 @@ public class PacketEncoder {
   }
 
   public void send(Packet packet) throws IOException {
-    byte[] bytes;
+    int encodedSize;
     synchronized (lock) {
-      int flags = PacketFlags.NONE;
-
-      bytes = packet.encode();
-      byte[] compressed = GzipHelper.compress(bytes);
-      if (compressed != null && compressed.length < bytes.length) {
-        flags |= PacketFlags.COMPRESSED;
-        bytes = compressed;
-      }
-
-      sink.writeIntLe(bytes.length);
-      sink.writeIntLe(flags);
-      sink.write(bytes);
+      ByteBuffer frame = frameEncoder.encode(packet);
+      sink.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
       sink.emit();
+      encodedSize = frameEncoder.getLastPayloadSize();
     }
 
     if (handler != null) {
-      handler.onPacket(packet, bytes.length);
+      handler.onPacket(packet, encodedSize);
     }
   }
 }
@@ -2,8 +2,29 @@ package au.com.codeka.warworlds.common.net;
 
 /**
  * Flags that get applied to each packet, which tell the other side how they can decode it.
+ *
+ * <p>The bottom four bits ({@link #COMPRESSION_MASK}) say how the packet was compressed. Only
+ * {@link #NONE} and {@link #COMPRESSED} are understood by older clients, so the server only uses
+ * the others if the client lists them in its
+ * {@link au.com.codeka.warworlds.common.proto.HelloPacket}.
  */
 public class PacketFlags {
   public static final int NONE = 0;
+
+  /** The packet is compressed with gzip. */
   public static final int COMPRESSED = 1;
+
+  /**
+   * The packet is the uncompressed length (as a little-endian int), followed by raw deflate data.
+   */
+  public static final int DEFLATE = 2;
+
+  /**
+   * The packet is the uncompressed length (as a little-endian int), followed by data compressed
+   * with our LZ codec, which is less compact than deflate but much faster. See {@link LzCodec}.
+   */
+  public static final int LZ = 3;
+
+  /** The bits of the flags which tell you how the packet is compressed. */
+  public static final int COMPRESSION_MASK = 0x0f;
 }
@@ -5,6 +5,7 @@ import au.com.codeka.warworlds.common.proto.Colony;
 import au.com.codeka.warworlds.common.proto.Design;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Iterables;
+import java.util.EnumMap;
 import java.util.List;
 import javax.annotation.Nullable;
 
@@ -12,6 +13,19 @@ import javax.annotation.Nullable;
  * Helper class for working with ship and building designs.
  */
 public class DesignHelper {
+  /**
+   * All the designs, keyed by their type. We look up designs for every fleet and build request on
+   * every step of the simulation (and for every potential target in combat), so this is a lot
+   * quicker than searching through the list each time.
+   */
+  private static final EnumMap<Design.DesignType, Design> designsByType =
+      new EnumMap<>(Design.DesignType.class);
+  static {
+    for (Design design : DesignDefinitions.designs.designs) {
+      designsByType.put(design.type, design);
+    }
+  }
+
   /** Gets a list of all the {@link Design}s we have. */
   public static List<Design> getDesigns() {
     return DesignDefinitions.designs.designs;
@@ -29,13 +43,17 @@ public class DesignHelper {
 
   /** Gets the {@link Design} with the given identifier. */
   public static Design getDesign(Design.DesignType type) {
-    for (Design design : getDesigns()) {
-      if (design.type.equals(type)) {
-        return design;
-      }
+    Design design = findDesign(type);
+    if (design == null) {
+      throw new IllegalStateException("No design with id=" + type + " found.");
     }
+    return design;
+  }
 
-    throw new IllegalStateException("No design with id=" + type + " found.");
+  /** Like {@link #getDesign}, except that we return null if it's not found. */
+  @Nullable
+  public static Design findDesign(@Nullable Design.DesignType type) {
+    return type == null ? null : designsByType.get(type);
   }
 
   /** Gets the display name of the given design, correctly pluralized. */
@@ -2,7 +2,6 @@ package au.com.codeka.warworlds.common.sim;
 
 import au.com.codeka.warworlds.common.Log;
 import au.com.codeka.warworlds.common.Time;
-import au.com.codeka.warworlds.common.proto.BuildRequest;
 import au.com.codeka.warworlds.common.proto.Colony;
 import au.com.codeka.warworlds.common.proto.CombatReport;
 import au.com.codeka.warworlds.common.proto.Design;
@@ -11,18 +10,53 @@ import au.com.codeka.warworlds.common.proto.Fleet;
 import au.com.codeka.warworlds.common.proto.Planet;
 import au.com.codeka.warworlds.common.proto.Star;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Locale;
-import java.util.Map;
-import java.util.Set;
 import javax.annotation.Nullable;
 
 /** This class is used to simulate a {@link Star}. */
 public class Simulation {
+  private static final Log log = new Log("Simulation");
+
+  /**
+   * Whether we skip over steps where the star is in a "steady state". A star is in a steady state
+   * when none of its colonies are building anything or in cooldown, their populations have stopped
+   * changing (either because they've reached the planet's maximum, or died out) and no empire is
+   * using more goods than it makes. All that changes from one step to the next is then the
+   * empires' storages, and those we can work out directly for any number of steps ahead.
+   *
+   * <p>Combat only happens once we've caught up to the current time, so it's not affected.
+   *
+   * <p>The storages we calculate that way aren't always exactly the same as stepping through, since
+   * we're not rounding to float after every step, but they're always within
+   * {@link #FAST_FORWARD_TOLERANCE}. Everything else is the same.
+   */
+  public enum FastForwardMode {
+    /** Always simulate every step. */
+    OFF,
+
+    /** Skip over steps where the star's in a steady state. */
+    ON,
+
+    /**
+     * Simulate every step, but also simulate a copy of the star with fast-forwarding, and log a
+     * warning if the two are different by more than {@link #FAST_FORWARD_TOLERANCE}.
+     */
+    VERIFY,
+  }
+
+  /**
+   * The relative difference between the storages of a fast-forwarded star and the same star
+   * simulated step-by-step that we consider to be acceptable.
+   */
+  public static final float FAST_FORWARD_TOLERANCE = 0.001f;
+
+  private static volatile FastForwardMode defaultFastForwardMode = FastForwardMode.ON;
+
   private final LogHandler logHandler;
   private final boolean predict;
   private long timeOverride;
+  private FastForwardMode fastForwardMode = defaultFastForwardMode;
 
   private static final boolean sDebug = false;
 
@@ -51,6 +85,15 @@ public class Simulation {
     this.logHandler = logHandler;
   }
 
+  /** Sets the {@link FastForwardMode} for new {@link Simulation}s. */
+  public static void setDefaultFastForwardMode(FastForwardMode mode) {
+    defaultFastForwardMode = mode;
+  }
+
+  public void setFastForwardMode(FastForwardMode fastForwardMode) {
+    this.fastForwardMode = fastForwardMode;
+  }
+
   /**
    * Simulate the given star, and make sure it's "current".
    *
@@ -58,10 +101,15 @@ public class Simulation {
    *     with the new values.
    */
   public void simulate(Star.Builder star) {
+    if (fastForwardMode == FastForwardMode.VERIFY) {
+      simulateAndVerify(star);
+      return;
+    }
+
     if (logHandler != null) {
       logHandler.setStarName(star.name);
+      log("Begin simulation for '%s'", star.name);
     }
-    log(String.format("Begin simulation for '%s'", star.name));
 
     // figure out the start time, which is the oldest last_simulation time
     long startTime = getSimulateStartTime(star);
@@ -78,77 +126,182 @@ public class Simulation {
       }
     }
 
+    simulateSteps(star, WorkingStar.load(star, empireIds), startTime, endTime);
+    star.last_simulation = endTime;
+  }
+
+  /**
+   * Simulates all the steps from {@code startTime} up to {@code endTime}, runs combat, and then
+   * predicts ahead to work out when builds will finish.
+   *
+   * <p>All the steps run on the given {@link WorkingStar}. We only write back to the star itself
+   * just before combat, and then at the very end.
+   */
+  private void simulateSteps(
+      Star.Builder star, WorkingStar working, long startTime, long endTime) {
     // We'll simulate in "prediction mode" for an extra bit of time so that we can get a
     // more accurate estimate of the end time for builds. We won't *record* the population
     // growth and such, just the end time of builds. We'll also record the time that the
     // population drops below a certain threshold so that we can warn the player.
     long predictionTime = endTime + Time.DAY;
-    Star.Builder predictionStar = null;
+    boolean predicting = false;
     long now = startTime;
     while (true) {
       if (now < endTime) {
-        simulateStepForAllEmpires(now, star, empireIds);
-      } else if (predictionStar == null) {
+        if (simulateStepForAllEmpires(now, working, false)) {
+          now += fastForward(working, now, (endTime - now) / STEP_TIME - 1, false) * STEP_TIME;
+        }
+      } else if (!predicting) {
         // This is also the time to simulate combat. The star has been simulated up to "now", combat
-        // can run, and then we can do the first prediction once combat has completed.
+        // can run, and then we can do the first prediction once combat has completed. Combat only
+        // touches the fleets, so the working star is still up-to-date for the prediction.
+        working.store(star);
         simulateCombat(star, now);
 
         // We always predict at least one more step, so that we can put the deltas from the next
         // step in (since they'll take into account things like focus changes, new builds, etc that
         // the user has applied in THIS step).
-        predictionStar = star.build().newBuilder();
+        predicting = true;
         log("Begin prediction");
-        simulateStepForAllEmpires(now, predictionStar, empireIds);
-        copyDeltas(star, predictionStar);
+        simulateStepForAllEmpires(now, working, true);
+        working.storeDeltas(star);
       } else if (predict && now < predictionTime) {
-        simulateStepForAllEmpires(now, predictionStar, empireIds);
+        if (simulateStepForAllEmpires(now, working, true)) {
+          long maxSteps = (predictionTime - now) / STEP_TIME - 1;
+          now += fastForward(working, now, maxSteps, true) * STEP_TIME;
+        }
       } else {
         break;
       }
       now += STEP_TIME;
     }
 
-    // copy the end times for builds from the prediction star
-    for (int i = 0; i < star.planets.size(); i++) {
-      Planet predictionPlanet = predictionStar.planets.get(i);
-      Planet.Builder planet = star.planets.get(i).newBuilder();
-      if (planet.colony == null || predictionPlanet.colony == null
-          || planet.colony.build_requests == null
-          || predictionPlanet.colony.build_requests == null) {
-        continue;
-      }
+    // copy the end times for builds from the prediction
+    working.storeBuildRequestEndTimes(star);
+  }
 
-      ArrayList<BuildRequest> buildRequests = new ArrayList<>();
-      for (BuildRequest predictionBuildRequest : predictionPlanet.colony.build_requests) {
-        for (int j = 0; j < planet.colony.build_requests.size(); j++) {
-          BuildRequest.Builder br = planet.colony.build_requests.get(j).newBuilder();
-          if (predictionBuildRequest.id.equals(br.id)) {
-            buildRequests.add(br
-                .end_time(predictionBuildRequest.end_time)
-                .build());
-          }
-        }
-      }
-      planet.colony(planet.colony.newBuilder().build_requests(buildRequests).build());
-      star.planets.set(i, planet.build());
+  /**
+   * Simulates the given star step-by-step, and also simulates a copy of it with fast-forwarding.
+   * If the two are different by more than {@link #FAST_FORWARD_TOLERANCE}, we log a warning. The
+   * star always ends up with the step-by-step result.
+   */
+  private void simulateAndVerify(Star.Builder star) {
+    Star.Builder fastForwardStar = star.build().newBuilder();
+    Simulation fastForwardSimulation = new Simulation(timeOverride, predict, null);
+    fastForwardSimulation.setFastForwardMode(FastForwardMode.ON);
+    fastForwardSimulation.simulate(fastForwardStar);
+
+    fastForwardMode = FastForwardMode.OFF;
+    try {
+      simulate(star);
+    } finally {
+      fastForwardMode = FastForwardMode.VERIFY;
+    }
+
+    String difference = findDifference(star.build(), fastForwardStar.build());
+    if (difference != null) {
+      log.warning("Fast-forwarding star %d (%s) gave a different result: %s",
+          star.id, star.name, difference);
     }
-    star.last_simulation = endTime;
   }
 
   /**
-   * After simulating the first step in the prediction star, copy the mineral, goods and energy
-   * deltas across to the main star.
+   * Compares a star that was simulated step-by-step to one that was fast-forwarded.
+   *
+   * @return A description of the first difference, or null if they're the same (allowing for
+   *     {@link #FAST_FORWARD_TOLERANCE} in the storages).
    */
-  private void copyDeltas(Star.Builder star, Star.Builder predictionStar) {
-    ArrayList<EmpireStorage> stores = new ArrayList<>();
-    for (int i = 0; i < star.empire_stores.size(); i++) {
-      stores.add(star.empire_stores.get(i).newBuilder()
-          .minerals_delta_per_hour(predictionStar.empire_stores.get(i).minerals_delta_per_hour)
-          .goods_delta_per_hour(predictionStar.empire_stores.get(i).goods_delta_per_hour)
-          .energy_delta_per_hour(predictionStar.empire_stores.get(i).energy_delta_per_hour)
+  @Nullable
+  private static String findDifference(Star expected, Star actual) {
+    if (expected.empire_stores.size() != actual.empire_stores.size()) {
+      return String.format(Locale.US, "expected %d empire stores, got %d",
+          expected.empire_stores.size(), actual.empire_stores.size());
+    }
+
+    // Replace the fast-forwarded storages with the expected ones where they're close enough, then
+    // the whole star should be identical.
+    Star.Builder adjusted = actual.newBuilder();
+    for (int i = 0; i < expected.empire_stores.size(); i++) {
+      EmpireStorage expectedStorage = expected.empire_stores.get(i);
+      EmpireStorage actualStorage = actual.empire_stores.get(i);
+      if (!withinTolerance(expectedStorage.total_goods, actualStorage.total_goods)
+          || !withinTolerance(expectedStorage.total_minerals, actualStorage.total_minerals)
+          || !withinTolerance(expectedStorage.total_energy, actualStorage.total_energy)) {
+        return String.format(Locale.US, "expected %s, got %s", expectedStorage, actualStorage);
+      }
+      adjusted.empire_stores.set(i, actualStorage.newBuilder()
+          .total_goods(expectedStorage.total_goods)
+          .total_minerals(expectedStorage.total_minerals)
+          .total_energy(expectedStorage.total_energy)
           .build());
     }
-    star.empire_stores(stores);
+
+    Star adjustedStar = adjusted.build();
+    if (!expected.equals(adjustedStar)) {
+      return String.format(Locale.US, "expected %s, got %s", expected, adjustedStar);
+    }
+    return null;
+  }
+
+  private static boolean withinTolerance(@Nullable Float expected, @Nullable Float actual) {
+    if (expected == null || actual == null) {
+      return expected == actual;
+    }
+    return Math.abs(expected - actual) <= FAST_FORWARD_TOLERANCE * Math.max(1.0f, Math.abs(expected));
+  }
+
+  /**
+   * Called after the step at {@code now} if the whole star was in a steady state, to skip ahead up
+   * to {@code maxSteps} more steps.
+   *
+   * <p>We don't fast-forward if any empire's goods are going down, even if it has plenty left.
+   * Once the goods run out its colonies start to starve, and exactly when that happens depends on
+   * the storage being exactly right, which ours isn't quite.
+   *
+   * @return The number of steps we skipped.
+   */
+  private long fastForward(WorkingStar star, long now, long maxSteps, boolean prediction) {
+    if (fastForwardMode == FastForwardMode.OFF || maxSteps <= 0) {
+      return 0;
+    }
+
+    for (int s = 0; s < star.numStorages; s++) {
+      if (star.storageDirty[s] && star.goodsDeltaPerHour[s] < 0) {
+        return 0;
+      }
+    }
+
+    if (logHandler != null) {
+      log("- Steady state, fast-forwarding %d steps", maxSteps);
+    }
+    float dt = Time.toHours(STEP_TIME);
+    for (int s = 0; s < star.numStorages; s++) {
+      if (!star.storageDirty[s]) {
+        continue;
+      }
+      star.totalGoods[s] = fastForwardTotal(
+          star.totalGoods[s], star.goodsDeltaPerHour[s] * dt, star.maxGoods[s], maxSteps);
+      star.totalMinerals[s] = fastForwardTotal(
+          star.totalMinerals[s], star.mineralsDeltaPerHour[s] * dt, star.maxMinerals[s], maxSteps);
+      star.totalEnergy[s] = fastForwardTotal(
+          star.totalEnergy[s], star.energyDeltaPerHour[s] * dt, star.maxEnergy[s], maxSteps);
+    }
+
+    if (logHandler != null) {
+      for (int empireIndex = 0; empireIndex < star.empireIds.length; empireIndex++) {
+        onStep(now + maxSteps * STEP_TIME, star, empireIndex, prediction, maxSteps);
+      }
+    }
+    return maxSteps;
+  }
+
+  /** Works out a storage total after the given number of steps, each changing it by delta. */
+  private static float fastForwardTotal(float total, float delta, float max, long numSteps) {
+    double newTotal = total + (double) delta * numSteps;
+    if (newTotal > max) {
+      newTotal = max;
+    }
+    return (float) Math.max(0.0, newTotal);
   }
 
   /**
@@ -195,102 +348,153 @@ public class Simulation {
     return (time / STEP_TIME) * STEP_TIME;
   }
 
-  private void simulateStepForAllEmpires(long now, Star.Builder star, Set<Long> empireIds) {
-    log("- Step [now=%s]", Time.format(now));
-    for (Long empireId : empireIds) {
-      log(String.format("-- Empire [%s]", empireId == null ? "Native" : empireId));
-      simulateStep(now, star, empireId);
+  /**
+   * Simulates a single step for every empire on the given {@link WorkingStar}.
+   *
+   * @return Whether every empire was in a steady state, see {@link #simulateStep}.
+   */
+  private boolean simulateStepForAllEmpires(long now, WorkingStar star, boolean prediction) {
+    if (logHandler != null) {
+      log("- Step [now=%s]", Time.format(now));
+    }
+    boolean steady = true;
+    for (int empireIndex = 0; empireIndex < star.empireIds.length; empireIndex++) {
+      if (logHandler != null) {
+        Long empireId = star.empireIds[empireIndex];
+        log("-- Empire [%s]", empireId == null ? "Native" : empireId);
+      }
+      if (!simulateStep(now, star, empireIndex)) {
+        steady = false;
+      }
+      if (logHandler != null) {
+        onStep(now, star, empireIndex, prediction, 1);
+      }
     }
+    return steady;
   }
 
-  private void simulateStep(long now, Star.Builder star, @Nullable Long empireId) {
-    float totalPopulation = 0.0f;
+  /** Passes a {@link SimulationStep} for the given empire on a {@link WorkingStar} to the log. */
+  private void onStep(
+      long now, WorkingStar star, int empireIndex, boolean prediction, long numSteps) {
+    int s = star.empireStorage[empireIndex];
+    if (s < 0) {
+      return;
+    }
 
-    EmpireStorage.Builder storage = null;
-    int storageIndex = -1;
-    for (int i = 0; i < star.empire_stores.size(); i++) {
-      if (!equalEmpire(star.empire_stores.get(i).empire_id, empireId)) {
-        continue;
+    SimulationStep step = new SimulationStep(
+        now, star.empireIds[empireIndex], prediction, numSteps,
+        star.totalGoods[s], star.totalMinerals[s], star.totalEnergy[s],
+        star.goodsDeltaPerHour[s], star.mineralsDeltaPerHour[s], star.energyDeltaPerHour[s]);
+    for (int c = 0; c < star.numColonies; c++) {
+      if (star.colonyEmpire[c] == empireIndex) {
+        step.colonies.add(new SimulationStep.ColonyStep(
+            star.planetIndex[c], star.population[c], star.deltaPopulation[c],
+            star.deltaGoods[c], star.deltaMinerals[c], star.deltaEnergy[c]));
       }
-      storageIndex = i;
-      storage = star.empire_stores.get(i).newBuilder();
     }
-    if (storage == null) {
+    logHandler.onStep(step);
+  }
+
+  /**
+   * Simulates a single step for the given empire on a {@link WorkingStar}.
+   *
+   * <p>Log calls are all guarded with a check for {@link #logHandler}, so that we don't box all of
+   * their arguments on every step when nobody is listening.
+   *
+   * @return Whether the empire was in a steady state for this step: it had nothing to build, no
+   *     colonies in cooldown, none of its colonies' populations changed and it didn't run out of
+   *     goods. If so, the next step will only change its storage (see {@link #fastForward}, which
+   *     also checks that the goods aren't running down).
+   */
+  private boolean simulateStep(long now, WorkingStar star, int empireIndex) {
+    float totalPopulation = 0.0f;
+    boolean steady = true;
+
+    int s = star.empireStorage[empireIndex];
+    if (s < 0) {
       log("No storage found for this empire!");
-      return;
+      return true;
     }
+    star.storageDirty[s] = true;
 
     float dt = Time.toHours(STEP_TIME);
     float goodsDeltaPerHour = 0.0f;
     float mineralsDeltaPerHour = 0.0f;
     float energyDeltaPerHour = 0.0f;
 
-    for (int i = 0; i < star.planets.size(); i++) {
-      Planet planet = star.planets.get(i);
-      if (planet.colony == null) {
-        continue;
-      }
-      Colony.Builder colony = planet.colony.newBuilder();
-      if (!equalEmpire(colony.empire_id, empireId)) {
+    for (int c = 0; c < star.numColonies; c++) {
+      if (star.colonyEmpire[c] != empireIndex) {
         continue;
       }
+      star.colonyDirty[c] = true;
 
-      log("--- Colony [planetIndex=%d] [population=%.2f]", i, colony.population);
+      if (logHandler != null) {
+        log("--- Colony [planetIndex=%d] [population=%.2f]",
+            star.planetIndex[c], star.population[c]);
+      }
 
       // Calculate the output from farming this turn and add it to the star global
-      float goods =
-          colony.population * colony.focus.farming * (planet.farming_congeniality / 100.0f);
-      colony.delta_goods(goods);
-      storage.total_goods(Math.max(0, storage.total_goods + goods * dt));
+      float goods = star.population[c] * star.focusFarming[c] * star.farmingCongeniality[c];
+      star.deltaGoods[c] = goods;
+      star.totalGoods[s] = Math.max(0, star.totalGoods[s] + goods * dt);
       goodsDeltaPerHour += goods;
-      log("    Goods: [total=%.2f] [delta=%.2f / hr] [this turn=%.2f]",
-          storage.total_goods, goods, goods * dt);
+      if (logHandler != null) {
+        log("    Goods: [total=%.2f] [delta=%.2f / hr] [this turn=%.2f]",
+            star.totalGoods[s], goods, goods * dt);
+      }
 
       // calculate the output from mining this turn and add it to the star global
-      float minerals =
-          colony.population * colony.focus.mining * (planet.mining_congeniality / 100.0f);
-      colony.delta_minerals(minerals);
-      storage.total_minerals(Math.max(0, storage.total_minerals + minerals * dt));
+      float minerals = star.population[c] * star.focusMining[c] * star.miningCongeniality[c];
+      star.deltaMinerals[c] = minerals;
+      star.totalMinerals[s] = Math.max(0, star.totalMinerals[s] + minerals * dt);
       mineralsDeltaPerHour += minerals;
-      log("    Minerals: [total=%.2f] [delta=%.2f / hr] [this turn=%.2f]",
-          storage.total_minerals, minerals, minerals * dt);
+      if (logHandler != null) {
+        log("    Minerals: [total=%.2f] [delta=%.2f / hr] [this turn=%.2f]",
+            star.totalMinerals[s], minerals, minerals * dt);
+      }
 
       // calculate the output from energy this turn and add it to the star global
-      float enegry =
-          colony.population * colony.focus.energy * (planet.energy_congeniality / 100.0f);
-      colony.delta_energy(enegry);
-      storage.total_energy(Math.max(0, storage.total_energy + enegry * dt));
-      energyDeltaPerHour += enegry;
-      log("    Energy: [total=%.2f] [delta=%.2f / hr] [this turn=%.2f]",
-          storage.total_energy, enegry, enegry * dt);
-
-      totalPopulation += colony.population;
+      float energy = star.population[c] * star.focusEnergy[c] * star.energyCongeniality[c];
+      star.deltaEnergy[c] = energy;
+      star.totalEnergy[s] = Math.max(0, star.totalEnergy[s] + energy * dt);
+      energyDeltaPerHour += energy;
+      if (logHandler != null) {
+        log("    Energy: [total=%.2f] [delta=%.2f / hr] [this turn=%.2f]",
+            star.totalEnergy[s], energy, energy * dt);
+      }
 
-      star.planets.set(i, planet.newBuilder().colony(colony.build()).build());
+      totalPopulation += star.population[c];
+      if (goods < 0 || minerals < 0 || energy < 0) {
+        // Negative output gets clamped to zero, fastForward can't do that.
+        steady = false;
+      }
     }
 
     // A second loop though the colonies, once the goods/minerals have been calculated.
-    for (int i = 0; i < star.planets.size(); i++) {
-      Planet.Builder planet = star.planets.get(i).newBuilder();
-      if (planet.colony == null) {
+    for (int c = 0; c < star.numColonies; c++) {
+      if (star.colonyEmpire[c] != empireIndex) {
         continue;
       }
-      Colony.Builder colony = planet.colony.newBuilder();
-      if (!equalEmpire(colony.empire_id, empireId)) {
+      int firstBuildRequest = star.buildRequestStart[c];
+      int lastBuildRequest = star.buildRequestStart[c + 1];
+      if (firstBuildRequest == lastBuildRequest) {
         continue;
       }
-      if (colony.build_requests == null || colony.build_requests.isEmpty()) {
-        continue;
+      for (int j = firstBuildRequest; j < lastBuildRequest; j++) {
+        if (star.buildRequestProgress[j] < 1.0f) {
+          // Either we're building this now, or we will be soon.
+          steady = false;
+        }
       }
 
       // not all build requests will be processed this turn. We divide up the population
       // based on the number of ACTUAL build requests they'll be working on this turn
       int numValidBuildRequests = 0;
-      for (BuildRequest br : colony.build_requests) {
-        if (br.start_time > now + STEP_TIME) {
+      for (int j = firstBuildRequest; j < lastBuildRequest; j++) {
+        if (star.buildRequestStartTime[j] > now + STEP_TIME) {
           continue;
         }
-        if (br.progress >= 1.0f) {
+        if (star.buildRequestProgress[j] >= 1.0f) {
           continue;
         }
 
@@ -300,112 +504,105 @@ public class Simulation {
 
       // If we have pending build requests, we'll have to update them as well
       if (numValidBuildRequests > 0) {
-        float totalWorkers = colony.population * colony.focus.construction;
+        float totalWorkers = star.population[c] * star.focusConstruction[c];
         float workersPerBuildRequest = totalWorkers / numValidBuildRequests;
-        float mineralsPerBuildRequest = storage.total_minerals / numValidBuildRequests;
+        float mineralsPerBuildRequest = star.totalMinerals[s] / numValidBuildRequests;
 
-        log("--- Building [buildRequests=%d] [planetIndex=%d] [totalWorker=%.2f] [totalMinerals=%.2f]",
-            numValidBuildRequests, planet.index, totalWorkers, storage.total_minerals);
+        if (logHandler != null) {
+          log("--- Building [buildRequests=%d] [planetIndex=%d] [totalWorker=%.2f] [totalMinerals=%.2f]",
+              numValidBuildRequests, star.planetIndexField[c], totalWorkers,
+              star.totalMinerals[s]);
+        }
 
         // OK, we can spare at least ONE population
         if (workersPerBuildRequest < 1.0f) {
           workersPerBuildRequest = 1.0f;
         }
 
-        ArrayList<BuildRequest> completeBuildRequests = new ArrayList<>();
-        for (int j = 0; j < colony.build_requests.size(); j++) {
-          BuildRequest.Builder br = colony.build_requests.get(j).newBuilder();
-          Design design = DesignHelper.getDesign(br.design_type);
-
-          long startTime = br.start_time;
-          if (startTime > now + STEP_TIME || br.progress >= 1.0f) {
-            completeBuildRequests.add(br.build());
+        for (int j = firstBuildRequest; j < lastBuildRequest; j++) {
+          long startTime = star.buildRequestStartTime[j];
+          float progress = star.buildRequestProgress[j];
+          if (startTime > now + STEP_TIME || progress >= 1.0f) {
             continue;
           }
 
-          // the build cost is defined by the original design, or possibly by the upgrade if that
-          // is what it is.
+          Design design = star.buildRequestDesign[j];
           Design.BuildCost buildCost = design.build_cost;
-          //if (br.mExistingFleetID != null) {
-          //  ShipDesign shipDesign = (ShipDesign) design;
-          //  ShipDesign.Upgrade upgrade = shipDesign.getUpgrade(br.getUpgradeID());
-          //  buildCost = upgrade.getBuildCost();
-          //}
-
-          log("---- Building [design=%s %s] [count=%d] cost [workers=%d] [minerals=%d] [start-time=%s]",
-              design.design_kind, design.type, br.count, buildCost.population, buildCost.minerals,
-              Time.format(br.start_time));
-
-          // The total amount of time to build something is based on the number of workers it
-          // requires, if you have the right number of workers and the right amount of minerals,
-          // you can finish the build in one turn. We require whatever fraction of progress is left
-          // of both minerals and workers.
-          float totalWorkersRequired = buildCost.population * (1.0f - br.progress) * br.count;
-          float totalMineralsRequired = buildCost.minerals * (1.0f - br.progress) * br.count;
-          log("     Required: [population=%.2f] [minerals=%.2f]",
-              totalWorkersRequired, totalMineralsRequired);
-
-          // The amount of work we can do this turn is the minimum of whatever resources we have
-          // available allows.
+          int count = star.buildRequestCount[j];
+          if (logHandler != null) {
+            log("---- Building [design=%s %s] [count=%d] cost [workers=%d] [minerals=%d] [start-time=%s]",
+                design.design_kind, design.type, count, buildCost.population, buildCost.minerals,
+                Time.format(startTime));
+          }
+
+          // See the other simulateStep for how all this works.
+          float totalWorkersRequired = buildCost.population * (1.0f - progress) * count;
+          float totalMineralsRequired = buildCost.minerals * (1.0f - progress) * count;
+          if (logHandler != null) {
+            log("     Required: [population=%.2f] [minerals=%.2f]",
+                totalWorkersRequired, totalMineralsRequired);
+          }
+
           float progressThisTurn = Math.min(
               workersPerBuildRequest / totalWorkersRequired,
               mineralsPerBuildRequest / totalMineralsRequired);
-          log("     Progress: [this turn=%.4f] [total=%.4f]",
-              progressThisTurn, br.progress + progressThisTurn);
+          if (logHandler != null) {
+            log("     Progress: [this turn=%.4f] [total=%.4f]",
+                progressThisTurn, progress + progressThisTurn);
+          }
 
-          // If it started half way through this step, the progress is lessened.
-          if (br.start_time > now) {
+          if (startTime > now) {
             float fraction = ((float) startTime - now) / STEP_TIME;
             progressThisTurn *= fraction;
-            log("    - reduced progress: %.2f (fraction=%.2f)", progressThisTurn, fraction);
+            if (logHandler != null) {
+              log("    - reduced progress: %.2f (fraction=%.2f)", progressThisTurn, fraction);
+            }
           }
 
-          // what is the current amount of time we have now as a percentage of the total build
-          // time?
-          if (progressThisTurn + br.progress >= 1.0f) {
-            // OK, we've finished! Work out how far into the step we completed.
-            float unusedProgress = progressThisTurn + br.progress - 1.0f;
+          if (progressThisTurn + progress >= 1.0f) {
+            float unusedProgress = progressThisTurn + progress - 1.0f;
             float fractionProgress = (progressThisTurn - unusedProgress) / progressThisTurn;
             long endTime = now;
-            if (br.start_time > now) {
-              endTime = br.start_time;
+            if (startTime > now) {
+              endTime = startTime;
             }
             endTime += (long)(STEP_TIME * fractionProgress);
 
-            log("     FINISHED! fraction-progress = %.2f, end-time=%s",
-                fractionProgress, Time.format(endTime));
-            br.progress(1.0f);
-            br.end_time(endTime);
-            completeBuildRequests.add(br.build());
+            if (logHandler != null) {
+              log("     FINISHED! fraction-progress = %.2f, end-time=%s",
+                  fractionProgress, Time.format(endTime));
+            }
+            star.buildRequestProgress[j] = 1.0f;
+            star.buildRequestHasEndTime[j] = true;
+            star.buildRequestEndTime[j] = endTime;
             continue;
           }
 
-          // work hasn't finished yet, so lets estimate how long it will take now
           float remainingWorkersRequired =
-              buildCost.population * (1.0f - br.progress - progressThisTurn) * br.count;
+              buildCost.population * (1.0f - progress - progressThisTurn) * count;
           float remainingMineralsRequired =
-              buildCost.minerals * (1.0f - br.progress - progressThisTurn) * br.count;
+              buildCost.minerals * (1.0f - progress - progressThisTurn) * count;
 
           float mineralsUsedThisTurn = totalMineralsRequired - remainingMineralsRequired;
-          storage.total_minerals(Math.max(0, storage.total_minerals - mineralsUsedThisTurn));
+          star.totalMinerals[s] = Math.max(0, star.totalMinerals[s] - mineralsUsedThisTurn);
           mineralsDeltaPerHour -= mineralsUsedThisTurn;
-          log("     Used: [minerals=%.4f]", mineralsUsedThisTurn);
+          if (logHandler != null) {
+            log("     Used: [minerals=%.4f]", mineralsUsedThisTurn);
+          }
 
           float timeForMineralsHours =
               remainingMineralsRequired / mineralsUsedThisTurn / (Time.HOUR / STEP_TIME);
           float timeForPopulationHours =
               remainingWorkersRequired / workersPerBuildRequest / (Time.HOUR / STEP_TIME);
-          log("     Remaining: [minerals=%.2f hrs] [population=%.2f hrs]",
-              timeForMineralsHours, timeForPopulationHours);
-          br.end_time(now +
-              Math.round(Math.max(timeForMineralsHours, timeForPopulationHours)) * Time.HOUR);
-          br.progress(br.progress + progressThisTurn);
-
-          completeBuildRequests.add(br.build());
+          if (logHandler != null) {
+            log("     Remaining: [minerals=%.2f hrs] [population=%.2f hrs]",
+                timeForMineralsHours, timeForPopulationHours);
+          }
+          star.buildRequestHasEndTime[j] = true;
+          star.buildRequestEndTime[j] = now +
+              Math.round(Math.max(timeForMineralsHours, timeForPopulationHours)) * Time.HOUR;
+          star.buildRequestProgress[j] = progress + progressThisTurn;
         }
-
-        star.planets.set(i, planet.colony(
-            colony.build_requests(completeBuildRequests).build()).build());
       }
     }
 
@@ -421,87 +618,87 @@ public class Simulation {
     // If we have more than total_goods_required stored, then we're cool. Otherwise, our population
     // suffers...
     float goodsEfficiency = 1.0f;
-    if (totalGoodsRequired > storage.total_goods && totalGoodsRequired > 0) {
-      goodsEfficiency = storage.total_goods / totalGoodsRequired;
+    if (totalGoodsRequired > star.totalGoods[s] && totalGoodsRequired > 0) {
+      goodsEfficiency = star.totalGoods[s] / totalGoodsRequired;
+      steady = false;
     }
 
-    log("--- Updating Population [goods required=%.2f] [goods available=%.2f] [efficiency=%.2f]",
-        totalGoodsRequired, storage.total_goods, goodsEfficiency);
+    if (logHandler != null) {
+      log("--- Updating Population [goods required=%.2f] [goods available=%.2f] [efficiency=%.2f]",
+          totalGoodsRequired, star.totalGoods[s], goodsEfficiency);
+    }
 
     // subtract all the goods we'll need
-    storage.total_goods(storage.total_goods - totalGoodsRequired);
-    if (storage.total_goods <= 0.0f) {
+    star.totalGoods[s] = star.totalGoods[s] - totalGoodsRequired;
+    if (star.totalGoods[s] <= 0.0f) {
       // We've run out of goods! That's bad...
-      storage.total_goods(0.0f);
+      star.totalGoods[s] = 0.0f;
+      steady = false;
 
-      if (storage.goods_zero_time == null || storage.goods_zero_time > now) {
+      if (!star.hasGoodsZeroTime[s] || star.goodsZeroTime[s] > now) {
         log("    GOODS HAVE HIT ZERO");
-        storage.goods_zero_time(now);
+        star.hasGoodsZeroTime[s] = true;
+        star.goodsZeroTime[s] = now;
       }
     }
 
     // now loop through the colonies and update the population/goods counter
-    for (int i = 0; i < star.planets.size(); i++) {
-      Planet planet = star.planets.get(i);
-      if (planet.colony == null) {
-        continue;
-      }
-      Colony.Builder colony = planet.colony.newBuilder();
-      if (!equalEmpire(colony.empire_id, empireId)) {
+    for (int c = 0; c < star.numColonies; c++) {
+      if (star.colonyEmpire[c] != empireIndex) {
         continue;
       }
 
       float populationIncrease;
       if (goodsEfficiency >= 1.0f) {
-        populationIncrease = Math.max(colony.population, 10.0f) * 0.1f;
+        populationIncrease = Math.max(star.population[c], 10.0f) * 0.1f;
       } else {
-        populationIncrease = Math.max(colony.population, 10.0f);
+        populationIncrease = Math.max(star.population[c], 10.0f);
         populationIncrease *= 0.9f;
         populationIncrease *= 0.25f * (goodsEfficiency - 1.0f);
       }
 
-      colony.delta_population(populationIncrease);
+      star.deltaPopulation[c] = populationIncrease;
       float populationIncreaseThisTurn = populationIncrease * dt;
 
-      if (colony.cooldown_end_time != null && colony.cooldown_end_time < now) {
+      if (star.hasCooldownEndTime[c] && star.cooldownEndTime[c] < now) {
         log("    Colony is no longer in cooldown period.");
-        colony.cooldown_end_time = null;
+        star.hasCooldownEndTime[c] = false;
       }
 
-      int maxPopulation = ColonyHelper.getMaxPopulation(planet);
-      float newPopulation = colony.population + populationIncreaseThisTurn;
+      int maxPopulation = star.maxPopulation[c];
+      float newPopulation = star.population[c] + populationIncreaseThisTurn;
       if (newPopulation < 1.0f) {
         newPopulation = 0.0f;
       } else if (newPopulation > maxPopulation) {
         newPopulation = maxPopulation;
       }
-      if (newPopulation < 100.0f && colony.cooldown_end_time != null) {
+      if (newPopulation < 100.0f && star.hasCooldownEndTime[c]) {
         newPopulation = 100.0f;
       }
-      log("    Colony[%d]: [delta=%.2f] [new=%.2f]", i, populationIncrease, newPopulation);
-      colony.population(newPopulation);
-
-      star.planets.set(i, planet.newBuilder().colony(colony.build()).build());
+      if (logHandler != null) {
+        log("    Colony[%d]: [delta=%.2f] [new=%.2f]",
+            star.planetIndex[c], populationIncrease, newPopulation);
+      }
+      if (newPopulation != star.population[c] || star.hasCooldownEndTime[c]) {
+        steady = false;
+      }
+      star.population[c] = newPopulation;
     }
 
-    if (storage.total_goods > storage.max_goods) {
-      storage.total_goods = storage.max_goods;
+    if (star.totalGoods[s] > star.maxGoods[s]) {
+      star.totalGoods[s] = star.maxGoods[s];
     }
-    if (storage.total_minerals > storage.max_minerals) {
-      storage.total_minerals = storage.max_minerals;
+    if (star.totalMinerals[s] > star.maxMinerals[s]) {
+      star.totalMinerals[s] = star.maxMinerals[s];
     }
-    if (storage.total_energy > storage.max_energy) {
-      storage.total_energy = storage.max_energy;
+    if (star.totalEnergy[s] > star.maxEnergy[s]) {
+      star.totalEnergy[s] = star.maxEnergy[s];
     }
 
-    storage.goods_delta_per_hour(goodsDeltaPerHour);
-    storage.minerals_delta_per_hour(mineralsDeltaPerHour);
-    storage.energy_delta_per_hour(energyDeltaPerHour);
-    if (storageIndex >= 0) {
-      star.empire_stores.set(storageIndex, storage.build());
-    } else {
-      star.empire_stores.add(storage.build());
-    }
+    star.goodsDeltaPerHour[s] = goodsDeltaPerHour;
+    star.mineralsDeltaPerHour[s] = mineralsDeltaPerHour;
+    star.energyDeltaPerHour[s] = energyDeltaPerHour;
+    return steady;
   }
 
   /**
@@ -515,6 +712,8 @@ public class Simulation {
    * <p>If a fleet is destroyed by the attack, the remaining attack points are then used to target
    * another fleet in the same round until there's no more attack points left. This is so that you
    * get an advantage by splitting up all your fleets.
+   *
+   * <p>The rounds all run on a {@link WorkingFleets}, which we write back to the star at the end.
    */
   private void simulateCombat(Star.Builder star, long now) {
     // if there's no fleets in ATTACKING mode, then there's nothing to do
@@ -526,14 +725,20 @@ public class Simulation {
     CombatReport.Builder combatReportBuilder = new CombatReport.Builder()
         .time(now)
         .fleets_before(new ArrayList<>(star.fleets));
-    log("Begin combat for '%s'", star.name);
+    if (logHandler != null) {
+      log("Begin combat for '%s'", star.name);
+    }
 
+    WorkingFleets fleets = WorkingFleets.load(star);
     int roundNumber = 1;
     do {
-      log(" - Combat round %d", roundNumber);
-      simulateCombatRound(star, now);
+      if (logHandler != null) {
+        log(" - Combat round %d", roundNumber);
+      }
+      simulateCombatRound(fleets);
       roundNumber ++;
-    } while (anyFleetsAttacking(star));
+    } while (fleets.anyAttacking());
+    fleets.store(star, now);
 
     // Add the combat report to the star, and remove any if there's more than 10 in the history.
     combatReportBuilder.fleets_after(new ArrayList<>(star.fleets));
@@ -555,146 +760,103 @@ public class Simulation {
     return numAttacking > 0;
   }
 
-  /** Simulate a single round of combat on the given star. */
-  private void simulateCombatRound(Star.Builder star, long now) {
-    Map<Long, Double> damageCounter = new HashMap<>();
-
-    for (int i = 0; i < star.fleets.size(); i++) {
-      Fleet fleet = star.fleets.get(i);
-      if (fleet.state == Fleet.FLEET_STATE.ATTACKING) {
-        // Work out how much attacking power this fleet has.
-        Design design = DesignHelper.getDesign(fleet.design_type);
-        double attack = fleet.num_ships * design.base_attack;
-        log("   - Fleet=[%d %s] numShips=%.2f", fleet.id, design.display_name, fleet.num_ships);
-        while (attack > 0.0) {
-          Fleet target = findTarget(star, fleet, damageCounter);
-          if (target == null) {
-            log("      No target.");
-            // No target was found, there's nothing left to attack.
-            star.fleets.set(i, star.fleets.get(i).newBuilder()
-                .state(Fleet.FLEET_STATE.IDLE)
-                .state_start_time(now)
-                .build());
-            break;
-          } else {
-            // Got a target, work out how much damage this fleet has already taken.
-            Double numShips = (double) target.num_ships;
-            double previousDamage = 0.0;
-            if (damageCounter.containsKey(target.id)) {
-              previousDamage = damageCounter.get(target.id);
-              numShips -= previousDamage;
-            }
-            log("      Target=[%d] numShips=%.4f * %.2f <-- attack=%.4f",
-                target.id, numShips, design.base_defence, attack);
-            numShips *= design.base_defence;
-            if (numShips >= attack) {
-              // If there's more ships than we have attack capability, just apply the damage.
-              damageCounter.put(target.id, previousDamage + (attack / design.base_defence));
-              attack -= numShips;
-            } else {
-              // If we have more attack capability than they have ships, they're dead.
-              damageCounter.put(target.id, (double) target.num_ships);
-              attack = 0;
-            }
-          }
-        }
+  /** Simulate a single round of combat on a {@link WorkingFleets}. */
+  private void simulateCombatRound(WorkingFleets fleets) {
+    fleets.startRound();
+    boolean anyDamage = false;
+
+    for (int i = 0; i < fleets.numFleets; i++) {
+      if (fleets.state[i] != Fleet.FLEET_STATE.ATTACKING) {
+        continue;
       }
-    }
 
-    if (damageCounter.size() > 0) {
-      log("   -- Applying damage...");
-      // Now that everyone has attacked, apply the damage.
-      for (int i = 0; i < star.fleets.size(); i++) {
-        Fleet fleet = star.fleets.get(i);
-        Double damage = damageCounter.get(fleet.id);
-        if (damage == null) {
-          continue;
+      // Work out how much attacking power this fleet has.
+      float baseDefence = fleets.baseDefence[i];
+      double attack = fleets.numShips[i] * fleets.baseAttack[i];
+      if (logHandler != null) {
+        log("   - Fleet=[%d %s] numShips=%.2f",
+            fleets.fleets[i].id, fleets.designs[i].display_name, fleets.numShips[i]);
+      }
+      while (attack > 0.0) {
+        int target = fleets.findTarget(i);
+        if (target < 0) {
+          log("      No target.");
+          // No target was found, there's nothing left to attack.
+          fleets.state[i] = Fleet.FLEET_STATE.IDLE;
+          fleets.wentIdle[i] = true;
+          break;
         }
 
-        if (fleet.num_ships <= damage) {
-          log("      Fleet=%d destroyed (num_ships=%.4f <= damage=%.4f).",
-              fleet.id, fleet.num_ships, damage);
-          star.fleets.set(i, fleet.newBuilder()
-              .is_destroyed(true)
-              .num_ships(0.0f)
-              .build());
+        // Got a target, work out how much damage this fleet has already taken.
+        double numShips = fleets.numShips[target];
+        double previousDamage = 0.0;
+        if (fleets.damaged[target]) {
+          previousDamage = fleets.damage[target];
+          numShips -= previousDamage;
+        }
+        if (logHandler != null) {
+          log("      Target=[%d] numShips=%.4f * %.2f <-- attack=%.4f",
+              fleets.fleets[target].id, numShips, baseDefence, attack);
+        }
+        numShips *= baseDefence;
+        if (numShips >= attack) {
+          // If there's more ships than we have attack capability, just apply the damage.
+          fleets.damage[target] = previousDamage + (attack / baseDefence);
+          attack -= numShips;
         } else {
-          // They'll be attacking next round (unless their stance is passive).
-          Fleet.FLEET_STATE state = Fleet.FLEET_STATE.ATTACKING;
-          if (fleet.stance == Fleet.FLEET_STANCE.PASSIVE) {
-            state = fleet.state;
-          }
-          log("      Fleet=%d numShips=%.4f state=%s.",
-              fleet.id, fleet.num_ships - (float) (double) damage, state);
-          star.fleets.set(i, fleet.newBuilder()
-              .num_ships(fleet.num_ships - (float) (double) damage)
-              .state(state)
-              .build());
+          // If we have more attack capability than they have ships, they're dead.
+          fleets.damage[target] = fleets.numShips[target];
+          attack = 0;
         }
+        fleets.damaged[target] = true;
+        anyDamage = true;
       }
-    } else {
-      log("   -- No damage to apply.");
     }
-  }
-
-  /**
-   * Searches for an enemy fleet with the lowest priority.
-   *
-   * @param star The star we're searching on.
-   * @param fleet The fleet we're searching for a target for.
-   * @param damageCounter A mapping of fleet IDs to the damage they've taken so far this round (so
-   *                      that we don't target them if they're already destroyed).
-   */
-  @Nullable
-  private Fleet findTarget(Star.Builder star, Fleet fleet, Map<Long, Double> damageCounter) {
-    int foundPriority = 9999;
-    Fleet target = null;
-
-    for (Fleet potentialTarget : star.fleets) {
-      // If it's moving we can't attack it.
-      if (potentialTarget.state == Fleet.FLEET_STATE.MOVING) {
-        continue;
-      }
-
-      // If it's destroyed, it's not a good target.
-      if (potentialTarget.is_destroyed != null && potentialTarget.is_destroyed) {
-        continue;
-      }
 
-      // If it's friendly, we can't attack it,
-      if (FleetHelper.isFriendly(fleet, potentialTarget)) {
-        continue;
-      }
+    if (!anyDamage) {
+      log("   -- No damage to apply.");
+      return;
+    }
 
-      // If it's already destroyed, we can't attack it.
-      Double damage = damageCounter.get(potentialTarget.id);
-      if (damage != null && damage >= potentialTarget.num_ships) {
+    log("   -- Applying damage...");
+    // Now that everyone has attacked, apply the damage.
+    for (int i = 0; i < fleets.numFleets; i++) {
+      if (!fleets.damaged[i]) {
         continue;
       }
 
-      // If its priority is higher than the one we've already found, then don't bother.
-      Design design = DesignHelper.getDesign(potentialTarget.design_type);
-      if (design.combat_priority > foundPriority) {
-        continue;
+      double damage = fleets.damage[i];
+      if (fleets.numShips[i] <= damage) {
+        if (logHandler != null) {
+          log("      Fleet=%d destroyed (num_ships=%.4f <= damage=%.4f).",
+              fleets.fleets[i].id, fleets.numShips[i], damage);
+        }
+        fleets.destroyed[i] = true;
+        fleets.numShips[i] = 0.0f;
+      } else {
+        // They'll be attacking next round (unless their stance is passive).
+        if (fleets.fleets[i].stance != Fleet.FLEET_STANCE.PASSIVE) {
+          fleets.state[i] = Fleet.FLEET_STATE.ATTACKING;
+        }
+        fleets.numShips[i] = fleets.numShips[i] - (float) damage;
+        if (logHandler != null) {
+          log("      Fleet=%d numShips=%.4f state=%s.",
+              fleets.fleets[i].id, fleets.numShips[i], fleets.state[i]);
+        }
       }
-
-      foundPriority = design.combat_priority;
-      target = potentialTarget;
     }
-
-    return target;
   }
 
-  private static boolean equalEmpire(Long one, Long two) {
-    if (one == null && two == null) {
-      return true;
-    }
-    if (one == null || two == null) {
-      return false;
+  private void log(String message) {
+    if (logHandler != null) {
+      logHandler.log(message);
     }
-    return one.equals(two);
   }
 
+  /**
+   * Formats and logs the given message. The arguments are boxed into an array before we even get
+   * here, so calls in the simulation loop must check for a {@link #logHandler} first.
+   */
   private void log(String format, Object... args) {
     if (logHandler != null) {
       logHandler.log(String.format(Locale.US, format, args));
@@ -704,10 +866,20 @@ public class Simulation {
   /**
    * This interface is used to help debug the simulation code. Implement it to receive a bunch
    * of debug log messages during the simulation process.
+   *
+   * <p>When there's no {@link LogHandler}, the simulation doesn't format (or even build) any of its
+   * log messages or {@link SimulationStep}s, so there's no cost to having them.
    */
   public interface LogHandler {
     void setStarName(String starName);
     void log(String message);
+
+    /**
+     * Called after each step of the simulation with a snapshot of one empire on the star, for
+     * when you want something more structured than the log messages.
+     */
+    default void onStep(SimulationStep step) {
+    }
   }
 
   private static class BasicLogHandler implements LogHandler {
@@ -0,0 +1,86 @@
+package au.com.codeka.warworlds.common.sim;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A snapshot of one empire on a star after a step of the {@link Simulation}, passed to
+ * {@link Simulation.LogHandler#onStep}. It's a plain object so that it can be serialized straight
+ * to JSON.
+ */
+public class SimulationStep {
+  /** The time of the step. */
+  public final long time;
+
+  /** The ID of the empire, or null for natives. */
+  @Nullable public final Long empireId;
+
+  /** True if this was a prediction step, after we'd caught up to the current time. */
+  public final boolean prediction;
+
+  /**
+   * The number of steps this covers: usually one, but more than that if the star was in a steady
+   * state and we fast-forwarded over them.
+   */
+  public final long numSteps;
+
+  public final float totalGoods;
+  public final float totalMinerals;
+  public final float totalEnergy;
+  public final float goodsDeltaPerHour;
+  public final float mineralsDeltaPerHour;
+  public final float energyDeltaPerHour;
+
+  /** The empire's colonies on the star. */
+  public final List<ColonyStep> colonies = new ArrayList<>();
+
+  SimulationStep(
+      long time,
+      @Nullable Long empireId,
+      boolean prediction,
+      long numSteps,
+      float totalGoods,
+      float totalMinerals,
+      float totalEnergy,
+      float goodsDeltaPerHour,
+      float mineralsDeltaPerHour,
+      float energyDeltaPerHour) {
+    this.time = time;
+    this.empireId = empireId;
+    this.prediction = prediction;
+    this.numSteps = numSteps;
+    this.totalGoods = totalGoods;
+    this.totalMinerals = totalMinerals;
+    this.totalEnergy = totalEnergy;
+    this.goodsDeltaPerHour = goodsDeltaPerHour;
+    this.mineralsDeltaPerHour = mineralsDeltaPerHour;
+    this.energyDeltaPerHour = energyDeltaPerHour;
+  }
+
+  /** A snapshot of a single colony after the step. */
+  public static class ColonyStep {
+    /** The index of the colony's planet in the star's list of planets. */
+    public final int planetIndex;
+    public final float population;
+    public final float deltaPopulation;
+    public final float deltaGoods;
+    public final float deltaMinerals;
+    public final float deltaEnergy;
+
+    ColonyStep(
+        int planetIndex,
+        float population,
+        float deltaPopulation,
+        float deltaGoods,
+        float deltaMinerals,
+        float deltaEnergy) {
+      this.planetIndex = planetIndex;
+      this.population = population;
+      this.deltaPopulation = deltaPopulation;
+      this.deltaGoods = deltaGoods;
+      this.deltaMinerals = deltaMinerals;
+      this.deltaEnergy = deltaEnergy;
+    }
+  }
+}
@@ -0,0 +1,185 @@
+package au.com.codeka.warworlds.common.sim;
+
+import au.com.codeka.warworlds.common.proto.Fleet;
+import au.com.codeka.warworlds.common.proto.Planet;
+import au.com.codeka.warworlds.common.proto.Star;
+import au.com.codeka.warworlds.common.proto.StarDelta;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * A helper for calculating and applying {@link StarDelta}s.
+ */
+public class StarDeltaHelper {
+  /**
+   * Calculates the {@link StarDelta} which turns {@code oldStar} into {@code newStar}.
+   *
+   * @return The delta, or null if the difference can't be expressed as a delta (for example, one of
+   *     the stars doesn't have a seq, or some fleets don't have IDs). In that case, you'll have to
+   *     send the whole star.
+   */
+  @Nullable
+  public static StarDelta diff(Star oldStar, Star newStar) {
+    if (!oldStar.id.equals(newStar.id) || oldStar.seq == null || newStar.seq == null) {
+      return null;
+    }
+
+    StarDelta.Builder delta = new StarDelta.Builder()
+        .star_id(newStar.id)
+        .base_seq(oldStar.seq)
+        .seq(newStar.seq);
+
+    Star newScalars = getScalars(newStar);
+    if (!getScalars(oldStar).equals(newScalars)) {
+      delta.scalars(newScalars);
+    }
+
+    // Planets never come or go, so we can just compare them one-by-one.
+    if (oldStar.planets.size() != newStar.planets.size()) {
+      return null;
+    }
+    List<Planet> planets = new ArrayList<>();
+    for (int i = 0; i < newStar.planets.size(); i++) {
+      Planet oldPlanet = oldStar.planets.get(i);
+      Planet newPlanet = newStar.planets.get(i);
+      if (newPlanet.index == null || !newPlanet.index.equals(oldPlanet.index)) {
+        return null;
+      }
+      if (!oldPlanet.equals(newPlanet)) {
+        planets.add(newPlanet);
+      }
+    }
+    delta.planets(planets);
+
+    if (!diffFleets(oldStar.fleets, newStar.fleets, delta)) {
+      return null;
+    }
+
+    if (!oldStar.empire_stores.equals(newStar.empire_stores)) {
+      delta.empire_stores_changed(true);
+      delta.empire_stores(newStar.empire_stores);
+    }
+    if (!oldStar.combat_reports.equals(newStar.combat_reports)) {
+      delta.combat_reports_changed(true);
+      delta.combat_reports(newStar.combat_reports);
+    }
+
+    return delta.build();
+  }
+
+  /**
+   * Applies the given {@link StarDelta} to the given {@link Star}. The star's seq must be the same
+   * as the delta's base_seq, otherwise the result will be garbage.
+   */
+  public static Star apply(Star star, StarDelta delta) {
+    Star.Builder starBuilder =
+        (delta.scalars != null ? delta.scalars : getScalars(star)).newBuilder();
+    starBuilder.seq(delta.seq);
+
+    List<Planet> planets = new ArrayList<>(star.planets);
+    for (Planet planet : delta.planets) {
+      for (int i = 0; i < planets.size(); i++) {
+        if (planets.get(i).index.equals(planet.index)) {
+          planets.set(i, planet);
+          break;
+        }
+      }
+    }
+    starBuilder.planets(planets);
+
+    HashSet<Long> removedFleetIds = new HashSet<>(delta.removed_fleet_ids);
+    LinkedHashMap<Long, Fleet> updatedFleets = new LinkedHashMap<>();
+    for (Fleet fleet : delta.fleets) {
+      updatedFleets.put(fleet.id, fleet);
+    }
+    List<Fleet> fleets = new ArrayList<>();
+    for (Fleet fleet : star.fleets) {
+      if (removedFleetIds.contains(fleet.id)) {
+        continue;
+      }
+      Fleet updatedFleet = updatedFleets.remove(fleet.id);
+      fleets.add(updatedFleet != null ? updatedFleet : fleet);
+    }
+    // Anything left over is a new fleet.
+    fleets.addAll(updatedFleets.values());
+    starBuilder.fleets(fleets);
+
+    starBuilder.empire_stores(
+        Boolean.TRUE.equals(delta.empire_stores_changed)
+            ? delta.empire_stores : star.empire_stores);
+    starBuilder.combat_reports(
+        Boolean.TRUE.equals(delta.combat_reports_changed)
+            ? delta.combat_reports : star.combat_reports);
+    return starBuilder.build();
+  }
+
+  /**
+   * Adds the difference between the two lists of fleets to the given delta.
+   *
+   * @return false if the difference can't be represented in a delta: if some fleets don't have
+   *     IDs, or if the fleets have been re-ordered (since {@link #apply} would get the order wrong).
+   */
+  private static boolean diffFleets(
+      List<Fleet> oldFleets, List<Fleet> newFleets, StarDelta.Builder delta) {
+    Map<Long, Fleet> oldFleetsById = new HashMap<>();
+    for (Fleet fleet : oldFleets) {
+      if (fleet.id == null || oldFleetsById.put(fleet.id, fleet) != null) {
+        return false;
+      }
+    }
+    Map<Long, Fleet> newFleetsById = new HashMap<>();
+    for (Fleet fleet : newFleets) {
+      if (fleet.id == null || newFleetsById.put(fleet.id, fleet) != null) {
+        return false;
+      }
+    }
+
+    // apply() keeps the remaining old fleets in their existing order and adds new fleets on the
+    // end, so work out what order that'll be and make sure it matches.
+    List<Long> expectedOrder = new ArrayList<>();
+    List<Long> removedFleetIds = new ArrayList<>();
+    for (Fleet fleet : oldFleets) {
+      if (newFleetsById.containsKey(fleet.id)) {
+        expectedOrder.add(fleet.id);
+      } else {
+        removedFleetIds.add(fleet.id);
+      }
+    }
+    List<Fleet> changedFleets = new ArrayList<>();
+    for (Fleet fleet : newFleets) {
+      Fleet oldFleet = oldFleetsById.get(fleet.id);
+      if (oldFleet == null) {
+        expectedOrder.add(fleet.id);
+        changedFleets.add(fleet);
+      } else if (!oldFleet.equals(fleet)) {
+        changedFleets.add(fleet);
+      }
+    }
+    for (int i = 0; i < newFleets.size(); i++) {
+      if (!expectedOrder.get(i).equals(newFleets.get(i).id)) {
+        return false;
+      }
+    }
+
+    delta.fleets(changedFleets);
+    delta.removed_fleet_ids(removedFleetIds);
+    return true;
+  }
+
+  /** Gets a copy of the given star with the seq and all of the repeated fields cleared. */
+  private static Star getScalars(Star star) {
+    return star.newBuilder()
+        .seq(null)
+        .planets(Collections.emptyList())
+        .empire_stores(Collections.emptyList())
+        .fleets(Collections.emptyList())
+        .combat_reports(Collections.emptyList())
+        .build();
+  }
+}
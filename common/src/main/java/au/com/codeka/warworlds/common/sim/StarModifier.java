@@ -29,16 +29,6 @@ public class StarModifier {
 
   private static final long HOURS_MS = 3600000L;
 
-  private static final Simulation.LogHandler EMPTY_LOG_HANDLER = new Simulation.LogHandler() {
-    @Override
-    public void setStarName(String starName) {
-    }
-
-    @Override
-    public void log(String message) {
-    }
-  };
-
   public interface IdentifierGenerator {
     long nextIdentifier();
   }
@@ -100,10 +90,9 @@ public class StarModifier {
       Collection<StarModification> modifications,
       @Nullable Simulation.LogHandler logHandler)
       throws SuspiciousModificationException {
-    if (logHandler == null) {
-      logHandler = EMPTY_LOG_HANDLER;
+    if (logHandler != null) {
+      log(logHandler, "Applying %d modifications.", modifications.size());
     }
-    logHandler.log("Applying " + modifications.size() + " modifications.");
 
     if (modifications.size() > 0) {
       new Simulation(false).simulate(star);
@@ -118,7 +107,7 @@ public class StarModifier {
       Star.Builder star,
       @Nullable Collection<Star> auxStars,
       StarModification modification,
-      Simulation.LogHandler logHandler)
+      @Nullable Simulation.LogHandler logHandler)
       throws SuspiciousModificationException {
     switch (modification.type) {
       case COLONIZE:
@@ -152,7 +141,9 @@ public class StarModifier {
         applyEmptyNative(star, modification, logHandler);
         return;
       default:
-        logHandler.log("Unknown or unexpected modification type: " + modification.type);
+        if (logHandler != null) {
+          log(logHandler, "Unknown or unexpected modification type: %s", modification.type);
+        }
         log.error("Unknown or unexpected modification type: %s", modification.type);
     }
   }
@@ -160,9 +151,11 @@ public class StarModifier {
   private void applyColonize(
       Star.Builder star,
       StarModification modification,
-      Simulation.LogHandler logHandler) {
+      @Nullable Simulation.LogHandler logHandler) {
     checkArgument(modification.type.equals(StarModification.MODIFICATION_TYPE.COLONIZE));
-    logHandler.log(String.format(Locale.US, "- colonizing planet #%d", modification.planet_index));
+    if (logHandler != null) {
+      log(logHandler, "- colonizing planet #%d", modification.planet_index);
+    }
 
     // Destroy a colony ship, unless this is a native colony.
     if (modification.empire_id != null) {
@@ -186,7 +179,7 @@ public class StarModifier {
       }
 
       if (!found) {
-        logHandler.log("  no colonyship, cannot colonize.");
+        log(logHandler, "  no colonyship, cannot colonize.");
         return;
       }
     }
@@ -208,9 +201,10 @@ public class StarModifier {
                 .defence_bonus(1.0f)
                 .build())
             .build());
-    logHandler.log(String.format(Locale.US,
-        "  colonized: colony_id=%d",
-        star.planets.get(modification.planet_index).colony.id));
+    if (logHandler != null) {
+      log(logHandler, "  colonized: colony_id=%d",
+          star.planets.get(modification.planet_index).colony.id);
+    }
 
     // if there's no storage for this empire, add one with some defaults now.
     boolean hasStorage = false;
@@ -231,7 +225,7 @@ public class StarModifier {
   private void applyCreateFleet(
       Star.Builder star,
       StarModification modification,
-      Simulation.LogHandler logHandler) {
+      @Nullable Simulation.LogHandler logHandler) {
     checkArgument(modification.type.equals(StarModification.MODIFICATION_TYPE.CREATE_FLEET));
 
     boolean attack = false;
@@ -259,9 +253,11 @@ public class StarModifier {
     }
 
     // Now add the fleet itself.
-    logHandler.log(String.format(Locale.US, "- creating fleet (%s) numAttacking=%d",
-        attack ? "attacking" : "not attacking",
-        numAttacking));
+    if (logHandler != null) {
+      log(logHandler, "- creating fleet (%s) numAttacking=%d",
+          attack ? "attacking" : "not attacking",
+          numAttacking);
+    }
     if (modification.fleet != null) {
       star.fleets.add(modification.fleet.newBuilder()
           .id(identifierGenerator.nextIdentifier())
@@ -286,7 +282,7 @@ public class StarModifier {
   private void applyCreateBuilding(
       Star.Builder star,
       StarModification modification,
-      Simulation.LogHandler logHandler)
+      @Nullable Simulation.LogHandler logHandler)
       throws SuspiciousModificationException {
     checkArgument(modification.type.equals(StarModification.MODIFICATION_TYPE.CREATE_BUILDING));
 
@@ -300,8 +296,9 @@ public class StarModifier {
             planet.colony.empire_id);
       }
 
-      logHandler.log(
-          String.format(Locale.US, "- creating building, colony_id=%d", modification.colony_id));
+      if (logHandler != null) {
+        log(logHandler, "- creating building, colony_id=%d", modification.colony_id);
+      }
       Colony.Builder colony = planet.colony.newBuilder();
       colony.buildings.add(new Building.Builder()
           .design_type(modification.design_type)
@@ -322,7 +319,7 @@ public class StarModifier {
   private void applyAdjustFocus(
       Star.Builder star,
       StarModification modification,
-      Simulation.LogHandler logHandler)
+      @Nullable Simulation.LogHandler logHandler)
       throws SuspiciousModificationException {
     checkArgument(modification.type.equals(StarModification.MODIFICATION_TYPE.ADJUST_FOCUS));
 
@@ -335,7 +332,7 @@ public class StarModifier {
             "Attempt to adjust focus on planet for different empire. colony.empire_id=%d",
             planet.colony.empire_id);
       }
-      logHandler.log("- adjusting focus.");
+      log(logHandler, "- adjusting focus.");
       star.planets.set(planet.index, planet.newBuilder()
           .colony(planet.colony.newBuilder()
               .focus(modification.focus)
@@ -353,7 +350,7 @@ public class StarModifier {
   private void applyAddBuildRequest(
       Star.Builder star,
       StarModification modification,
-      Simulation.LogHandler logHandler)
+      @Nullable Simulation.LogHandler logHandler)
       throws SuspiciousModificationException {
     checkArgument(modification.type.equals(StarModification.MODIFICATION_TYPE.ADD_BUILD_REQUEST));
 
@@ -387,7 +384,7 @@ public class StarModifier {
         }
       }
 
-      logHandler.log("- adding build request");
+      log(logHandler, "- adding build request");
       colonyBuilder.build_requests.add(new BuildRequest.Builder()
           .id(identifierGenerator.nextIdentifier())
           .design_type(modification.design_type)
@@ -410,7 +407,7 @@ public class StarModifier {
   private void applyDeleteBuildRequest(
       Star.Builder star,
       StarModification modification,
-      Simulation.LogHandler logHandler)
+      @Nullable Simulation.LogHandler logHandler)
       throws SuspiciousModificationException {
     checkArgument(modification.type.equals(StarModification.MODIFICATION_TYPE.DELETE_BUILD_REQUEST));
 
@@ -447,7 +444,7 @@ public class StarModifier {
     }
     final long idToDelete = buildRequest.id;
 
-    logHandler.log("- deleting build request");
+    log(logHandler, "- deleting build request");
     Colony.Builder colonyBuilder = planet.colony.newBuilder();
     colonyBuilder.build_requests(
         Lists.newArrayList(
@@ -460,7 +457,7 @@ public class StarModifier {
   private void applySplitFleet(
       Star.Builder star,
       StarModification modification,
-      Simulation.LogHandler logHandler)
+      @Nullable Simulation.LogHandler logHandler)
       throws SuspiciousModificationException {
     checkArgument(modification.type.equals(StarModification.MODIFICATION_TYPE.SPLIT_FLEET));
 
@@ -475,7 +472,7 @@ public class StarModifier {
             fleet.empire_id);
       }
 
-      logHandler.log("- splitting fleet");
+      log(logHandler, "- splitting fleet");
       // Modify the existing fleet to change it's number of ships
       star.fleets.set(fleetIndex, fleet
           .num_ships(fleet.num_ships - modification.count)
@@ -499,7 +496,7 @@ public class StarModifier {
   private void applyMergeFleet(
       Star.Builder star,
       StarModification modification,
-      Simulation.LogHandler logHandler)
+      @Nullable Simulation.LogHandler logHandler)
       throws SuspiciousModificationException {
     checkArgument(
         modification.type.equals(StarModification.MODIFICATION_TYPE.MERGE_FLEET));
@@ -509,8 +506,9 @@ public class StarModifier {
       Fleet.Builder fleet = star.fleets.get(fleetIndex).newBuilder();
       if (fleet.state != Fleet.FLEET_STATE.IDLE) {
         // Can't merge, but this isn't particularly suspicious.
-        logHandler.log(String.format(Locale.US,
-            "  main fleet %d is %s, cannot merge.", fleet.id, fleet.state));
+        if (logHandler != null) {
+          log(logHandler, "  main fleet %d is %s, cannot merge.", fleet.id, fleet.state);
+        }
       }
 
       if (!EmpireHelper.isSameEmpire(fleet.empire_id, modification.empire_id)) {
@@ -547,16 +545,19 @@ public class StarModifier {
 
           if (thisFleet.state != Fleet.FLEET_STATE.IDLE) {
             // Again, not particularly suspicious, we'll just skip it.
-            logHandler.log(String.format(Locale.US,
-                "  fleet %d is %s, cannot merge.", thisFleet.id, thisFleet.state));
+            if (logHandler != null) {
+              log(logHandler, "  fleet %d is %s, cannot merge.", thisFleet.id, thisFleet.state);
+            }
             continue;
           }
 
           // TODO: make sure it has the same upgrades, otherwise we have to remove it.
 
           fleet.num_ships(fleet.num_ships + thisFleet.num_ships);
-          logHandler.log(String.format(Locale.US,
-              "  removing fleet %d (num_ships=%.2f)", thisFleet.id, thisFleet.num_ships));
+          if (logHandler != null) {
+            log(logHandler,
+                "  removing fleet %d (num_ships=%.2f)", thisFleet.id, thisFleet.num_ships);
+          }
 
           // Remove this fleet, and keep going.
           star.fleets.remove(i);
@@ -565,8 +566,9 @@ public class StarModifier {
       }
 
       // fleetIndex might've changed since we've been deleting fleets.
-      logHandler.log(String.format(Locale.US,
-          "  updated fleet count of main fleet: %.2f", fleet.num_ships));
+      if (logHandler != null) {
+        log(logHandler, "  updated fleet count of main fleet: %.2f", fleet.num_ships);
+      }
       fleetIndex = findFleetIndex(star, fleet.id);
       star.fleets.set(fleetIndex, fleet.build());
     }
@@ -576,11 +578,11 @@ public class StarModifier {
       Star.Builder star,
       Collection<Star> auxStars,
       StarModification modification,
-      Simulation.LogHandler logHandler)
+      @Nullable Simulation.LogHandler logHandler)
       throws SuspiciousModificationException{
     checkArgument(
         modification.type.equals(StarModification.MODIFICATION_TYPE.MOVE_FLEET));
-    logHandler.log("- moving fleet");
+    log(logHandler, "- moving fleet");
 
     Star targetStar = null;
     for (Star s : auxStars) {
@@ -591,8 +593,10 @@ public class StarModifier {
     }
     if (targetStar == null) {
       // Not suspicious, the caller made a mistake not the user.
-      logHandler.log(String.format(Locale.US,
-          "  target star #%d was not included in the auxiliary star list.", modification.star_id));
+      if (logHandler != null) {
+        log(logHandler,
+            "  target star #%d was not included in the auxiliary star list.", modification.star_id);
+      }
       return;
     }
 
@@ -616,7 +620,7 @@ public class StarModifier {
 
     if (fleet.state != Fleet.FLEET_STATE.IDLE) {
       // Not suspicious, maybe you accidentally pressed twice.
-      logHandler.log("  fleet is not idle, can't move.");
+      log(logHandler, "  fleet is not idle, can't move.");
       return;
     }
 
@@ -628,18 +632,22 @@ public class StarModifier {
     int storageIndex = StarHelper.getStorageIndex(star, fleet.empire_id);
     if (storageIndex < 0) {
       // No storage. TODO: some kind of portable fuel?
-      logHandler.log("  no storages on this star.");
+      log(logHandler, "  no storages on this star.");
       return;
     }
 
     EmpireStorage.Builder empireStorageBuilder = star.empire_stores.get(storageIndex).newBuilder();
     if (empireStorageBuilder.total_energy < fuel) {
-      logHandler.log(String.format(Locale.US,
-          "  not enough energy for move (%.2f < %.2f)", empireStorageBuilder.total_energy, fuel));
+      if (logHandler != null) {
+        log(logHandler,
+            "  not enough energy for move (%.2f < %.2f)", empireStorageBuilder.total_energy, fuel);
+      }
       return;
     }
 
-    logHandler.log(String.format(Locale.US, "  cost=%.2f", fuel));
+    if (logHandler != null) {
+      log(logHandler, "  cost=%.2f", fuel);
+    }
     star.empire_stores.set(storageIndex, empireStorageBuilder
         .total_energy(empireStorageBuilder.total_energy - (float) fuel)
         .build());
@@ -654,10 +662,10 @@ public class StarModifier {
   private void applyEmptyNative(
       Star.Builder star,
       StarModification modification,
-      Simulation.LogHandler logHandler) {
+      @Nullable Simulation.LogHandler logHandler) {
     checkArgument(
         modification.type.equals(StarModification.MODIFICATION_TYPE.EMPTY_NATIVE));
-    logHandler.log("- emptying native colonies");
+    log(logHandler, "- emptying native colonies");
 
     for (int i = 0; i < star.planets.size(); i++) {
       if (star.planets.get(i).colony != null
@@ -703,4 +711,22 @@ public class StarModifier {
     }
     return -1;
   }
+
+  /** Writes the given message to the log handler, if there is one. */
+  private static void log(@Nullable Simulation.LogHandler logHandler, String message) {
+    if (logHandler != null) {
+      logHandler.log(message);
+    }
+  }
+
+  /**
+   * Formats and logs the given message. The arguments are boxed into an array before we even get
+   * here, so callers must check for a {@link Simulation.LogHandler} first.
+   */
+  private static void log(
+      @Nullable Simulation.LogHandler logHandler, String format, Object... args) {
+    if (logHandler != null) {
+      logHandler.log(String.format(Locale.US, format, args));
+    }
+  }
 }
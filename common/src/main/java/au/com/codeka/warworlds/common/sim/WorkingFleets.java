@@ -0,0 +1,185 @@
+package au.com.codeka.warworlds.common.sim;
+
+import au.com.codeka.warworlds.common.proto.Design;
+import au.com.codeka.warworlds.common.proto.Fleet;
+import au.com.codeka.warworlds.common.proto.Star;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A mutable copy of the fleets on a {@link Star}, which {@link Simulation} runs combat on. Like
+ * {@link WorkingStar}, everything that changes from one round of combat to the next is kept in
+ * primitive arrays, and we only build new {@link Fleet} protos once combat is over.
+ *
+ * <p>Fleets are indexed in the same order they appear in the star. We also keep, for each empire,
+ * a list of the fleets it could attack, sorted in the order it would choose them as targets (see
+ * {@link #findTarget}).
+ */
+class WorkingFleets {
+  final int numFleets;
+  /** The fleets as they were when we loaded them. We need them for their IDs and for logging. */
+  final Fleet[] fleets;
+  final Design[] designs;
+  final float[] baseAttack;
+  final float[] baseDefence;
+  /** The index of the fleet's empire in {@link #targets}. */
+  final int[] fleetEmpire;
+
+  final float[] numShips;
+  final Fleet.FLEET_STATE[] state;
+  final boolean[] destroyed;
+  /** Whether the fleet went idle because it had nothing to attack. */
+  final boolean[] wentIdle;
+
+  /** The damage each fleet has taken so far this round, if {@link #damaged} is set. */
+  final double[] damage;
+  final boolean[] damaged;
+
+  /**
+   * For each empire, the fleets it could attack: all the fleets of other empires that aren't
+   * moving or destroyed, sorted by their design's combat priority (lowest first), and then in
+   * reverse order on the star.
+   */
+  private final int[][] targets;
+
+  /**
+   * For each empire, the index in {@link #targets} of the first fleet that might still be a valid
+   * target. Fleets before that have been destroyed, or have taken enough damage this round that
+   * they will be, so we never need to look at them again.
+   */
+  private final int[] firstTarget;
+
+  private WorkingFleets(int numFleets, int numEmpires) {
+    this.numFleets = numFleets;
+    fleets = new Fleet[numFleets];
+    designs = new Design[numFleets];
+    baseAttack = new float[numFleets];
+    baseDefence = new float[numFleets];
+    fleetEmpire = new int[numFleets];
+    numShips = new float[numFleets];
+    state = new Fleet.FLEET_STATE[numFleets];
+    destroyed = new boolean[numFleets];
+    wentIdle = new boolean[numFleets];
+    damage = new double[numFleets];
+    damaged = new boolean[numFleets];
+    targets = new int[numEmpires][];
+    firstTarget = new int[numEmpires];
+  }
+
+  /**
+   * Loads the fleets of the given star. A fleet with no number of ships is treated as having none.
+   */
+  static WorkingFleets load(Star.Builder star) {
+    List<Long> empireIds = new ArrayList<>();
+    for (Fleet fleet : star.fleets) {
+      if (!empireIds.contains(fleet.empire_id)) {
+        empireIds.add(fleet.empire_id);
+      }
+    }
+
+    int n = star.fleets.size();
+    WorkingFleets working = new WorkingFleets(n, empireIds.size());
+    for (int i = 0; i < n; i++) {
+      Fleet fleet = star.fleets.get(i);
+      Design design = DesignHelper.getDesign(fleet.design_type);
+      working.fleets[i] = fleet;
+      working.designs[i] = design;
+      working.baseAttack[i] = design.base_attack;
+      working.baseDefence[i] = design.base_defence;
+      working.fleetEmpire[i] = empireIds.indexOf(fleet.empire_id);
+      working.numShips[i] = fleet.num_ships == null ? 0.0f : fleet.num_ships;
+      working.state[i] = fleet.state;
+      working.destroyed[i] = fleet.is_destroyed != null && fleet.is_destroyed;
+    }
+
+    // Sort by priority (lowest first) and then by index (highest first), packed into a long.
+    long[] order = new long[n];
+    for (int i = 0; i < n; i++) {
+      order[i] = ((long) working.designs[i].combat_priority << 32) | (Integer.MAX_VALUE - i);
+    }
+    Arrays.sort(order);
+
+    int[] empireTargets = new int[n];
+    for (int e = 0; e < empireIds.size(); e++) {
+      int numTargets = 0;
+      for (long key : order) {
+        int j = Integer.MAX_VALUE - (int) key;
+        if (working.fleetEmpire[j] != e && working.state[j] != Fleet.FLEET_STATE.MOVING
+            && !working.destroyed[j]) {
+          empireTargets[numTargets++] = j;
+        }
+      }
+      working.targets[e] = Arrays.copyOf(empireTargets, numTargets);
+    }
+
+    return working;
+  }
+
+  /** Returns true if any fleet that hasn't been destroyed is still attacking. */
+  boolean anyAttacking() {
+    for (int i = 0; i < numFleets; i++) {
+      if (state[i] == Fleet.FLEET_STATE.ATTACKING && !destroyed[i]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Clears the damage counters, ready for the next round. */
+  void startRound() {
+    Arrays.fill(damaged, false);
+    Arrays.fill(damage, 0.0);
+  }
+
+  /**
+   * Finds the fleet the given fleet should attack next: the enemy fleet with the lowest combat
+   * priority that hasn't taken enough damage this round to be destroyed. If there's more than one,
+   * it's the one that comes last on the star.
+   *
+   * @return The index of the target, or -1 if there's nothing left to attack.
+   */
+  int findTarget(int attacker) {
+    int e = fleetEmpire[attacker];
+    int[] empireTargets = targets[e];
+    int t = firstTarget[e];
+    while (t < empireTargets.length) {
+      int j = empireTargets[t];
+      if (!destroyed[j] && !(damaged[j] && damage[j] >= numShips[j])) {
+        break;
+      }
+      t++;
+    }
+    firstTarget[e] = t;
+    return t < empireTargets.length ? empireTargets[t] : -1;
+  }
+
+  /**
+   * Writes the fleets back to the star. We only set the fields that have actually changed, so
+   * fleets that weren't involved in combat stay exactly as they were.
+   *
+   * @param now The time of combat, which is when any fleets that went idle did so.
+   */
+  void store(Star.Builder star, long now) {
+    for (int i = 0; i < numFleets; i++) {
+      Fleet fleet = fleets[i];
+      boolean newlyDestroyed = destroyed[i] && !(fleet.is_destroyed != null && fleet.is_destroyed);
+      if (!newlyDestroyed && !wentIdle[i] && Objects.equals(fleet.num_ships, numShips[i])
+          && Objects.equals(fleet.state, state[i])) {
+        continue;
+      }
+
+      Fleet.Builder builder = fleet.newBuilder()
+          .num_ships(numShips[i])
+          .state(state[i]);
+      if (wentIdle[i]) {
+        builder.state_start_time(now);
+      }
+      if (newlyDestroyed) {
+        builder.is_destroyed(true);
+      }
+      star.fleets.set(i, builder.build());
+    }
+  }
+}
@@ -0,0 +1,314 @@
+package au.com.codeka.warworlds.common.sim;
+
+import au.com.codeka.warworlds.common.proto.BuildRequest;
+import au.com.codeka.warworlds.common.proto.Colony;
+import au.com.codeka.warworlds.common.proto.Design;
+import au.com.codeka.warworlds.common.proto.EmpireStorage;
+import au.com.codeka.warworlds.common.proto.Planet;
+import au.com.codeka.warworlds.common.proto.Star;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * A mutable copy of the parts of a {@link Star} that {@link Simulation} changes on each step: the
+ * colonies' populations and deltas, the empires' storages and the progress of build requests.
+ *
+ * <p>Everything is kept in primitive arrays, so that we can run hundreds of steps without
+ * building a single proto. We {@link #load} the star once, step it as many times as we need, then
+ * {@link #store} the results back in the star.
+ *
+ * <p>Colonies, storages and build requests are indexed in the same order they appear in the star.
+ * Colonies that belong to empire {@code e} have {@code colonyEmpire[c] == e}, and the build
+ * requests of colony {@code c} are those from {@code buildRequestStart[c]} up to (but not
+ * including) {@code buildRequestStart[c + 1]}.
+ */
+class WorkingStar {
+  /** The empires we simulate, in the order that we simulate them. */
+  final Long[] empireIds;
+  /** The index of each empire's storage, or -1 if it doesn't have one. */
+  final int[] empireStorage;
+
+  final int numStorages;
+  final float[] totalGoods;
+  final float[] totalMinerals;
+  final float[] totalEnergy;
+  final float[] maxGoods;
+  final float[] maxMinerals;
+  final float[] maxEnergy;
+  final float[] goodsDeltaPerHour;
+  final float[] mineralsDeltaPerHour;
+  final float[] energyDeltaPerHour;
+  final boolean[] hasGoodsZeroTime;
+  final long[] goodsZeroTime;
+  /** Whether we've changed this storage, and need to write it back to the star. */
+  final boolean[] storageDirty;
+
+  final int numColonies;
+  /** The index of the colony's planet in the star's list of planets. */
+  final int[] planetIndex;
+  /** The colony's planet's index field, which we only need for logging. */
+  final Integer[] planetIndexField;
+  /** The index of the colony's empire in {@link #empireIds}. */
+  final int[] colonyEmpire;
+  final float[] population;
+  final float[] focusFarming;
+  final float[] focusMining;
+  final float[] focusEnergy;
+  final float[] focusConstruction;
+  /** The planet's congeniality, already divided by 100. */
+  final float[] farmingCongeniality;
+  final float[] miningCongeniality;
+  final float[] energyCongeniality;
+  final int[] maxPopulation;
+  final float[] deltaGoods;
+  final float[] deltaMinerals;
+  final float[] deltaEnergy;
+  final float[] deltaPopulation;
+  final boolean[] hasCooldownEndTime;
+  final long[] cooldownEndTime;
+  /** Whether we've changed this colony, and need to write it back to the star. */
+  final boolean[] colonyDirty;
+
+  final int[] buildRequestStart;
+  final Design[] buildRequestDesign;
+  final long[] buildRequestStartTime;
+  final int[] buildRequestCount;
+  final float[] buildRequestProgress;
+  final boolean[] buildRequestHasEndTime;
+  final long[] buildRequestEndTime;
+
+  private WorkingStar(int numEmpires, int numStorages, int numColonies, int numBuildRequests) {
+    empireIds = new Long[numEmpires];
+    empireStorage = new int[numEmpires];
+
+    this.numStorages = numStorages;
+    totalGoods = new float[numStorages];
+    totalMinerals = new float[numStorages];
+    totalEnergy = new float[numStorages];
+    maxGoods = new float[numStorages];
+    maxMinerals = new float[numStorages];
+    maxEnergy = new float[numStorages];
+    goodsDeltaPerHour = new float[numStorages];
+    mineralsDeltaPerHour = new float[numStorages];
+    energyDeltaPerHour = new float[numStorages];
+    hasGoodsZeroTime = new boolean[numStorages];
+    goodsZeroTime = new long[numStorages];
+    storageDirty = new boolean[numStorages];
+
+    this.numColonies = numColonies;
+    planetIndex = new int[numColonies];
+    planetIndexField = new Integer[numColonies];
+    colonyEmpire = new int[numColonies];
+    population = new float[numColonies];
+    focusFarming = new float[numColonies];
+    focusMining = new float[numColonies];
+    focusEnergy = new float[numColonies];
+    focusConstruction = new float[numColonies];
+    farmingCongeniality = new float[numColonies];
+    miningCongeniality = new float[numColonies];
+    energyCongeniality = new float[numColonies];
+    maxPopulation = new int[numColonies];
+    deltaGoods = new float[numColonies];
+    deltaMinerals = new float[numColonies];
+    deltaEnergy = new float[numColonies];
+    deltaPopulation = new float[numColonies];
+    hasCooldownEndTime = new boolean[numColonies];
+    cooldownEndTime = new long[numColonies];
+    colonyDirty = new boolean[numColonies];
+
+    buildRequestStart = new int[numColonies + 1];
+    buildRequestDesign = new Design[numBuildRequests];
+    buildRequestStartTime = new long[numBuildRequests];
+    buildRequestCount = new int[numBuildRequests];
+    buildRequestProgress = new float[numBuildRequests];
+    buildRequestHasEndTime = new boolean[numBuildRequests];
+    buildRequestEndTime = new long[numBuildRequests];
+  }
+
+  /**
+   * Loads the given star. Any of the numbers we need that are missing from the star (a storage's
+   * totals, a colony's population or focus, and so on) are treated as zero.
+   *
+   * @param star The star to load.
+   * @param empireIds The IDs of the empires we're going to simulate, in the order we'll simulate
+   *     them.
+   */
+  static WorkingStar load(Star.Builder star, Collection<Long> empireIds) {
+    int numColonies = 0;
+    int numBuildRequests = 0;
+    for (Planet planet : star.planets) {
+      if (planet.colony != null) {
+        numColonies++;
+        numBuildRequests += planet.colony.build_requests.size();
+      }
+    }
+    WorkingStar working = new WorkingStar(
+        empireIds.size(), star.empire_stores.size(), numColonies, numBuildRequests);
+
+    int empireIndex = 0;
+    for (Long empireId : empireIds) {
+      working.empireIds[empireIndex] = empireId;
+      // If there's more than one storage for an empire, the simulation uses the last one.
+      working.empireStorage[empireIndex] = -1;
+      for (int i = 0; i < star.empire_stores.size(); i++) {
+        if (Objects.equals(star.empire_stores.get(i).empire_id, empireId)) {
+          working.empireStorage[empireIndex] = i;
+        }
+      }
+      empireIndex++;
+    }
+
+    for (int i = 0; i < star.empire_stores.size(); i++) {
+      EmpireStorage storage = star.empire_stores.get(i);
+      working.totalGoods[i] = orZero(storage.total_goods);
+      working.totalMinerals[i] = orZero(storage.total_minerals);
+      working.totalEnergy[i] = orZero(storage.total_energy);
+      working.maxGoods[i] = orZero(storage.max_goods);
+      working.maxMinerals[i] = orZero(storage.max_minerals);
+      working.maxEnergy[i] = orZero(storage.max_energy);
+      working.hasGoodsZeroTime[i] = storage.goods_zero_time != null;
+      working.goodsZeroTime[i] = storage.goods_zero_time == null ? 0 : storage.goods_zero_time;
+    }
+
+    int colonyIndex = 0;
+    int buildRequestIndex = 0;
+    for (int i = 0; i < star.planets.size(); i++) {
+      Planet planet = star.planets.get(i);
+      Colony colony = planet.colony;
+      if (colony == null) {
+        continue;
+      }
+      int c = colonyIndex++;
+      working.planetIndex[c] = i;
+      working.planetIndexField[c] = planet.index;
+      working.colonyEmpire[c] = indexOf(working.empireIds, colony.empire_id);
+      working.population[c] = orZero(colony.population);
+      if (colony.focus != null) {
+        working.focusFarming[c] = orZero(colony.focus.farming);
+        working.focusMining[c] = orZero(colony.focus.mining);
+        working.focusEnergy[c] = orZero(colony.focus.energy);
+        working.focusConstruction[c] = orZero(colony.focus.construction);
+      }
+      working.farmingCongeniality[c] = orZero(planet.farming_congeniality) / 100.0f;
+      working.miningCongeniality[c] = orZero(planet.mining_congeniality) / 100.0f;
+      working.energyCongeniality[c] = orZero(planet.energy_congeniality) / 100.0f;
+      working.maxPopulation[c] = ColonyHelper.getMaxPopulation(planet);
+      working.hasCooldownEndTime[c] = colony.cooldown_end_time != null;
+      working.cooldownEndTime[c] =
+          colony.cooldown_end_time == null ? 0 : colony.cooldown_end_time;
+
+      working.buildRequestStart[c] = buildRequestIndex;
+      for (BuildRequest br : colony.build_requests) {
+        int j = buildRequestIndex++;
+        working.buildRequestDesign[j] = DesignHelper.getDesign(br.design_type);
+        working.buildRequestStartTime[j] = br.start_time == null ? 0 : br.start_time;
+        working.buildRequestCount[j] = br.count == null ? 0 : br.count;
+        working.buildRequestProgress[j] = orZero(br.progress);
+        working.buildRequestHasEndTime[j] = br.end_time != null;
+        working.buildRequestEndTime[j] = br.end_time == null ? 0 : br.end_time;
+      }
+    }
+    working.buildRequestStart[numColonies] = buildRequestIndex;
+
+    return working;
+  }
+
+  /** Writes everything that's changed back to the given star. */
+  void store(Star.Builder star) {
+    for (int i = 0; i < numStorages; i++) {
+      if (!storageDirty[i]) {
+        continue;
+      }
+      star.empire_stores.set(i, star.empire_stores.get(i).newBuilder()
+          .total_goods(totalGoods[i])
+          .total_minerals(totalMinerals[i])
+          .total_energy(totalEnergy[i])
+          .goods_delta_per_hour(goodsDeltaPerHour[i])
+          .minerals_delta_per_hour(mineralsDeltaPerHour[i])
+          .energy_delta_per_hour(energyDeltaPerHour[i])
+          .goods_zero_time(hasGoodsZeroTime[i] ? goodsZeroTime[i] : null)
+          .build());
+    }
+
+    for (int c = 0; c < numColonies; c++) {
+      if (!colonyDirty[c]) {
+        continue;
+      }
+      Planet planet = star.planets.get(planetIndex[c]);
+      List<BuildRequest> buildRequests = new ArrayList<>();
+      for (int j = buildRequestStart[c]; j < buildRequestStart[c + 1]; j++) {
+        BuildRequest br = planet.colony.build_requests.get(j - buildRequestStart[c]);
+        buildRequests.add(br.newBuilder()
+            .progress(buildRequestProgress[j])
+            .end_time(buildRequestHasEndTime[j] ? buildRequestEndTime[j] : null)
+            .build());
+      }
+      star.planets.set(planetIndex[c], planet.newBuilder()
+          .colony(planet.colony.newBuilder()
+              .population(population[c])
+              .delta_goods(deltaGoods[c])
+              .delta_minerals(deltaMinerals[c])
+              .delta_energy(deltaEnergy[c])
+              .delta_population(deltaPopulation[c])
+              .cooldown_end_time(hasCooldownEndTime[c] ? cooldownEndTime[c] : null)
+              .build_requests(buildRequests)
+              .build())
+          .build());
+    }
+  }
+
+  /**
+   * Copies the goods, minerals and energy deltas of each storage to the given star, which is
+   * otherwise left alone.
+   */
+  void storeDeltas(Star.Builder star) {
+    for (int i = 0; i < numStorages; i++) {
+      if (!storageDirty[i]) {
+        continue;
+      }
+      star.empire_stores.set(i, star.empire_stores.get(i).newBuilder()
+          .goods_delta_per_hour(goodsDeltaPerHour[i])
+          .minerals_delta_per_hour(mineralsDeltaPerHour[i])
+          .energy_delta_per_hour(energyDeltaPerHour[i])
+          .build());
+    }
+  }
+
+  /**
+   * Copies the end time of each build request to the given star, which is otherwise left alone.
+   */
+  void storeBuildRequestEndTimes(Star.Builder star) {
+    for (int c = 0; c < numColonies; c++) {
+      if (buildRequestStart[c] == buildRequestStart[c + 1]) {
+        continue;
+      }
+      Planet planet = star.planets.get(planetIndex[c]);
+      List<BuildRequest> buildRequests = new ArrayList<>();
+      for (int j = buildRequestStart[c]; j < buildRequestStart[c + 1]; j++) {
+        BuildRequest br = planet.colony.build_requests.get(j - buildRequestStart[c]);
+        buildRequests.add(br.newBuilder()
+            .end_time(buildRequestHasEndTime[j] ? buildRequestEndTime[j] : null)
+            .build());
+      }
+      star.planets.set(planetIndex[c], planet.newBuilder()
+          .colony(planet.colony.newBuilder().build_requests(buildRequests).build())
+          .build());
+    }
+  }
+
+  private static float orZero(@Nullable Number value) {
+    return value == null ? 0.0f : value.floatValue();
+  }
+
+  private static int indexOf(Long[] empireIds, @Nullable Long empireId) {
+    for (int i = 0; i < empireIds.length; i++) {
+      if (Objects.equals(empireIds[i], empireId)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
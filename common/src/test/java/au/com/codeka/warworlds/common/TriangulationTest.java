@@ -0,0 +1,223 @@
+package au.com.codeka.warworlds.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Tests for {@link Triangulation}, checked against the original implementation, which found the
+ * triangles to replace by checking every triangle's circumscribed circle (see
+ * {@link #referenceAddVertex}).
+ */
+public class TriangulationTest {
+  @Test
+  public void randomCloudsMatchReference() {
+    for (int seed = 0; seed < 20; seed++) {
+      Random rand = new Random(seed);
+      double density = 0.5 + rand.nextDouble() * 4.5;
+      assertMatchesReference(
+          "seed " + seed, new PointCloud.RandomGenerator().generate(density, rand));
+    }
+  }
+
+  @Test
+  public void poissonCloudsMatchReference() {
+    for (int seed = 0; seed < 10; seed++) {
+      Random rand = new Random(seed);
+      double density = 0.5 + rand.nextDouble() * 1.5;
+      double randomness = rand.nextDouble();
+      assertMatchesReference(
+          "seed " + seed, new PointCloud.PoissonGenerator().generate(density, randomness, rand));
+    }
+  }
+
+  /**
+   * Points on a lattice have lots of exactly cocircular points, and repeating some of them gives us
+   * duplicate points as well. Here the reference implementation can pick up triangles that aren't
+   * connected to the point being added, so we don't expect exactly the same triangles. Instead we
+   * check that the triangles exactly cover the super triangles, without overlapping. Duplicate
+   * points leave both implementations with overlapping triangles, so there we just check that we
+   * don't overlap any more than the reference does.
+   */
+  @Test
+  public void latticesAreTriangulated() {
+    for (int size = 2; size <= 12; size++) {
+      for (boolean duplicates : new boolean[] {false, true}) {
+        ArrayList<Vector2> points = new ArrayList<>();
+        for (int y = 0; y < size; y++) {
+          for (int x = 0; x < size; x++) {
+            points.add(new Vector2((double) x / size, (double) y / size));
+          }
+        }
+        if (duplicates) {
+          Random rand = new Random(size);
+          for (int i = 0; i < size; i++) {
+            Vector2 pt = points.get(rand.nextInt(points.size()));
+            points.add(new Vector2(pt.x, pt.y));
+          }
+        }
+        String message = "size " + size + (duplicates ? " with duplicates" : "");
+
+        ArrayList<Vector2> actualPoints = new ArrayList<>(points);
+        double overlap = area(actualPoints, triangulate(actualPoints))
+            - area(actualPoints, addSuperTriangles(new ArrayList<>(points)));
+        if (duplicates) {
+          ArrayList<Vector2> referencePoints = new ArrayList<>(points);
+          double referenceOverlap = area(referencePoints, referenceTriangulate(referencePoints))
+              - area(referencePoints, addSuperTriangles(new ArrayList<>(points)));
+          assertTrue(message + ": overlap " + overlap + " > " + referenceOverlap,
+              overlap <= referenceOverlap + 1e-9);
+        } else {
+          assertEquals(message, 0.0, overlap, 1e-9);
+        }
+
+        Voronoi voronoi = new Voronoi(new PointCloud(new ArrayList<>(points)));
+        for (int i = 0; i < points.size(); i++) {
+          assertNotNull(message + ", point " + i, voronoi.getNeighbours(i));
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks that {@link Triangulation} gives exactly the same triangles, in the same order, as the
+   * reference implementation, and that {@link Voronoi} gives each point the same neighbours.
+   */
+  private static void assertMatchesReference(String message, ArrayList<Vector2> points) {
+    ArrayList<Vector2> referencePoints = new ArrayList<>(points);
+    List<Triangle> expected = referenceTriangulate(referencePoints);
+    List<Triangle> actual = triangulate(new ArrayList<>(points));
+    assertEquals(message, expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      Triangle e = expected.get(i);
+      Triangle a = actual.get(i);
+      assertTrue(message + ", triangle " + i, e.a == a.a && e.b == a.b && e.c == a.c);
+    }
+
+    // Voronoi drops the triangles that share a vertex with the super triangles, whose points are
+    // the last four in the list.
+    Voronoi voronoi = new Voronoi(new PointCloud(new ArrayList<>(points)));
+    int n = points.size();
+    for (int i = 0; i < n; i++) {
+      Vector2 pt = points.get(i);
+      Set<Vector2> expectedNeighbours = null;
+      for (Triangle t : expected) {
+        if (t.hasVertex(i) && t.a < n && t.b < n && t.c < n) {
+          if (expectedNeighbours == null) {
+            expectedNeighbours = new HashSet<>();
+          }
+          Edge edge = t.findOppositeEdge(pt);
+          expectedNeighbours.add(referencePoints.get(edge.a));
+          expectedNeighbours.add(referencePoints.get(edge.b));
+        }
+      }
+      List<Vector2> actualNeighbours = voronoi.getNeighbours(i);
+      assertEquals(message + ", point " + i, expectedNeighbours,
+          actualNeighbours == null ? null : new HashSet<>(actualNeighbours));
+    }
+  }
+
+  /**
+   * Triangulates the given points with {@link Triangulation}, the same way {@link Voronoi} does.
+   * The super triangles' points are added to the end of the list, and the triangles that share
+   * them are included in the result.
+   */
+  private static List<Triangle> triangulate(List<Vector2> points) {
+    int numPoints = points.size();
+    Triangulation triangulation = new Triangulation(points);
+    for (Triangle t : addSuperTriangles(points)) {
+      triangulation.addTriangle(t);
+    }
+    for (int i = 0; i < numPoints; i++) {
+      triangulation.addVertex(i);
+    }
+    return triangulation.getTriangles();
+  }
+
+  /** Like {@link #triangulate}, but adds each point with {@link #referenceAddVertex}. */
+  private static List<Triangle> referenceTriangulate(List<Vector2> points) {
+    int numPoints = points.size();
+    List<Triangle> triangles = new ArrayList<>(addSuperTriangles(points));
+    for (int i = 0; i < numPoints; i++) {
+      referenceAddVertex(points, triangles, i);
+    }
+    return triangles;
+  }
+
+  /**
+   * The original way of adding a point: check every triangle, remove the ones whose circumscribed
+   * circle contains the point, and fill the hole with triangles from the point to each edge that
+   * isn't shared by two of the removed triangles.
+   */
+  private static void referenceAddVertex(
+      List<Vector2> points, List<Triangle> triangles, int vIndex) {
+    Vector2 pt = points.get(vIndex);
+
+    ArrayList<Triangle> circumscribedTriangles = new ArrayList<>();
+    for (Triangle t : triangles) {
+      if (t.isInCircumscribedCircle(pt)) {
+        circumscribedTriangles.add(t);
+      }
+    }
+    triangles.removeAll(circumscribedTriangles);
+
+    ArrayList<Edge> edgeBuffer = new ArrayList<>();
+    for (Triangle t : circumscribedTriangles) {
+      edgeBuffer.add(new Edge(points, t.a, t.b));
+      edgeBuffer.add(new Edge(points, t.b, t.c));
+      edgeBuffer.add(new Edge(points, t.c, t.a));
+    }
+
+    ArrayList<Edge> uniqueEdges = new ArrayList<>();
+    for (Edge e : edgeBuffer) {
+      if (!e.isIn(edgeBuffer)) {
+        uniqueEdges.add(e);
+      }
+    }
+
+    for (Edge e : uniqueEdges) {
+      triangles.add(new Triangle(points, vIndex, e.a, e.b));
+    }
+  }
+
+  /** Adds the super triangles' points to the list and returns them, just like {@link Voronoi}. */
+  private static List<Triangle> addSuperTriangles(List<Vector2> points) {
+    double minX = 1.0, minY = 1.0, maxX = 0.0, maxY = 0.0;
+    for (Vector2 pt : points) {
+      minX = Math.min(minX, pt.x);
+      maxX = Math.max(maxX, pt.x);
+      minY = Math.min(minY, pt.y);
+      maxY = Math.max(maxY, pt.y);
+    }
+
+    points.add(new Vector2(minX - 0.1, minY - 0.1));
+    points.add(new Vector2(minX - 0.1, maxY + 0.1));
+    points.add(new Vector2(maxX + 0.1, maxY + 0.1));
+    points.add(new Vector2(maxX + 0.1, minY - 0.1));
+
+    ArrayList<Triangle> superTriangles = new ArrayList<>();
+    int n = points.size();
+    superTriangles.add(new Triangle(points, n - 4, n - 3, n - 2));
+    superTriangles.add(new Triangle(points, n - 4, n - 2, n - 1));
+    return superTriangles;
+  }
+
+  /** Gets the total area of the given triangles. */
+  private static double area(List<Vector2> points, List<Triangle> triangles) {
+    double area = 0.0;
+    for (Triangle t : triangles) {
+      Vector2 a = points.get(t.a);
+      Vector2 b = points.get(t.b);
+      Vector2 c = points.get(t.c);
+      area += Math.abs((b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x)) / 2.0;
+    }
+    return area;
+  }
+}
@@ -9,7 +9,12 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
-/** This class will generate an atmosphere around a planet. */
+/**
+ * This class will generate an atmosphere around a planet.
+ *
+ * <p>The colours are written into a {@link Colour} that the caller passes in, rather than a new
+ * one, since we're called for every pixel of the planet.
+ */
 public class Atmosphere {
   protected Atmosphere() {
   }
@@ -39,13 +44,13 @@ public class Atmosphere {
   }
 
   public Colour getOuterPixelColour(double u, double v, Vector3 normal,
-      double distanceToSurface, Vector3 sunDirection, Vector3 north) {
-    return new Colour(Colour.TRANSPARENT);
+      double distanceToSurface, Vector3 sunDirection, Vector3 north, Colour result) {
+    return result.reset(Colour.TRANSPARENT);
   }
 
   public Colour getInnerPixelColour(double u, double v, Vector3 pt,
-      Vector3 normal, Vector3 sunDirection, Vector3 north) {
-    return new Colour(Colour.TRANSPARENT);
+      Vector3 normal, Vector3 sunDirection, Vector3 north, Colour result) {
+    return result.reset(Colour.TRANSPARENT);
   }
 
   public void updateUv(Vector2 uv) {
@@ -115,17 +120,23 @@ public class Atmosphere {
 
     @Override
     public Colour getInnerPixelColour(double u, double v, Vector3 pt, Vector3 normal,
-        Vector3 sunDirection, Vector3 north) {
+        Vector3 sunDirection, Vector3 north, Colour result) {
       if (colourGradient == null) {
-        return new Colour(Colour.TRANSPARENT);
+        return result.reset(Colour.TRANSPARENT);
       }
 
-      Vector3 cameraDirection = new Vector3(0, 0, 0);
-      cameraDirection.subtract(pt);
-      cameraDirection.normalize();
-      double dot = Vector3.dot(cameraDirection, normal);
+      // The direction from pt to the camera (which is at the origin), normalized.
+      double cameraX = 0.0 - pt.x;
+      double cameraY = 0.0 - pt.y;
+      double cameraZ = 0.0 - pt.z;
+      final double s = 1.0 / Math.sqrt(
+          (cameraX * cameraX) + (cameraY * cameraY) + (cameraZ * cameraZ));
+      cameraX *= s;
+      cameraY *= s;
+      cameraZ *= s;
+      double dot = (cameraX * normal.x) + (cameraY * normal.y) + (cameraZ * normal.z);
 
-      Colour baseColour = colourGradient.getColour(1.0 - dot);
+      Colour baseColour = colourGradient.getColour(1.0 - dot, result);
 
       // if we've on the dark side of the planet, we'll want to factor in the shadow
       dot = Vector3.dot(normal, sunDirection);
@@ -177,13 +188,13 @@ public class Atmosphere {
     @Override
     public Colour getOuterPixelColour(double u, double v, Vector3 normal,
         double distanceToSurface, Vector3 sunDirection,
-        Vector3 north) {
+        Vector3 north, Colour result) {
       if (colourGradient == null) {
-        return new Colour(Colour.TRANSPARENT);
+        return result.reset(Colour.TRANSPARENT);
       }
 
       distanceToSurface /= atmosphereSize;
-      Colour baseColour = colourGradient.getColour(distanceToSurface);
+      Colour baseColour = colourGradient.getColour(distanceToSurface, result);
 
       double dot = Vector3.dot(normal, sunDirection);
       double sunFactor = getSunShadowFactor(dot, sunStartShadow, sunShadowFactor);
@@ -212,9 +223,9 @@ public class Atmosphere {
 
     @Override
     public Colour getOuterPixelColour(double u, double v, Vector3 normal,
-        double distanceToSurface, Vector3 sunDirection, Vector3 north) {
+        double distanceToSurface, Vector3 sunDirection, Vector3 north, Colour result) {
       Colour baseColour = super.getOuterPixelColour(
-          u, v, normal, distanceToSurface, sunDirection, north);
+          u, v, normal, distanceToSurface, sunDirection, north, result);
 
       normal.z = 0;
       normal.normalize();
@@ -4,13 +4,31 @@ import au.com.codeka.warworlds.common.Colour;
 import au.com.codeka.warworlds.common.Image;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.annotation.Nullable;
 
 /**
  * This is actually a very simple ray-tracing engine. The simplicity comes from the fact that
  * we assume there's only one object in the scene (the planet) and one light source (the sun).
+ *
+ * <p>Every pixel is independent of every other pixel, so we can render an image in parallel by
+ * splitting it into bands of rows and rendering each band on a {@link ForkJoinPool}. Each pixel is
+ * calculated exactly the same way no matter which band it's in, so the result is identical to
+ * rendering the whole image on a single thread.
+ *
+ * <p>Each band gets its own {@link SinglePlanetGenerator.Scratch} and colours to work with, so
+ * apart from those, rendering doesn't allocate anything.
  */
 public class PlanetRenderer {
+  /**
+   * The number of rows in the smallest band we'll render as a single task. Smaller than this and
+   * the cost of forking starts to show up.
+   */
+  private static final int MIN_BAND_HEIGHT = 8;
+
   private final ArrayList<SinglePlanetGenerator> singlePlanetGenerators = new ArrayList<>();
 
   public PlanetRenderer(Template.PlanetTemplate tmpl, Random rand) {
@@ -27,46 +45,124 @@ public class PlanetRenderer {
    * Renders a planet into the given {@link Image}.
    */
   public void render(Image img) {
-    int i = 0;
-    for (SinglePlanetGenerator planetGenerator : singlePlanetGenerators) {
-      for (int y = 0; y < img.getHeight(); y++) {
-        for (int x = 0; x < img.getWidth(); x++) {
-          double nx = ((double) x / (double) img.getWidth()) - 0.5;
-          double ny = ((double) y / (double) img.getHeight()) - 0.5;
-          Colour c = planetGenerator.getPixelColour(nx, ny);
-          if (i == 0) {
-            img.setPixelColour(x, y, c);
-          } else {
-            img.blendPixelColour(x, y, c);
-          }
-        }
-      }
-      i++;
-    }
+    render(img, null);
+  }
+
+  /**
+   * Renders a planet into the given {@link Image}, using the given {@link ForkJoinPool}.
+   *
+   * @param pool The pool to render on, or null to render on the calling thread.
+   */
+  public void render(Image img, @Nullable ForkJoinPool pool) {
+    render(singlePlanetGenerators, img.getArgb(), img.getWidth(), img.getHeight(), pool);
   }
 
   /**
    * Renders a planet into the given {@link BufferedImage}.
    */
   public void render(BufferedImage img) {
+    render(img, null);
+  }
+
+  /**
+   * Renders a planet into the given {@link BufferedImage}, using the given {@link ForkJoinPool}.
+   *
+   * @param pool The pool to render on, or null to render on the calling thread.
+   */
+  public void render(BufferedImage img, @Nullable ForkJoinPool pool) {
+    int width = img.getWidth();
+    int height = img.getHeight();
+    int[] argb = new int[width * height];
+    render(singlePlanetGenerators, argb, width, height, pool);
+    img.setRGB(0, 0, width, height, argb, 0, width);
+  }
+
+  /**
+   * Renders the given planets into the given array of ARGB pixels. The first planet overwrites
+   * whatever is already there, and the rest are blended on top of it.
+   */
+  static void render(
+      List<SinglePlanetGenerator> planetGenerators,
+      int[] argb,
+      int width,
+      int height,
+      @Nullable ForkJoinPool pool) {
+    if (pool == null) {
+      renderRows(planetGenerators, argb, width, height, 0, height);
+    } else {
+      pool.invoke(new RenderTask(planetGenerators, argb, width, height, 0, height));
+    }
+  }
+
+  private static void renderRows(
+      List<SinglePlanetGenerator> planetGenerators,
+      int[] argb,
+      int width,
+      int height,
+      int startY,
+      int endY) {
+    // We only allocate these once for the whole band, not for every pixel.
+    SinglePlanetGenerator.Scratch scratch = new SinglePlanetGenerator.Scratch();
+    Colour c = new Colour();
+    Colour imgColour = new Colour();
+
     int i = 0;
-    for (SinglePlanetGenerator planetGenerator : singlePlanetGenerators) {
-      for (int y = 0; y < img.getHeight(); y++) {
-        for (int x = 0; x < img.getWidth(); x++) {
-          double nx = ((double) x / (double) img.getWidth()) - 0.5;
-          double ny = ((double) y / (double) img.getHeight()) - 0.5;
-          Colour c = planetGenerator.getPixelColour(nx, ny);
+    for (SinglePlanetGenerator planetGenerator : planetGenerators) {
+      for (int y = startY; y < endY; y++) {
+        for (int x = 0; x < width; x++) {
+          double nx = ((double) x / (double) width) - 0.5;
+          double ny = ((double) y / (double) height) - 0.5;
+          planetGenerator.getPixelColour(nx, ny, scratch, c);
           if (i == 0) {
-            img.setRGB(x, y, c.toArgb());
+            argb[y * width + x] = c.toArgb();
           } else {
-            Colour imgColour = new Colour(img.getRGB(x, y));
-            imgColour = Colour.blend(imgColour, c);
-            img.setRGB(x, y, imgColour.toArgb());
+            imgColour.reset(argb[y * width + x]);
+            Colour.blend(imgColour, c, imgColour);
+            argb[y * width + x] = imgColour.toArgb();
           }
         }
       }
       i++;
     }
   }
-}
 
+  /** Renders a band of rows, splitting it in half until it's small enough to render directly. */
+  private static class RenderTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final List<SinglePlanetGenerator> planetGenerators;
+    private final int[] argb;
+    private final int width;
+    private final int height;
+    private final int startY;
+    private final int endY;
+
+    RenderTask(
+        List<SinglePlanetGenerator> planetGenerators,
+        int[] argb,
+        int width,
+        int height,
+        int startY,
+        int endY) {
+      this.planetGenerators = planetGenerators;
+      this.argb = argb;
+      this.width = width;
+      this.height = height;
+      this.startY = startY;
+      this.endY = endY;
+    }
+
+    @Override
+    protected void compute() {
+      if (endY - startY <= MIN_BAND_HEIGHT) {
+        renderRows(planetGenerators, argb, width, height, startY, endY);
+        return;
+      }
+
+      int midY = (startY + endY) >>> 1;
+      invokeAll(
+          new RenderTask(planetGenerators, argb, width, height, startY, midY),
+          new RenderTask(planetGenerators, argb, width, height, midY, endY));
+    }
+  }
+}
@@ -1,7 +1,6 @@
 package au.com.codeka.warworlds.planetrender;
 
 import au.com.codeka.warworlds.common.PerlinNoise;
-import au.com.codeka.warworlds.common.Vector2;
 import au.com.codeka.warworlds.common.Vector3;
 import java.util.Random;
 
@@ -31,21 +30,11 @@ public class RayWarper {
       return 0.0;
     }
 
-    protected Vector3 getValue(double u, double v) {
-      double x = getNoise(u * 0.25, v * 0.25);
-      double y = getNoise(0.25 + u * 0.25, v * 0.25);
-      double z = getNoise(u * 0.25, 0.25 + v * 0.25);
-      return new Vector3(x, y, z);
-    }
-
     protected void warp(Vector3 vec, double u, double v, double factor) {
-      Vector3 warpVector = getValue(u, v);
-      warpVector.reset(warpVector.x * factor + (1.0 - factor),
-          warpVector.y * factor + (1.0 - factor),
-          warpVector.z * factor + (1.0 - factor));
-      vec.reset(vec.x * warpVector.x,
-          vec.y * warpVector.y,
-          vec.z * warpVector.z);
+      final double x = getNoise(u * 0.25, v * 0.25) * factor + (1.0 - factor);
+      final double y = getNoise(0.25 + u * 0.25, v * 0.25) * factor + (1.0 - factor);
+      final double z = getNoise(u * 0.25, 0.25 + v * 0.25) * factor + (1.0 - factor);
+      vec.reset(vec.x * x, vec.y * y, vec.z * z);
     }
   }
 
@@ -68,9 +57,11 @@ public class RayWarper {
 
     @Override
     protected void warp(Vector3 vec, double u, double v, double factor) {
-      Vector2 uv = new Vector2(u, v);
-      uv.rotate(factor * uv.length() * 2.0 * Math.PI * 2.0 / 360.0);
-      vec.reset(uv.x, -uv.y, 1.0);
+      // This is Vector2.rotate, without having to allocate a Vector2.
+      final double radians = factor * Math.sqrt(u * u + v * v) * 2.0 * Math.PI * 2.0 / 360.0;
+      final double x = (u * Math.cos(radians) - v * Math.sin(radians));
+      final double y = (v * Math.cos(radians) + u * Math.sin(radians));
+      vec.reset(x, -y, 1.0);
     }
   }
 }
@@ -4,8 +4,11 @@ import au.com.codeka.warworlds.common.Colour;
 import au.com.codeka.warworlds.common.Image;
 import au.com.codeka.warworlds.common.Vector3;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.annotation.Nullable;
 
 /**
  * The {@see PlanetGenerator} uses this class to render a single planet image. It may (or may not)
@@ -18,6 +21,11 @@ public class SinglePlanetGenerator {
   private Vector3 sunOrigin;
   private TextureGenerator texture;
   private Vector3 north;
+
+  // east (perpendicular to north and the z-axis) and north x east, used to map points on the
+  // planet to texture coordinates.
+  private Vector3 east;
+  private Vector3 northCrossEast;
   private List<au.com.codeka.warworlds.planetrender.Atmosphere> atmospheres;
   private RayWarper rayWarper;
 
@@ -51,24 +59,32 @@ public class SinglePlanetGenerator {
     north = new Vector3(tmpl.getNorthFrom());
     Vector3.interpolate(north, tmpl.getNorthTo(), rand.nextDouble());
     north.normalize();
+
+    @SuppressWarnings("SuspiciousNameCombination")
+    Vector3 east = new Vector3(north.y, -north.x, 0.0); // (AKA north.cross(0, 0, 1))
+    east.normalize();
+    this.east = east;
+    northCrossEast = Vector3.cross(north, east);
   }
 
   /**
    * Renders a planet into the given \c Image.
    */
   public void render(Image img) {
+    render(img, null);
+  }
+
+  /**
+   * Renders a planet into the given \c Image, using the given {@link ForkJoinPool} (or the calling
+   * thread, if it's null). See {@link PlanetRenderer}.
+   */
+  public void render(Image img, @Nullable ForkJoinPool pool) {
     if (texture == null) {
       return;
     }
 
-    for (int y = 0; y < img.getHeight(); y++) {
-      for (int x = 0; x < img.getWidth(); x++) {
-        double nx = ((double) x / (double) img.getWidth()) - 0.5;
-        double ny = ((double) y / (double) img.getHeight()) - 0.5;
-        Colour c = getPixelColour(nx, ny);
-        img.setPixelColour(x, y, c);
-      }
-    }
+    PlanetRenderer.render(
+        Collections.singletonList(this), img.getArgb(), img.getWidth(), img.getHeight(), pool);
   }
 
   /**
@@ -80,31 +96,47 @@ public class SinglePlanetGenerator {
    * @return The colour at the given pixel.
    */
   public Colour getPixelColour(double x, double y) {
-    Colour c = new Colour(Colour.TRANSPARENT);
+    return getPixelColour(x, y, new Scratch(), new Colour());
+  }
 
-    Vector3 ray = new Vector3(x, -y, 1.0);
+  /**
+   * Computes the colour of the pixel at (x,y) where each coordinate is defined to be in the range
+   * (-0.5, +0.5), without allocating anything.
+   *
+   * @param x The x-coordinate, between -0.5 and +0.5.
+   * @param y The y-coordinate, between -0.5 and +0.5.
+   * @param scratch Somewhere to do our working. Each thread needs its own.
+   * @param result The {@link Colour} to store the colour of the pixel in.
+   * @return The result parameter, for convenience.
+   */
+  public Colour getPixelColour(double x, double y, Scratch scratch, Colour result) {
+    Colour c = result.reset(Colour.TRANSPARENT);
+
+    Vector3 ray = scratch.ray.reset(x, -y, 1.0);
     if (rayWarper != null) {
       rayWarper.warp(ray, x, y);
     }
     ray.normalize();
 
-    Vector3 intersection = raytrace(ray);
+    Vector3 intersection = raytrace(ray, scratch.intersection);
     if (intersection != null) {
+      // The surface normal and direction to the sun are used by the texture, lighting and the
+      // atmospheres, so we just work them out once.
+      Vector3 surfaceNormal = scratch.surfaceNormal.reset(intersection);
+      surfaceNormal.subtract(planetOrigin);
+      surfaceNormal.normalize();
+
+      Vector3 sunDirection = scratch.sunDirection.reset(sunOrigin);
+      sunDirection.subtract(intersection);
+      sunDirection.normalize();
+
       // we intersected with the planet. Now we need to work out the colour at this point
       // on the planet.
-      Colour t = queryTexture(intersection);
-      double intensity = lightSphere(intersection);
+      Colour t = queryTexture(surfaceNormal, scratch.texel);
+      double intensity = lightSphere(surfaceNormal, sunDirection);
       c.reset(1.0, t.r * intensity, t.g * intensity, t.b * intensity);
 
       if (atmospheres != null) {
-        Vector3 surfaceNormal = new Vector3(intersection);
-        surfaceNormal.subtract(planetOrigin);
-        surfaceNormal.normalize();
-
-        Vector3 sunDirection = new Vector3(sunOrigin);
-        sunDirection.subtract(intersection);
-        sunDirection.normalize();
-
         final int numAtmospheres = atmospheres.size();
         for (int i = 0; i < numAtmospheres; i++) {
           final Atmosphere atmosphere = atmospheres.get(i);
@@ -112,24 +144,25 @@ public class SinglePlanetGenerator {
               intersection,
               surfaceNormal,
               sunDirection,
-              north);
-          c = blendAtmosphere(atmosphere, c, atmosphereColour);
+              north,
+              scratch.atmosphere);
+          blendAtmosphere(atmosphere, c, atmosphereColour);
         }
       }
     } else if (atmospheres != null) {
       // if we're rendering an atmosphere, we need to work out the distance of this ray
       // to the planet's surface
       double u = Vector3.dot(planetOrigin, ray);
-      Vector3 closest = new Vector3(ray);
+      Vector3 closest = scratch.intersection.reset(ray);
       closest.scale(u);
 
       double distance = (Vector3.distanceBetween(closest, planetOrigin) - planetRadius);
 
-      Vector3 surfaceNormal = new Vector3(closest);
+      Vector3 surfaceNormal = scratch.surfaceNormal.reset(closest);
       surfaceNormal.subtract(planetOrigin);
       surfaceNormal.normalize();
 
-      Vector3 sunDirection = new Vector3(sunOrigin);
+      Vector3 sunDirection = scratch.sunDirection.reset(sunOrigin);
       sunDirection.subtract(closest);
       sunDirection.normalize();
 
@@ -140,40 +173,38 @@ public class SinglePlanetGenerator {
             surfaceNormal,
             distance,
             sunDirection,
-            north);
-        c = blendAtmosphere(atmosphere, c, atmosphereColour);
+            north,
+            scratch.atmosphere);
+        blendAtmosphere(atmosphere, c, atmosphereColour);
       }
     }
 
     return c;
   }
 
-  private Colour blendAtmosphere(Atmosphere atmosphere, Colour imgColour, Colour atmosphereColour) {
+  /** Blends the given atmosphere colour onto imgColour. atmosphereColour may be modified. */
+  private void blendAtmosphere(Atmosphere atmosphere, Colour imgColour, Colour atmosphereColour) {
     switch (atmosphere.getBlendMode()) {
       case Additive:
-        return Colour.add(imgColour, Colour.multiplyAlpha(atmosphereColour));
+        Colour.add(imgColour, Colour.multiplyAlpha(atmosphereColour, atmosphereColour), imgColour);
+        return;
       case Alpha:
-        return Colour.blend(imgColour, atmosphereColour);
+        Colour.blend(imgColour, atmosphereColour, imgColour);
+        return;
       case Multiply:
-        return Colour.multiply(imgColour, atmosphereColour);
+        Colour.multiply(imgColour, atmosphereColour, imgColour);
+        return;
     }
-    return Colour.TRANSPARENT;
+    imgColour.reset(Colour.TRANSPARENT);
   }
 
   /**
-   * Query the texture for the colour at the given intersection (in 3D space).
+   * Query the texture for the colour at the point on the planet with the given surface normal.
    */
-  private Colour queryTexture(Vector3 intersection) {
+  private Colour queryTexture(Vector3 surfaceNormal, Colour result) {
     Vector3 Vn = north;
-
-    @SuppressWarnings("SuspiciousNameCombination")
-    Vector3 Ve = new Vector3(Vn.y, -Vn.x, 0.0); // (AKA Vn.cross(0, 0, 1))
-
-    Vector3 Vp = new Vector3(intersection);
-    Vp.subtract(planetOrigin);
-
-    Ve.normalize();
-    Vp.normalize();
+    Vector3 Ve = east;
+    Vector3 Vp = surfaceNormal;
 
     double phi = Math.acos(-1.0 * Vector3.dot(Vn, Vp));
     double v = phi / Math.PI;
@@ -181,70 +212,69 @@ public class SinglePlanetGenerator {
     double theta = (Math.acos(Vector3.dot(Vp, Ve) / Math.sin(phi))) / (Math.PI * 2.0);
     double u;
 
-    Vector3 c = Vector3.cross(Vn, Ve);
-    if (Vector3.dot(c, Vp) > 0) {
+    if (Vector3.dot(northCrossEast, Vp) > 0) {
       u = theta;
     } else {
       u = 1.0 - theta;
     }
 
-    return texture.getTexel(u, v);
+    return texture.getTexel(u, v, result);
   }
 
   /**
    * Calculates light intensity from the sun.
    *
-   * @param intersection Point where the ray we're currently tracing intersects with the planet.
+   * @param surfaceNormal Normal of the planet's surface where the ray we're currently tracing
+   *     intersects with it.
+   * @param sunDirection Direction from that point to the sun.
    */
-  private double lightSphere(Vector3 intersection) {
-    Vector3 surfaceNormal = new Vector3(intersection);
-    surfaceNormal.subtract(planetOrigin);
-    surfaceNormal.normalize();
-
-    double intensity = diffuse(surfaceNormal, intersection);
+  private double lightSphere(Vector3 surfaceNormal, Vector3 sunDirection) {
+    double intensity = Vector3.dot(surfaceNormal, sunDirection);
     intensity = Math.max(ambient, Math.min(1.0, intensity));
 
     return intensity;
   }
 
-  /**
-   * Calculates diffuse lighting at the given point with the given normal.
-   *
-   * @param normal Normal at the point we're calculating diffuse lighting for.
-   * @param point  The point at which we're calculating diffuse lighting.
-   * @return The diffuse factor of lighting.
-   */
-  private double diffuse(Vector3 normal, Vector3 point) {
-    Vector3 directionToLight = new Vector3(sunOrigin);
-    directionToLight.subtract(point);
-    directionToLight.normalize();
-    return Vector3.dot(normal, directionToLight);
-  }
-
   /**
    * Traces a ray along the given direction. We assume the origin is (0,0,0) (i.e. the eye).
    *
    * @param direction The direction of the ray we're going to trace.
-   * @return A \c Vector3 representing the point in space where we intersect with the planet,
+   * @param result A \c Vector3 to store the intersection in.
+   * @return The result parameter, set to the point in space where we intersect with the planet,
    * or \c null if there's no intersection.
    */
-  private Vector3 raytrace(Vector3 direction) {
+  @Nullable
+  private Vector3 raytrace(Vector3 direction, Vector3 result) {
     // intersection of a sphere and a line
     final double a = Vector3.dot(direction, direction);
-    Vector3 tmp = new Vector3(planetOrigin);
-    tmp.scale(-1);
-    final double b = 2.0 * Vector3.dot(direction, tmp);
+    final double b = 2.0 * ((direction.x * -planetOrigin.x)
+        + (direction.y * -planetOrigin.y)
+        + (direction.z * -planetOrigin.z));
     final double c = Vector3.dot(planetOrigin, planetOrigin) - (planetRadius * planetRadius);
     final double d = (b * b) - (4.0 * a * c);
 
     if (d > 0.0) {
       double sign = (c < -0.00001) ? 1.0 : -1.0;
       double distance = (-b + (sign * Math.sqrt(d))) / (2.0 * a);
-      Vector3 intersection = new Vector3(direction);
+      Vector3 intersection = result.reset(direction);
       intersection.scale(distance);
       return intersection;
     } else {
       return null;
     }
   }
+
+  /**
+   * The vectors and colours that {@link #getPixelColour(double, double, Scratch, Colour)} works
+   * with. Rather than allocating them for every pixel, allocate one of these per thread and pass
+   * it in for every pixel.
+   */
+  public static class Scratch {
+    private final Vector3 ray = new Vector3();
+    private final Vector3 intersection = new Vector3();
+    private final Vector3 surfaceNormal = new Vector3();
+    private final Vector3 sunDirection = new Vector3();
+    private final Colour texel = new Colour();
+    private final Colour atmosphere = new Colour();
+  }
 }
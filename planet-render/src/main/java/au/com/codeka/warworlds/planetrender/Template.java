@@ -2,6 +2,7 @@ package au.com.codeka.warworlds.planetrender;
 
 import au.com.codeka.warworlds.common.Colour;
 import au.com.codeka.warworlds.common.ColourGradient;
+import au.com.codeka.warworlds.common.PerlinNoise;
 import au.com.codeka.warworlds.common.Vector3;
 import au.com.codeka.warworlds.common.XmlIterator;
 import java.io.InputStream;
@@ -428,6 +429,7 @@ public class Template {
 
     private double persistence;
     private Interpolation interpolation;
+    private PerlinNoise.RawNoise rawNoise;
     private int startOctave;
     private int endOctave;
 
@@ -439,6 +441,10 @@ public class Template {
       return interpolation;
     }
 
+    public PerlinNoise.RawNoise getRawNoise() {
+      return rawNoise;
+    }
+
     public int getStartOctave() {
       return startOctave;
     }
@@ -463,6 +469,16 @@ public class Template {
           throw new TemplateException("Unknown <perlin> 'interpolation' attribute: " + val);
         }
 
+        // Existing templates don't specify this, and they need to keep generating the same images.
+        val = elem.getAttribute("rawNoise");
+        if (val == null || val.isEmpty() || val.equals("compatible")) {
+          tmpl.rawNoise = PerlinNoise.RawNoise.Compatible;
+        } else if (val.equals("hash")) {
+          tmpl.rawNoise = PerlinNoise.RawNoise.Hash;
+        } else {
+          throw new TemplateException("Unknown <perlin> 'rawNoise' attribute: " + val);
+        }
+
         tmpl.persistence = Double.parseDouble(elem.getAttribute("persistence"));
         if (elem.getAttribute("startOctave") == null) {
           tmpl.startOctave = 1;
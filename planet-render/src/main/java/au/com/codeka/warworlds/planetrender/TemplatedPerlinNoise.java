@@ -10,7 +10,7 @@ public class TemplatedPerlinNoise extends PerlinNoise {
     persistence = tmpl.getPersistence();
     startOctave = tmpl.getStartOctave();
     endOctave = tmpl.getEndOctave();
-    rawRand = new Random();
+    rawNoise = tmpl.getRawNoise();
 
     if (tmpl.getInterpolation() == Template.PerlinNoiseTemplate.Interpolation.None) {
       interpolator = new PerlinNoise.NoneInterpolator();
@@ -6,7 +6,6 @@ import au.com.codeka.warworlds.common.Image;
 import au.com.codeka.warworlds.common.PerlinNoise;
 import au.com.codeka.warworlds.common.Vector2;
 import au.com.codeka.warworlds.common.Voronoi;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
@@ -30,7 +29,17 @@ public class TextureGenerator {
    * Gets the colour of the texel at the given (u,v) coordinates.
    */
   public Colour getTexel(double u, double v) {
-    return generator.getTexel(u * scaleX, v * scaleY);
+    return getTexel(u, v, new Colour());
+  }
+
+  /**
+   * Gets the colour of the texel at the given (u,v) coordinates, and stores it in the given
+   * {@link Colour}.
+   *
+   * @return The result parameter, for convenience.
+   */
+  public Colour getTexel(double u, double v, Colour result) {
+    return generator.getTexel(u * scaleX, v * scaleY, result);
   }
 
   /**
@@ -47,7 +56,7 @@ public class TextureGenerator {
   }
 
   static abstract class Generator {
-    public abstract Colour getTexel(double u, double v);
+    public abstract Colour getTexel(double u, double v, Colour result);
   }
 
   /**
@@ -72,26 +81,22 @@ public class TextureGenerator {
       }
     }
 
-    public Colour getTexel(double u, double v) {
-      final Vector2 uv = new Vector2(u, v);
-      final Vector2 pt = voronoi.findClosestPoint(uv);
+    public Colour getTexel(double u, double v, Colour result) {
+      final int index = voronoi.findClosestPointIndex(u, v);
+      final Vector2 pt = voronoi.getPoint(index);
 
       // find the closest neighbour
       Vector2 neighbour = null;
       double neighbourDistance2 = 1.0;
-      List<Vector2> neighbours = voronoi.getNeighbours(pt);
-      if (neighbours == null) {
-        neighbours = new ArrayList<>();
-      }
-
-      int num = neighbours.size();
+      List<Vector2> neighbours = voronoi.getNeighbours(index);
+      int num = (neighbours == null ? 0 : neighbours.size());
       for (int i = 0; i < num; i++) {
         Vector2 n = neighbours.get(i);
         if (neighbour == null) {
           neighbour = n;
-          neighbourDistance2 = uv.distanceTo2(n);
+          neighbourDistance2 = n.distanceTo2(u, v);
         } else {
-          double distance2 = uv.distanceTo2(n);
+          double distance2 = n.distanceTo2(u, v);
           if (distance2 < neighbourDistance2) {
             neighbour = n;
             neighbourDistance2 = distance2;
@@ -100,7 +105,7 @@ public class TextureGenerator {
       }
 
       final double neighbourDistance = Math.sqrt(neighbourDistance2);
-      final double distance = uv.distanceTo(pt);
+      final double distance = pt.distanceTo(u, v);
       final double totalDistance = distance + neighbourDistance;
 
       double normalizedDistance = distance / (totalDistance / 2.0);
@@ -109,7 +114,7 @@ public class TextureGenerator {
         normalizedDistance += (noisiness / 2.0) - (noise * noisiness);
       }
 
-      return colourGradient.getColour(normalizedDistance);
+      return colourGradient.getColour(normalizedDistance, result);
     }
   }
 
@@ -125,9 +130,9 @@ public class TextureGenerator {
       colourGradient = tmpl.getParameter(Template.ColourGradientTemplate.class).getColourGradient();
     }
 
-    public Colour getTexel(double u, double v) {
+    public Colour getTexel(double u, double v, Colour result) {
       final double noise = this.noise.getNoise(u, v);
-      return colourGradient.getColour(noise);
+      return colourGradient.getColour(noise, result);
     }
   }
 }
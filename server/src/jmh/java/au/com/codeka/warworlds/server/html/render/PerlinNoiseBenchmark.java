@@ -0,0 +1,71 @@
+package au.com.codeka.warworlds.server.html.render;
+
+import au.com.codeka.warworlds.common.PerlinNoise;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link PerlinNoise#getNoise} with each {@link PerlinNoise.RawNoise} source, over
+ * octave ranges like the ones the templates in data/renderer use. The low octaves come from the
+ * cached lattices, the high ones have to work out every value. Each operation is one sample.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PerlinNoiseBenchmark {
+  /** The number of samples along each side of the image we generate. */
+  private static final int SIZE = 256;
+
+  @Param({"Compatible", "Hash"})
+  public PerlinNoise.RawNoise rawNoise;
+
+  /** The start and end octave, separated by a dash. */
+  @Param({"1-4", "3-8", "8-14"})
+  public String octaves;
+
+  private PerlinNoise noise;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    String[] parts = octaves.split("-");
+    noise = new BenchmarkNoise(
+        rawNoise, Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE * SIZE)
+  public void getNoise(Blackhole bh) {
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        bh.consume(noise.getNoise((double) x / SIZE, (double) y / SIZE));
+      }
+    }
+  }
+
+  private static class BenchmarkNoise extends PerlinNoise {
+    private BenchmarkNoise(RawNoise rawNoise, int startOctave, int endOctave) {
+      this.rawSeed = 1234;
+      this.persistence = 0.6;
+      this.startOctave = startOctave;
+      this.endOctave = endOctave;
+      this.interpolator = new PerlinNoise.CosineInterpolator();
+      this.rawNoise = rawNoise;
+    }
+  }
+}
@@ -0,0 +1,102 @@
+package au.com.codeka.warworlds.server.html.render;
+
+import au.com.codeka.warworlds.common.Colour;
+import au.com.codeka.warworlds.planetrender.SinglePlanetGenerator;
+import au.com.codeka.warworlds.planetrender.Template;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the per-pixel cost of {@link SinglePlanetGenerator#getPixelColour}, reusing a
+ * {@link SinglePlanetGenerator.Scratch} for every pixel (the way PlanetRenderer does) versus
+ * allocating a new one each time. Each operation is one pixel.
+ *
+ * <p>The interesting number is the allocation rate, so run it with the GC profiler (add
+ * {@code profilers = ['gc']} to the jmh block in build.gradle, or pass {@code -prof gc} to the
+ * benchmark jar). gc.alloc.rate.norm is the number of bytes allocated per pixel, which should be
+ * zero for "scratch".
+ *
+ * <p>Run from the server directory, so that the templates can be found.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PlanetPixelBenchmark {
+  /** The number of pixels along each side of the image we render. */
+  private static final int SIZE = 256;
+
+  @Param({
+      "planet/asteroids/asteroids-01",
+      "planet/gasgiant/gasgiant-01",
+      "planet/terran/terran-01",
+      "planet/water/water-01",
+      "star/yellow/yellow-01",
+      "star/neutron/neutron-01"})
+  public String template;
+
+  private SinglePlanetGenerator generator;
+  private SinglePlanetGenerator.Scratch scratch;
+  private Colour colour;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    Template tmpl;
+    try (InputStream ins = new FileInputStream("src/main/data/renderer/" + template + ".xml")) {
+      tmpl = Template.parse(ins);
+    }
+
+    Template.PlanetTemplate planetTmpl;
+    if (tmpl.getTemplate() instanceof Template.PlanetsTemplate) {
+      // For templates with more than one planet (e.g. asteroids), one is enough.
+      planetTmpl = tmpl.getTemplate().getParameter(Template.PlanetTemplate.class);
+    } else {
+      planetTmpl = (Template.PlanetTemplate) tmpl.getTemplate();
+    }
+    generator = new SinglePlanetGenerator(planetTmpl, new Random(1234));
+    scratch = new SinglePlanetGenerator.Scratch();
+    colour = new Colour();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE * SIZE)
+  public void scratch(Blackhole bh) {
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        double nx = ((double) x / (double) SIZE) - 0.5;
+        double ny = ((double) y / (double) SIZE) - 0.5;
+        bh.consume(generator.getPixelColour(nx, ny, scratch, colour).toArgb());
+      }
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(SIZE * SIZE)
+  public void allocating(Blackhole bh) {
+    for (int y = 0; y < SIZE; y++) {
+      for (int x = 0; x < SIZE; x++) {
+        double nx = ((double) x / (double) SIZE) - 0.5;
+        double ny = ((double) y / (double) SIZE) - 0.5;
+        bh.consume(generator.getPixelColour(nx, ny).toArgb());
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package au.com.codeka.warworlds.server.html.render;
+
+import au.com.codeka.warworlds.planetrender.PlanetRenderer;
+import au.com.codeka.warworlds.planetrender.Template;
+import java.awt.image.BufferedImage;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link PlanetRenderer} on every template in data/renderer, rendering on the calling
+ * thread ("0" threads) and on pools of various sizes. Divide the "0" time by the time for N threads
+ * to get the speedup on N cores. The image size is what an xxxhdpi client asks for.
+ *
+ * <p>Run from the server directory, so that the templates can be found.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PlanetRendererBenchmark {
+  @Param({
+      "planet/asteroids/asteroids-01",
+      "planet/asteroids/asteroids-02",
+      "planet/asteroids/asteroids-03",
+      "planet/asteroids/asteroids-04",
+      "planet/desert/desert-01",
+      "planet/gasgiant/gasgiant-01",
+      "planet/gasgiant/gasgiant-02",
+      "planet/inferno/inferno-01",
+      "planet/radiated/radiated-01",
+      "planet/radiated/radiated-02",
+      "planet/swamp/swamp-01",
+      "planet/swamp/swamp-02",
+      "planet/terran/terran-01",
+      "planet/toxic/toxic-01",
+      "planet/water/water-01",
+      "star/blackhole/black-hole-01",
+      "star/blue/blue-01",
+      "star/marker/marker-01",
+      "star/neutron/neutron-01",
+      "star/orange/orange-01",
+      "star/red/red-01",
+      "star/white/white-01",
+      "star/wormhole/wormhole-01",
+      "star/wormhole/wormhole-02",
+      "star/yellow/yellow-01"})
+  public String template;
+
+  /** The size of the pool we render on, or 0 to render on the calling thread. */
+  @Param({"0", "1", "2", "4", "8"})
+  public int numThreads;
+
+  @Param({"256"})
+  public int size;
+
+  private Template tmpl;
+  private ForkJoinPool pool;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    try (InputStream ins = new FileInputStream("src/main/data/renderer/" + template + ".xml")) {
+      tmpl = Template.parse(ins);
+    }
+    if (numThreads > 0) {
+      pool = new ForkJoinPool(numThreads);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  @Benchmark
+  public BufferedImage render() {
+    Random rand = new Random(1234);
+    PlanetRenderer renderer;
+    if (tmpl.getTemplate() instanceof Template.PlanetsTemplate) {
+      renderer = new PlanetRenderer((Template.PlanetsTemplate) tmpl.getTemplate(), rand);
+    } else {
+      renderer = new PlanetRenderer((Template.PlanetTemplate) tmpl.getTemplate(), rand);
+    }
+
+    BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+    renderer.render(img, pool);
+    return img;
+  }
+}
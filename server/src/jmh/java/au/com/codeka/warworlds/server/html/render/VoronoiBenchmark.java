@@ -0,0 +1,122 @@
+package au.com.codeka.warworlds.server.html.render;
+
+import au.com.codeka.warworlds.common.PointCloud;
+import au.com.codeka.warworlds.common.Vector2;
+import au.com.codeka.warworlds.common.Voronoi;
+import au.com.codeka.warworlds.planetrender.Template;
+import au.com.codeka.warworlds.planetrender.TemplatedPointCloud;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the lookups a Voronoi texture does for every texel (the closest point and its
+ * neighbours) on the point clouds from each of the templates in data/renderer that have one. The
+ * "linearSearch" benchmark is how the lookups used to work: a scan over every point, then a look
+ * up of the neighbours by value.
+ *
+ * <p>Run from the server directory, so that the templates can be found.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class VoronoiBenchmark {
+  @Param({
+      "planet/asteroids/asteroids-01",
+      "planet/asteroids/asteroids-02",
+      "planet/asteroids/asteroids-03",
+      "planet/gasgiant/gasgiant-01",
+      "planet/gasgiant/gasgiant-02",
+      "planet/inferno/inferno-01",
+      "planet/radiated/radiated-01",
+      "planet/swamp/swamp-01"})
+  public String template;
+
+  /** The number of texels along each side of the texture we look up. */
+  @Param({"256"})
+  public int size;
+
+  private List<Vector2> points;
+  private Voronoi voronoi;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    Template tmpl;
+    try (InputStream ins = new FileInputStream("src/main/data/renderer/" + template + ".xml")) {
+      tmpl = Template.parse(ins);
+    }
+    Template.VoronoiTemplate voronoiTmpl = findVoronoiTemplate(tmpl.getTemplate());
+    if (voronoiTmpl == null) {
+      throw new IllegalStateException("No voronoi in template: " + template);
+    }
+
+    PointCloud pointCloud = new TemplatedPointCloud(
+        voronoiTmpl.getParameter(Template.PointCloudTemplate.class), new Random(1234));
+    points = pointCloud.getPoints();
+    voronoi = new Voronoi(pointCloud);
+  }
+
+  @Benchmark
+  public void grid(Blackhole bh) {
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        Vector2 uv = new Vector2((double) x / size, (double) y / size);
+        int index = voronoi.findClosestPointIndex(uv);
+        bh.consume(voronoi.getPoint(index));
+        bh.consume(voronoi.getNeighbours(index));
+      }
+    }
+  }
+
+  @Benchmark
+  public void linearSearch(Blackhole bh) {
+    for (int y = 0; y < size; y++) {
+      for (int x = 0; x < size; x++) {
+        Vector2 uv = new Vector2((double) x / size, (double) y / size);
+        Vector2 closest = null;
+        double closestDistance2 = 0.0;
+        for (int i = 0; i < points.size(); i++) {
+          Vector2 pt = points.get(i);
+          double distance2 = pt.distanceTo2(uv);
+          if (closest == null || distance2 < closestDistance2) {
+            closest = pt;
+            closestDistance2 = distance2;
+          }
+        }
+        bh.consume(closest);
+        bh.consume(voronoi.getNeighbours(closest));
+      }
+    }
+  }
+
+  private static Template.VoronoiTemplate findVoronoiTemplate(Template.BaseTemplate tmpl) {
+    if (tmpl instanceof Template.VoronoiTemplate) {
+      return (Template.VoronoiTemplate) tmpl;
+    }
+    for (Template.BaseTemplate child : tmpl.getParameters()) {
+      Template.VoronoiTemplate voronoiTmpl = findVoronoiTemplate(child);
+      if (voronoiTmpl != null) {
+        return voronoiTmpl;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,111 @@
+package au.com.codeka.warworlds.server.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongFunction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares {@link WeightedLruCache} against the way StarManager.getStar used to work: a single
+ * lock around the whole lookup, including loading the value on a miss. Run with lots of threads so
+ * that we can see how each behaves under contention.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@Threads(8)
+public class WeightedLruCacheBenchmark {
+  /** The number of distinct keys we look up. */
+  @Param({"10000"})
+  public int numKeys;
+
+  /**
+   * The fraction of the keys that fit in the cache. At 1.0 everything's a hit once we've warmed
+   * up, at lower values we'll be evicting and loading all the time.
+   */
+  @Param({"1.0", "0.5"})
+  public double cachedFraction;
+
+  /** The cost of a load (in {@link Blackhole#consumeCPU} tokens), standing in for a disk read. */
+  @Param({"2000"})
+  public long loadCost;
+
+  private WeightedLruCache<Long, Object> cache;
+  private SynchronizedLruCache baseline;
+
+  @Setup
+  public void setup() {
+    long maxSize = (long) (numKeys * cachedFraction);
+    cache = new WeightedLruCache<>(new WeightedLruCache.Policy<Object>() {
+      @Override
+      public int getWeight(Object value) {
+        return 1;
+      }
+
+      @Override
+      public boolean isPinned(Object value) {
+        return false;
+      }
+    }, maxSize);
+    baseline = new SynchronizedLruCache((int) maxSize);
+  }
+
+  @Benchmark
+  public Object weightedLruCache() {
+    long key = ThreadLocalRandom.current().nextInt(numKeys);
+    return cache.get(key, this::load);
+  }
+
+  @Benchmark
+  public Object synchronizedLruCache() {
+    long key = ThreadLocalRandom.current().nextInt(numKeys);
+    return baseline.get(key, this::load);
+  }
+
+  private Object load(long key) {
+    Blackhole.consumeCPU(loadCost);
+    return new Object();
+  }
+
+  /** The old implementation: an LRU map where everything happens under one lock. */
+  private static class SynchronizedLruCache {
+    private final LinkedHashMap<Long, Object> map;
+
+    SynchronizedLruCache(final int maxSize) {
+      map = new LinkedHashMap<Long, Object>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Object> eldest) {
+          return size() > maxSize;
+        }
+      };
+    }
+
+    Object get(long key, LongFunction<Object> loader) {
+      synchronized (map) {
+        Object value = map.get(key);
+        if (value == null) {
+          value = loader.apply(key);
+          map.put(key, value);
+        }
+        return value;
+      }
+    }
+  }
+}
@@ -1,6 +1,7 @@
 package au.com.codeka.warworlds.server;
 
 import au.com.codeka.warworlds.common.Log;
+import au.com.codeka.warworlds.common.sim.Simulation;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.InstanceCreator;
@@ -19,9 +20,15 @@ public class Configuration {
 
   @Expose private int listenPort;
   @Expose private SmtpConfig smtp;
+  @Expose private SimulationConfig simulation;
+  @Expose private GameSocketConfig gameSocket;
+  @Expose private RendererConfig renderer;
 
   private Configuration() {
     smtp = new SmtpConfig();
+    simulation = new SimulationConfig();
+    gameSocket = new GameSocketConfig();
+    renderer = new RendererConfig();
   }
 
   /** Loads the {@link Configuration} from the given file and sets it to {@code Configuration.i}. */
@@ -49,6 +56,18 @@ public class Configuration {
     return smtp;
   }
 
+  public SimulationConfig getSimulation() {
+    return simulation;
+  }
+
+  public GameSocketConfig getGameSocket() {
+    return gameSocket;
+  }
+
+  public RendererConfig getRenderer() {
+    return renderer;
+  }
+
   public static class SmtpConfig {
     @Expose private String host;
     @Expose private int port;
@@ -82,4 +101,73 @@ public class Configuration {
       return senderAddr;
     }
   }
+
+  public static class SimulationConfig {
+    @Expose private int numThreads;
+    @Expose private Simulation.FastForwardMode fastForwardMode;
+
+    public SimulationConfig() {
+      numThreads = 1;
+      fastForwardMode = Simulation.FastForwardMode.ON;
+    }
+
+    /** The number of stars we'll simulate in parallel. */
+    public int getNumThreads() {
+      return numThreads;
+    }
+
+    /** Whether we skip over steps when a star is in a steady state, see {@link Simulation}. */
+    public Simulation.FastForwardMode getFastForwardMode() {
+      return fastForwardMode;
+    }
+  }
+
+  public static class GameSocketConfig {
+    @Expose private int port;
+    @Expose private int numSelectorThreads;
+    @Expose private long maxQueuedBytes;
+
+    public GameSocketConfig() {
+      port = 8081;
+      numSelectorThreads = 2;
+      maxQueuedBytes = 4L * 1024 * 1024;
+    }
+
+    /** The port that game clients connect to. */
+    public int getPort() {
+      return port;
+    }
+
+    /** The number of threads doing network I/O for game clients. */
+    public int getNumSelectorThreads() {
+      return numSelectorThreads;
+    }
+
+    /**
+     * The maximum size of the packets we'll queue up for a single client. If a client falls so far
+     * behind that its queue gets bigger than this, we disconnect it.
+     */
+    public long getMaxQueuedBytes() {
+      return maxQueuedBytes;
+    }
+  }
+
+  public static class RendererConfig {
+    @Expose private int numThreads;
+
+    public RendererConfig() {
+      numThreads = 0;
+    }
+
+    /**
+     * The number of threads we render star and planet images on, shared between all requests. Zero
+     * means one per available processor.
+     */
+    public int getNumThreads() {
+      if (numThreads <= 0) {
+        return Runtime.getRuntime().availableProcessors();
+      }
+      return numThreads;
+    }
+  }
 }
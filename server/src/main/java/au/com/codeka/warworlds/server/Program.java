@@ -6,6 +6,7 @@ import au.com.codeka.warworlds.server.html.HtmlServlet;
 import au.com.codeka.warworlds.server.net.ServerSocketManager;
 import au.com.codeka.warworlds.server.store.DataStore;
 import au.com.codeka.warworlds.server.util.SmtpHelper;
+import au.com.codeka.warworlds.server.world.NativeColonySweeper;
 import au.com.codeka.warworlds.server.world.StarSimulatorQueue;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ServerConnector;
@@ -20,6 +21,7 @@ public class Program {
     Configuration.i.load();
     DataStore.i.open();
     StarSimulatorQueue.i.start();
+    NativeColonySweeper.i.start();
     ServerSocketManager.i.start();
     SmtpHelper.i.start();
 
@@ -48,6 +50,7 @@ public class Program {
       log.info("Shutting down.");
       ServerSocketManager.i.stop();
       StarSimulatorQueue.i.stop();
+      NativeColonySweeper.i.stop();
       SmtpHelper.i.stop();
       DataStore.i.close();
     }
@@ -6,6 +6,7 @@ import au.com.codeka.warworlds.common.proto.SectorCoord;
 import au.com.codeka.warworlds.common.proto.Star;
 import au.com.codeka.warworlds.common.proto.StarModification;
 import au.com.codeka.warworlds.common.sim.Simulation;
+import au.com.codeka.warworlds.common.sim.SimulationStep;
 import au.com.codeka.warworlds.common.sim.SuspiciousModificationException;
 import au.com.codeka.warworlds.server.handlers.RequestException;
 import au.com.codeka.warworlds.server.world.SectorManager;
@@ -13,6 +14,7 @@ import au.com.codeka.warworlds.server.world.StarManager;
 import au.com.codeka.warworlds.server.world.SuspiciousEventManager;
 import au.com.codeka.warworlds.server.world.WatchableObject;
 import java.util.ArrayList;
+import java.util.List;
 import javax.annotation.Nullable;
 
 /** Handler for /admin/ajax/starfield requests. */
@@ -62,7 +64,6 @@ public class AjaxStarfieldHandler extends AjaxHandler {
   private void handleXyRequest(long x, long y) {
     WatchableObject<Sector> sector =
         SectorManager.i.getSector(new SectorCoord.Builder().x(x).y(y).build());
-    SectorManager.i.verifyNativeColonies(sector);
     setResponseJson(sector.get());
   }
 
@@ -97,13 +98,14 @@ public class AjaxStarfieldHandler extends AjaxHandler {
     resp.loadTime = (System.nanoTime() - startTime) / 1000000L;
 
     final StringBuilder logMessages = new StringBuilder();
+    final ArrayList<SimulationStep> steps = new ArrayList<>();
 
     ArrayList<StarModification> modifications = new ArrayList<>();
     if (modification != null) {
       modifications.add(modification);
     }
     try {
-      StarManager.i.modifyStar(star, modifications, new LogHandler(logMessages));
+      StarManager.i.modifyStar(star, modifications, new LogHandler(logMessages, steps));
     } catch (SuspiciousModificationException e) {
       log.warning("Suspicious modification.", e);
       // We'll log it as well, even though technically it wasn't the empire who made it.
@@ -113,14 +115,17 @@ public class AjaxStarfieldHandler extends AjaxHandler {
     long simulateTime = System.nanoTime();
     resp.simulateTime = (simulateTime - startTime) / 1000000L;
     resp.logMessages = logMessages.toString();
+    resp.steps = steps;
     return resp;
   }
 
   private static class LogHandler implements Simulation.LogHandler {
     private final StringBuilder logMessages;
+    private final List<SimulationStep> steps;
 
-    LogHandler(StringBuilder logMessages) {
+    LogHandler(StringBuilder logMessages, List<SimulationStep> steps) {
       this.logMessages = logMessages;
+      this.steps = steps;
     }
 
     @Override
@@ -134,11 +139,17 @@ public class AjaxStarfieldHandler extends AjaxHandler {
       logMessages.append("\n");
       log.debug(message);
     }
+
+    @Override
+    public void onStep(SimulationStep step) {
+      steps.add(step);
+    }
   }
 
   private static class SimulateResponse {
     long loadTime;
     long simulateTime;
     String logMessages;
+    List<SimulationStep> steps;
   }
 }
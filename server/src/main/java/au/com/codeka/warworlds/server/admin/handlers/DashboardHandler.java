@@ -4,9 +4,16 @@ import au.com.codeka.warworlds.common.Log;
 import au.com.codeka.warworlds.common.proto.AdminRole;
 import au.com.codeka.warworlds.common.proto.Empire;
 import au.com.codeka.warworlds.server.handlers.RequestException;
+import au.com.codeka.warworlds.server.net.Connection;
+import au.com.codeka.warworlds.server.net.GameSocket;
+import au.com.codeka.warworlds.server.net.ServerSocketManager;
 import au.com.codeka.warworlds.server.proto.DailyStat;
 import au.com.codeka.warworlds.server.proto.LoginEvent;
 import au.com.codeka.warworlds.server.store.DataStore;
+import au.com.codeka.warworlds.server.util.WeightedLruCache;
+import au.com.codeka.warworlds.server.world.SectorManager;
+import au.com.codeka.warworlds.server.world.StarManager;
+import au.com.codeka.warworlds.server.world.StarSimulatorQueue;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -59,6 +66,54 @@ public class DashboardHandler extends AdminHandler {
     }
     data.put("graph", graph);
 
+    data.put("simulationBacklog", StarSimulatorQueue.i.getBacklogSize());
+    data.put("simulationLagMs", StarSimulatorQueue.i.getLagMs());
+
+    WeightedLruCache<?, ?> starCache = StarManager.i.getCache();
+    data.put("starCacheSize", starCache.size());
+    data.put("starCacheBytes", starCache.getTotalWeight());
+    data.put("starCacheHits", starCache.getHits());
+    data.put("starCacheMisses", starCache.getMisses());
+    data.put("starCacheEvictions", starCache.getEvictions());
+    WeightedLruCache<?, ?> sectorCache = SectorManager.i.getCache();
+    data.put("sectorCacheSize", sectorCache.size());
+    data.put("sectorCacheBytes", sectorCache.getTotalWeight());
+    data.put("sectorCacheHits", sectorCache.getHits());
+    data.put("sectorCacheMisses", sectorCache.getMisses());
+    data.put("sectorCacheEvictions", sectorCache.getEvictions());
+
+    ArrayList<ConnectionInfo> connections = new ArrayList<>();
+    for (Connection connection : ServerSocketManager.i.getConnections()) {
+      connections.add(new ConnectionInfo(connection));
+    }
+    data.put("connections", connections);
+    data.put("slowClientDisconnects", ServerSocketManager.i.getNumSlowClientDisconnects());
+
     render("index.html", data);
   }
+
+  /** A snapshot of the outbound queue of a single {@link Connection}, for display. */
+  public static class ConnectionInfo {
+    public final long empire_id;
+    public final String empire_name;
+    public final String address;
+    public final int queue_size;
+    public final long queued_bytes;
+    public final long num_sent;
+    public final long num_coalesced;
+    public final long num_dropped;
+
+    ConnectionInfo(Connection connection) {
+      Empire empire = connection.getEmpire().get();
+      GameSocket socket = connection.getSocket();
+      empire_id = empire.id;
+      empire_name = empire.display_name;
+      address = String.valueOf(socket.getRemoteAddress());
+      queue_size = socket.getQueueSize();
+      queued_bytes = socket.getQueuedBytes();
+      num_sent = socket.getNumSent();
+      num_coalesced = socket.getNumCoalesced();
+      num_dropped = socket.getNumDropped();
+    }
+  }
 }
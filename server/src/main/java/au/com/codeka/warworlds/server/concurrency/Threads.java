@@ -12,7 +12,13 @@ public enum Threads {
   /**
    * A special "class" of thread that actually represents a pool of background workers.
    */
-  BACKGROUND;
+  BACKGROUND,
+
+  /**
+   * A pool of workers that {@link au.com.codeka.warworlds.server.world.StarSimulatorQueue} uses to
+   * simulate stars in parallel.
+   */
+  SIMULATION;
 
   public static void checkOnThread(Threads thread) {
     // Note: We don't use Preconditions.checkState because we want a nice error message and don't
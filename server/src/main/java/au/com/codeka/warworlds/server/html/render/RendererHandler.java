@@ -4,6 +4,7 @@ import au.com.codeka.warworlds.common.Log;
 import au.com.codeka.warworlds.common.Vector3;
 import au.com.codeka.warworlds.planetrender.PlanetRenderer;
 import au.com.codeka.warworlds.planetrender.Template;
+import au.com.codeka.warworlds.server.Configuration;
 import au.com.codeka.warworlds.server.handlers.RequestHandler;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
@@ -14,6 +15,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import javax.annotation.Nullable;
 import javax.imageio.ImageIO;
 
@@ -32,6 +34,8 @@ public class RendererHandler extends RequestHandler {
       .put("xxxhdpi", 4.0f)
       .build();
 
+  /** The pool we render images on, shared by all requests. Created the first time we need it. */
+  @Nullable private static ForkJoinPool renderPool;
 
   protected boolean generateImage(
       File cacheFile,
@@ -72,7 +76,7 @@ public class RendererHandler extends RequestHandler {
     }
 
     BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-    renderer.render(img);
+    renderer.render(img, getRenderPool());
     try {
       ImageIO.write(img, "png", cacheFile);
     } catch (IOException e) {
@@ -82,6 +86,13 @@ public class RendererHandler extends RequestHandler {
     return true;
   }
 
+  private static synchronized ForkJoinPool getRenderPool() {
+    if (renderPool == null) {
+      renderPool = new ForkJoinPool(Configuration.i.getRenderer().getNumThreads());
+    }
+    return renderPool;
+  }
+
   protected void serveCachedFile(File file) {
     getResponse().setContentType("image/png");
     getResponse().setHeader("Cache-Control", "max-age=2592000"); // 30 days
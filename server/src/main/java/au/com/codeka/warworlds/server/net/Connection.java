@@ -2,8 +2,6 @@ package au.com.codeka.warworlds.server.net;
 
 import au.com.codeka.warworlds.common.Log;
 import au.com.codeka.warworlds.common.debug.PacketDebug;
-import au.com.codeka.warworlds.common.net.PacketDecoder;
-import au.com.codeka.warworlds.common.net.PacketEncoder;
 import au.com.codeka.warworlds.common.proto.Account;
 import au.com.codeka.warworlds.common.proto.Empire;
 import au.com.codeka.warworlds.common.proto.HelloPacket;
@@ -12,22 +10,17 @@ import au.com.codeka.warworlds.server.concurrency.TaskRunner;
 import au.com.codeka.warworlds.server.concurrency.Threads;
 import au.com.codeka.warworlds.server.world.Player;
 import au.com.codeka.warworlds.server.world.WatchableObject;
-import java.io.IOException;
-import java.io.OutputStream;
-import java.net.Socket;
 
 /**
  * Represents an established connection to a client.
  */
-public class Connection implements PacketDecoder.PacketHandler {
+public class Connection implements GameSocket.Listener {
   private final static Log log = new Log("Connection");
 
   private final Account account;
   private final WatchableObject<Empire> empire;
   private final byte[] encryptionKey;
-  private final Socket socket;
-  private final PacketEncoder encoder;
-  private final PacketDecoder decoder;
+  private final GameSocket socket;
   private final Player player;
 
   public Connection(
@@ -35,34 +28,38 @@ public class Connection implements PacketDecoder.PacketHandler {
       Account account,
       WatchableObject<Empire> empire,
       byte[] encryptionKey,
-      Socket socket,
-      PacketDecoder decoder,
-      OutputStream outs) {
+      GameSocket socket) {
     this.account = account;
     this.empire = empire;
     this.encryptionKey = encryptionKey;
     this.socket = socket;
-    this.encoder = new PacketEncoder(outs);
-    this.decoder = decoder;
-    decoder.setPacketHandler(this);
 
     player = new Player(this, helloPacket, empire);
   }
 
   public void start() {
-    encoder.setPacketHandler(packetEncodeHandler);
+    socket.setListener(this);
   }
 
+  public WatchableObject<Empire> getEmpire() {
+    return empire;
+  }
+
+  /** Gets the {@link GameSocket} we're connected on, mostly so you can get at its metrics. */
+  public GameSocket getSocket() {
+    return socket;
+  }
+
+  /**
+   * Sends the given {@link Packet} to the client. This just queues the packet up, it doesn't wait
+   * for it to actually be written to the network, so it's safe to call while holding locks.
+   */
   public void send(Packet pkt) {
-    try {
-      encoder.send(pkt);
-    } catch (IOException e) {
-      log.warning("Error", e);
-    }
+    socket.send(pkt);
   }
 
   @Override
-  public void onPacket(PacketDecoder decoder, Packet packet, int encodedSize) {
+  public void onPacket(GameSocket socket, Packet packet, int encodedSize) {
     if (log.isDebugEnabled()) {
       log.debug("<< [%d %s] %s", empire.get().id, empire.get().display_name,
           PacketDebug.getPacketDebug(packet, encodedSize));
@@ -70,18 +67,17 @@ public class Connection implements PacketDecoder.PacketHandler {
     TaskRunner.i.runTask(() -> player.onPacket(packet), Threads.BACKGROUND);
   }
 
+  @Override
+  public void onPacketSent(Packet packet, int encodedSize) {
+    if (log.isDebugEnabled()) {
+      log.debug(">> [%d %s] %s", empire.get().id, empire.get().display_name,
+          PacketDebug.getPacketDebug(packet, encodedSize));
+    }
+  }
+
   @Override
   public void onDisconnect() {
+    ServerSocketManager.i.onDisconnect(empire.get().id, this);
     TaskRunner.i.runTask(() -> player.onDisconnect(), Threads.BACKGROUND);
   }
-
-  private PacketEncoder.PacketHandler packetEncodeHandler = new PacketEncoder.PacketHandler() {
-    @Override
-    public void onPacket(Packet packet, int encodedSize) {
-      if (log.isDebugEnabled()) {
-        log.debug(">> [%d %s] %s", empire.get().id, empire.get().display_name,
-            PacketDebug.getPacketDebug(packet, encodedSize));
-      }
-    }
-  };
 }
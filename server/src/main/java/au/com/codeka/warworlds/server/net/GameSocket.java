@@ -0,0 +1,296 @@
+package au.com.codeka.warworlds.server.net;
+
+import au.com.codeka.warworlds.common.Log;
+import au.com.codeka.warworlds.common.net.FrameDecoder;
+import au.com.codeka.warworlds.common.net.FrameEncoder;
+import au.com.codeka.warworlds.common.net.PacketDecoder;
+import au.com.codeka.warworlds.common.net.PacketEncoder;
+import au.com.codeka.warworlds.common.net.PacketFlags;
+import au.com.codeka.warworlds.common.proto.Packet;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import javax.annotation.Nullable;
+
+/**
+ * A non-blocking socket connected to a game client. It uses the same framing as
+ * {@link PacketEncoder} and {@link PacketDecoder}, but all the actual I/O happens on the
+ * {@link SelectorThread} that owns the socket, so we don't need a thread per client.
+ *
+ * <p>Incoming packets are decoded on the selector thread and passed to the {@link Listener}, which
+ * should hand off any real work to another thread. Outgoing packets are added to an
+ * {@link OutboundQueue}, and only encoded (on the selector thread) once the socket is ready to
+ * write them, so sending never blocks the caller. If the client falls so far behind that the queue
+ * fills up, we disconnect it.
+ */
+public class GameSocket {
+  private static final Log log = new Log("GameSocket");
+
+  /** Receives packets from the client. Always called on the selector thread. */
+  public interface Listener {
+    void onPacket(GameSocket socket, Packet pkt, int encodedSize);
+    void onDisconnect();
+
+    /** Called on the selector thread when a packet has been encoded, just before it's written. */
+    default void onPacketSent(Packet pkt, int encodedSize) {
+    }
+  }
+
+  /** The initial size of our read buffer. It'll grow if we get a frame bigger than this. */
+  private static final int INITIAL_READ_BUFFER_SIZE = 8 * 1024;
+
+  private final SocketChannel channel;
+  private final SocketAddress remoteAddress;
+  private final SelectorThread selectorThread;
+  private volatile Listener listener;
+
+  /** The {@link SelectionKey} for our channel, only touched on the selector thread. */
+  @Nullable private SelectionKey key;
+  private ByteBuffer readBuffer;
+
+  /** Encoder and decoder for our frames, only touched on the selector thread. */
+  private final FrameEncoder frameEncoder = new FrameEncoder(PacketFlags.COMPRESSED);
+  private final FrameDecoder frameDecoder = new FrameDecoder();
+
+  /**
+   * Packets waiting to be encoded and written. It's thread-safe, but we also synchronize on it when
+   * we need a couple of calls to happen atomically.
+   */
+  private final OutboundQueue outbound;
+
+  /** The frame we're currently writing, if any. Only touched on the selector thread. */
+  @Nullable private ByteBuffer currentFrame;
+  private volatile boolean closed;
+
+  GameSocket(
+      SocketChannel channel,
+      SelectorThread selectorThread,
+      Listener listener,
+      long maxQueuedBytes) throws IOException {
+    this.channel = channel;
+    this.remoteAddress = channel.getRemoteAddress();
+    this.selectorThread = selectorThread;
+    this.listener = listener;
+    this.outbound = new OutboundQueue(maxQueuedBytes);
+    readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER_SIZE);
+    readBuffer.order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  public void setListener(Listener listener) {
+    this.listener = listener;
+  }
+
+  public SocketAddress getRemoteAddress() {
+    return remoteAddress;
+  }
+
+  /**
+   * Queues the given {@link Packet} to be sent to the client. This doesn't block, or even encode
+   * the packet: that's done by the selector thread as soon as the socket can take it.
+   *
+   * <p>If the client has fallen so far behind that its queue is full, the packet is dropped and the
+   * socket is closed.
+   */
+  public void send(Packet pkt) {
+    if (closed) {
+      return;
+    }
+
+    boolean wasEmpty;
+    boolean added;
+    synchronized (outbound) {
+      wasEmpty = outbound.isEmpty();
+      added = outbound.add(pkt);
+    }
+    if (!added) {
+      log.warning("Outbound queue for %s is full (%d packets, %d bytes), disconnecting.",
+          remoteAddress, outbound.size(), outbound.getQueuedBytes());
+      ServerSocketManager.i.onSlowClientDisconnected();
+      close();
+      return;
+    }
+    if (wasEmpty) {
+      // If the queue wasn't empty, then we're already waiting to write.
+      selectorThread.execute(this::enableWrite);
+    }
+  }
+
+  /** Gets the number of packets waiting to be sent. */
+  public int getQueueSize() {
+    return outbound.size();
+  }
+
+  /** Gets the total (uncompressed) size of the packets waiting to be sent. */
+  public long getQueuedBytes() {
+    return outbound.getQueuedBytes();
+  }
+
+  /** Gets the number of packets we've sent. */
+  public long getNumSent() {
+    return outbound.getNumSent();
+  }
+
+  /** Gets the number of queued packets that were replaced by a newer update to the same star. */
+  public long getNumCoalesced() {
+    return outbound.getNumCoalesced();
+  }
+
+  /** Gets the number of packets we dropped because the queue was full or the socket was closed. */
+  public long getNumDropped() {
+    return outbound.getNumDropped();
+  }
+
+  /**
+   * Sets the compression we'll use for packets we send from now on, one of the compression values
+   * in {@link PacketFlags}. Until this is called, we use gzip since every client understands it.
+   */
+  public void setCompression(int compression) {
+    selectorThread.execute(() -> frameEncoder.setCompression(compression));
+  }
+
+  /** Closes the socket. The listener's onDisconnect will be called on the selector thread. */
+  public void close() {
+    selectorThread.execute(this::closeNow);
+  }
+
+  /** Called on the selector thread to register our channel with the selector. */
+  void onRegister(Selector selector) {
+    try {
+      key = channel.register(selector, SelectionKey.OP_READ, this);
+    } catch (ClosedChannelException e) {
+      log.warning("Socket closed before we could register it: %s", remoteAddress);
+      closeNow();
+      return;
+    }
+
+    // If anything was queued before we were registered, make sure it gets written.
+    if (!outbound.isEmpty()) {
+      enableWrite();
+    }
+  }
+
+  /** Called on the selector thread when there's data to read from the channel. */
+  void onReadable() {
+    int numRead;
+    try {
+      numRead = channel.read(readBuffer);
+    } catch (IOException e) {
+      log.warning("Error reading from %s.", remoteAddress, e);
+      closeNow();
+      return;
+    }
+    if (numRead < 0) {
+      closeNow();
+      return;
+    }
+
+    readBuffer.flip();
+    int needed = 0;
+    while (readBuffer.remaining() >= FrameEncoder.HEADER_SIZE) {
+      int pos = readBuffer.position();
+      int size = readBuffer.getInt(pos);
+      int flags = readBuffer.getInt(pos + 4);
+      if (size < 0 || size > PacketDecoder.MAX_PACKET_SIZE) {
+        log.warning("Invalid frame size %d from %s, disconnecting.", size, remoteAddress);
+        closeNow();
+        return;
+      }
+      if (readBuffer.remaining() < FrameEncoder.HEADER_SIZE + size) {
+        needed = FrameEncoder.HEADER_SIZE + size;
+        break;
+      }
+
+      Packet pkt;
+      try {
+        pkt = frameDecoder.decode(
+            readBuffer.array(),
+            readBuffer.arrayOffset() + pos + FrameEncoder.HEADER_SIZE,
+            size,
+            flags);
+        readBuffer.position(pos + FrameEncoder.HEADER_SIZE + size);
+      } catch (IOException e) {
+        log.warning("Error decoding packet from %s.", remoteAddress, e);
+        closeNow();
+        return;
+      }
+      listener.onPacket(this, pkt, size);
+      if (closed) {
+        return;
+      }
+    }
+    readBuffer.compact();
+
+    if (needed > readBuffer.capacity()) {
+      ByteBuffer bigger = ByteBuffer.allocate(needed);
+      bigger.order(ByteOrder.LITTLE_ENDIAN);
+      readBuffer.flip();
+      bigger.put(readBuffer);
+      readBuffer = bigger;
+    }
+  }
+
+  /** Called on the selector thread when the channel is ready for us to write to it. */
+  void onWritable() {
+    try {
+      while (true) {
+        if (currentFrame == null) {
+          Packet pkt = outbound.poll();
+          if (pkt == null) {
+            break;
+          }
+          // Note that the frame is backed by the encoder's buffer, so we can't encode anything
+          // else until it's been completely written.
+          currentFrame = frameEncoder.encode(pkt);
+          listener.onPacketSent(pkt, frameEncoder.getLastPayloadSize());
+        }
+
+        channel.write(currentFrame);
+        if (currentFrame.hasRemaining()) {
+          // The socket's buffer is full, we'll wait until it's writable again.
+          return;
+        }
+        currentFrame = null;
+      }
+    } catch (IOException e) {
+      log.warning("Error writing to %s.", remoteAddress, e);
+      closeNow();
+      return;
+    }
+
+    // Nothing left to write, stop waiting for the socket to be writable. If something gets queued
+    // after this, send() will post another enableWrite which runs after us.
+    key.interestOps(SelectionKey.OP_READ);
+  }
+
+  /** Called on the selector thread to start waiting for the channel to become writable. */
+  private void enableWrite() {
+    if (key != null && key.isValid()) {
+      key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+    }
+  }
+
+  /** Called on the selector thread to actually close the socket. */
+  void closeNow() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+
+    if (key != null) {
+      key.cancel();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      log.warning("Error closing socket.", e);
+    }
+    currentFrame = null;
+    outbound.clear();
+    listener.onDisconnect();
+  }
+}
@@ -0,0 +1,161 @@
+package au.com.codeka.warworlds.server.net;
+
+import au.com.codeka.warworlds.common.proto.Packet;
+import au.com.codeka.warworlds.common.proto.Star;
+import au.com.codeka.warworlds.common.proto.StarDelta;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * The queue of {@link Packet}s waiting to be sent to a single client.
+ *
+ * <p>Packets are kept un-encoded until the socket is actually ready to write them. That way, if the
+ * client falls behind, a {@link au.com.codeka.warworlds.common.proto.StarUpdatedPacket} for a star
+ * that already has an update in the queue just replaces the old one: there's no point sending a
+ * client a version of the star that's already out of date.
+ *
+ * <p>The queue is bounded by the total (uncompressed) size of the packets in it. If a client can't
+ * keep up even with coalescing, {@link #add} will refuse the packet and the caller should give up
+ * on the client.
+ */
+class OutboundQueue {
+  private final long maxBytes;
+  private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+
+  /** Entries in {@link #entries} that can be replaced by a newer update to the same star. */
+  private final Map<Long, Entry> starEntries = new HashMap<>();
+  private long queuedBytes;
+
+  private long numSent;
+  private long numCoalesced;
+  private long numDropped;
+
+  OutboundQueue(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Adds the given {@link Packet} to the queue, replacing any queued update for the same star.
+   *
+   * @return Whether we were able to add the packet. If false, the queue is over its maximum size,
+   *     and the packet has been dropped.
+   */
+  synchronized boolean add(Packet pkt) {
+    int size = Packet.ADAPTER.encodedSize(pkt);
+    Long starId = getStarId(pkt);
+    if (starId != null) {
+      Entry existing = starEntries.get(starId);
+      if (existing != null) {
+        queuedBytes += size - existing.size;
+        existing.packet = pkt;
+        existing.size = size;
+        numCoalesced++;
+        return true;
+      }
+    }
+
+    if (queuedBytes + size > maxBytes) {
+      numDropped++;
+      return false;
+    }
+
+    Entry entry = new Entry(pkt, size, starId);
+    entries.add(entry);
+    if (starId != null) {
+      starEntries.put(starId, entry);
+    } else if (pkt.star_updated != null) {
+      // An update with lots of stars. Any later update to one of these stars has to go after this
+      // packet, otherwise the client would end up with this (older) version.
+      for (Star star : pkt.star_updated.stars) {
+        starEntries.remove(star.id);
+      }
+    } else if (pkt.star_deltas != null) {
+      // Likewise, a delta only applies to the version of the star before it, so a later update
+      // can't jump in front of it.
+      for (StarDelta delta : pkt.star_deltas.deltas) {
+        starEntries.remove(delta.star_id);
+      }
+    }
+    queuedBytes += size;
+    return true;
+  }
+
+  /** Removes and returns the packet at the head of the queue, or null if the queue is empty. */
+  @Nullable
+  synchronized Packet poll() {
+    Entry entry = entries.poll();
+    if (entry == null) {
+      return null;
+    }
+    if (entry.starId != null) {
+      starEntries.remove(entry.starId, entry);
+    }
+    queuedBytes -= entry.size;
+    numSent++;
+    return entry.packet;
+  }
+
+  synchronized boolean isEmpty() {
+    return entries.isEmpty();
+  }
+
+  /** Removes everything from the queue, counting it all as dropped. */
+  synchronized void clear() {
+    numDropped += entries.size();
+    entries.clear();
+    starEntries.clear();
+    queuedBytes = 0;
+  }
+
+  /** Gets the number of packets currently in the queue. */
+  synchronized int size() {
+    return entries.size();
+  }
+
+  /** Gets the total (uncompressed) size of the packets currently in the queue. */
+  synchronized long getQueuedBytes() {
+    return queuedBytes;
+  }
+
+  /** Gets the number of packets we've taken off the queue to send. */
+  synchronized long getNumSent() {
+    return numSent;
+  }
+
+  /** Gets the number of packets that were replaced by a newer version of the same star. */
+  synchronized long getNumCoalesced() {
+    return numCoalesced;
+  }
+
+  /** Gets the number of packets we dropped, because the queue was full or the socket closed. */
+  synchronized long getNumDropped() {
+    return numDropped;
+  }
+
+  /**
+   * If the given packet is a {@link au.com.codeka.warworlds.common.proto.StarUpdatedPacket} for a
+   * single star, returns that star's ID. Otherwise, returns null (and the packet is never
+   * coalesced).
+   */
+  @Nullable
+  private static Long getStarId(Packet pkt) {
+    if (pkt.star_updated == null || pkt.star_updated.stars.size() != 1) {
+      return null;
+    }
+    return pkt.star_updated.stars.get(0).id;
+  }
+
+  private static class Entry {
+    private Packet packet;
+    private int size;
+    @Nullable private final Long starId;
+
+    Entry(Packet packet, int size, @Nullable Long starId) {
+      this.packet = packet;
+      this.size = size;
+      this.starId = starId;
+    }
+  }
+}
@@ -1,12 +1,9 @@
 package au.com.codeka.warworlds.server.net;
 
-import au.com.codeka.warworlds.common.net.PacketDecoder;
 import au.com.codeka.warworlds.common.proto.Account;
 import au.com.codeka.warworlds.common.proto.Empire;
 import au.com.codeka.warworlds.common.proto.HelloPacket;
 import au.com.codeka.warworlds.server.world.WatchableObject;
-import java.io.OutputStream;
-import java.net.Socket;
 
 /**
  * Represents a pending connection, which is when you request /login but have not yet connected
@@ -24,19 +21,13 @@ public class PendingConnection {
   }
 
   /** Called when the user actually connects to the game socket, returns a {@link Connection}. */
-  public Connection connect(
-      HelloPacket helloPacket,
-      Socket socket,
-      PacketDecoder decoder,
-      OutputStream outs) {
+  public Connection connect(HelloPacket helloPacket, GameSocket socket) {
     Connection conn = new Connection(
         helloPacket,
         account,
         empire,
         encryptionKey,
-        socket,
-        decoder,
-        outs);
+        socket);
     conn.start();
     return conn;
   }
@@ -0,0 +1,109 @@
+package au.com.codeka.warworlds.server.net;
+
+import au.com.codeka.warworlds.common.Log;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A thread which runs a {@link Selector} over a bunch of {@link GameSocket}s, and does all of the
+ * actual reading and writing for them. We only have a handful of these, no matter how many clients
+ * are connected.
+ *
+ * <p>Anything that needs to touch the selector (registering a new socket, turning on write
+ * interest, closing a socket) is posted to the thread with {@link #execute} so that it's only ever
+ * touched from the one thread.
+ */
+class SelectorThread {
+  private static final Log log = new Log("SelectorThread");
+
+  private final Selector selector;
+  private final Thread thread;
+  private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+  private volatile boolean running;
+
+  SelectorThread(String name) throws IOException {
+    selector = Selector.open();
+    thread = new Thread(this::run, name);
+  }
+
+  void start() {
+    running = true;
+    thread.start();
+  }
+
+  /** Stops the thread, closing all of the sockets it owns. */
+  void stop() {
+    running = false;
+    selector.wakeup();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      // Ignore.
+    }
+  }
+
+  /** Starts reading from (and writing to) the given socket on this thread. */
+  void register(GameSocket socket) {
+    execute(() -> socket.onRegister(selector));
+  }
+
+  /** Runs the given {@link Runnable} on this thread, the next time around the select loop. */
+  void execute(Runnable runnable) {
+    tasks.add(runnable);
+    selector.wakeup();
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        selector.select();
+      } catch (IOException e) {
+        log.error("Error selecting.", e);
+        break;
+      }
+
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (RuntimeException e) {
+          log.error("Unexpected.", e);
+        }
+      }
+
+      Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+      while (it.hasNext()) {
+        SelectionKey key = it.next();
+        it.remove();
+
+        GameSocket socket = (GameSocket) key.attachment();
+        try {
+          if (key.isValid() && key.isReadable()) {
+            socket.onReadable();
+          }
+          if (key.isValid() && key.isWritable()) {
+            socket.onWritable();
+          }
+        } catch (RuntimeException e) {
+          // Don't let one bad client take down every other client on this thread.
+          log.error("Unexpected.", e);
+          socket.closeNow();
+        }
+      }
+    }
+
+    // Make sure everybody gets their onDisconnect.
+    for (SelectionKey key : new ArrayList<>(selector.keys())) {
+      ((GameSocket) key.attachment()).closeNow();
+    }
+    try {
+      selector.close();
+    } catch (IOException e) {
+      log.error("Error closing selector.", e);
+    }
+  }
+}
@@ -1,21 +1,28 @@
 package au.com.codeka.warworlds.server.net;
 
 import au.com.codeka.warworlds.common.Log;
-import au.com.codeka.warworlds.common.net.PacketDecoder;
+import au.com.codeka.warworlds.common.net.PacketFlags;
 import au.com.codeka.warworlds.common.proto.Account;
 import au.com.codeka.warworlds.common.proto.Empire;
 import au.com.codeka.warworlds.common.proto.Packet;
+import au.com.codeka.warworlds.server.Configuration;
 import au.com.codeka.warworlds.server.world.WatchableObject;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Manages the {@link ServerSocket} which is listening for clients to connect.
+ * Manages the {@link ServerSocketChannel} which is listening for clients to connect.
+ *
+ * <p>Accepted sockets are handed out round-robin to a small number of {@link SelectorThread}s,
+ * which do all of the reading and writing for them. See {@link GameSocket}.
  */
 public class ServerSocketManager {
   private static final Log log = new Log("ServerSocketManager");
@@ -27,21 +34,35 @@ public class ServerSocketManager {
    */
   private static final int CONNECTION_TIMEOUT_MS = 10000;
 
-  private ServerSocket serverSocket;
+  private ServerSocketChannel serverChannel;
   private Thread acceptThread;
+  private SelectorThread[] selectorThreads;
+  private int nextSelectorThread;
 
-  private final Map<Long, PendingConnection> pendingConnections = new TreeMap<>();
-  private final Map<Long, Connection> connections = new TreeMap<>();
+  private final Map<Long, PendingConnection> pendingConnections = new ConcurrentHashMap<>();
+  private final Map<Long, Connection> connections = new ConcurrentHashMap<>();
+  private final AtomicLong numSlowClientDisconnects = new AtomicLong();
 
   public boolean start() {
+    Configuration.GameSocketConfig config = Configuration.i.getGameSocket();
     try {
-      serverSocket = new ServerSocket(8081); // TODO: configurable
+      int numSelectorThreads = Math.max(1, config.getNumSelectorThreads());
+      selectorThreads = new SelectorThread[numSelectorThreads];
+      for (int i = 0; i < numSelectorThreads; i++) {
+        selectorThreads[i] = new SelectorThread("GameSocketSelector-" + i);
+        selectorThreads[i].start();
+      }
+
+      serverChannel = ServerSocketChannel.open();
+      serverChannel.bind(new InetSocketAddress(config.getPort()));
     } catch (IOException e) {
       log.error("Error starting socket server.", e);
       return false;
     }
+    log.info("Game socket listening on port %d with %d selector thread(s).",
+        config.getPort(), selectorThreads.length);
 
-    acceptThread = new Thread(this::acceptThreadProc);
+    acceptThread = new Thread(this::acceptThreadProc, "GameSocketAccept");
     acceptThread.start();
     return true;
   }
@@ -63,11 +84,11 @@ public class ServerSocketManager {
     log.info("Server socket stopping.");
 
     try {
-      serverSocket.close();
+      serverChannel.close();
     } catch (IOException e) {
       log.error("Error stopping socket server.", e);
     }
-    serverSocket = null;
+    serverChannel = null;
 
     try {
       acceptThread.join();
@@ -75,40 +96,58 @@ public class ServerSocketManager {
       // ignore
     }
     acceptThread = null;
-  }
 
-  /** Called when we get a new connection from a client. */
-  private void handleConnection(Socket socket) {
-    InputStream ins;
-    OutputStream outs;
-    try {
-      ins = socket.getInputStream();
-      outs = socket.getOutputStream();
-    } catch (IOException e) {
-      log.error("Error waiting for 'hello'.", e);
-      return;
+    for (SelectorThread selectorThread : selectorThreads) {
+      selectorThread.stop();
     }
+  }
+
+  /** Gets a snapshot of all the currently-connected clients. */
+  public List<Connection> getConnections() {
+    return new ArrayList<>(connections.values());
+  }
+
+  /** Gets the number of clients we've disconnected because their outbound queue filled up. */
+  public long getNumSlowClientDisconnects() {
+    return numSlowClientDisconnects.get();
+  }
+
+  /** Called by {@link GameSocket} when it disconnects a client that's not keeping up. */
+  void onSlowClientDisconnected() {
+    numSlowClientDisconnects.incrementAndGet();
+  }
 
-    new PacketDecoder(ins, new PendingConnectionPacketHandler(socket, outs));
+  /** Called by a {@link Connection} when the client disconnects. */
+  void onDisconnect(long empireId, Connection connection) {
+    connections.remove(empireId, connection);
+  }
+
+  /** Called when we get a new connection from a client. */
+  private void handleConnection(SocketChannel channel) throws IOException {
+    channel.configureBlocking(false);
+    channel.socket().setTcpNoDelay(true);
+
+    SelectorThread selectorThread = selectorThreads[nextSelectorThread];
+    nextSelectorThread = (nextSelectorThread + 1) % selectorThreads.length;
+
+    GameSocket socket = new GameSocket(
+        channel,
+        selectorThread,
+        new PendingConnectionPacketHandler(),
+        Configuration.i.getGameSocket().getMaxQueuedBytes());
+    selectorThread.register(socket);
   }
 
   /**
    * This class receives the first packet from a pending connection and then converts it to a
    * normal connection.
    */
-  private class PendingConnectionPacketHandler implements PacketDecoder.PacketHandler {
-    private final Socket socket;
-    private final OutputStream outs;
-
-    public PendingConnectionPacketHandler(Socket socket, OutputStream outs) {
-      this.socket = socket;
-      this.outs = outs;
-    }
-
+  private class PendingConnectionPacketHandler implements GameSocket.Listener {
     @Override
-    public void onPacket(PacketDecoder decoder, Packet pkt, int encodedSize) {
+    public void onPacket(GameSocket socket, Packet pkt, int encodedSize) {
       if (pkt.hello == null) {
         log.error("Expected 'hello' packet, but didn't get it.");
+        socket.close();
         return;
       }
 
@@ -116,14 +155,15 @@ public class ServerSocketManager {
       if (pendingConnection == null) {
         log.error("Got 'hello' packet, but no pending connection for empire #%d",
             pkt.hello.empire_id);
+        socket.close();
         return;
       }
 
-      log.info("GameSocket connection received for empire #%d %s",
-          pkt.hello.empire_id, pendingConnection.getEmpire().get().display_name);
-      connections.put(
-          pkt.hello.empire_id,
-          pendingConnection.connect(pkt.hello, socket, decoder, outs));
+      int compression = chooseCompression(pkt.hello.compression);
+      log.info("GameSocket connection received for empire #%d %s (compression=%d)",
+          pkt.hello.empire_id, pendingConnection.getEmpire().get().display_name, compression);
+      socket.setCompression(compression);
+      connections.put(pkt.hello.empire_id, pendingConnection.connect(pkt.hello, socket));
     }
 
     @Override
@@ -132,12 +172,28 @@ public class ServerSocketManager {
     }
   }
 
+  /**
+   * Chooses the compression to use for a client, given the list it sent us in its hello packet:
+   * the first one we support, or gzip if we don't support any of them.
+   */
+  private static int chooseCompression(List<Integer> supported) {
+    for (int compression : supported) {
+      if (compression == PacketFlags.DEFLATE || compression == PacketFlags.LZ) {
+        return compression;
+      }
+    }
+    return PacketFlags.COMPRESSED;
+  }
+
   private void acceptThreadProc() {
     while (true) {
       try {
-        Socket socket = serverSocket.accept();
-        log.debug("Socket accepted from %s", socket.getRemoteSocketAddress());
-        handleConnection(socket);
+        SocketChannel channel = serverChannel.accept();
+        log.debug("Socket accepted from %s", channel.getRemoteAddress());
+        handleConnection(channel);
+      } catch (ClosedChannelException e) {
+        // We're shutting down.
+        return;
       } catch (IOException e) {
         log.error("Error accepting connection.", e);
         return;
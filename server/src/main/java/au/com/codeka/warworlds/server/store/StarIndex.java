@@ -0,0 +1,160 @@
+package au.com.codeka.warworlds.server.store;
+
+import au.com.codeka.warworlds.server.world.SectorManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * An in-memory spatial index over the positions of all the stars in the {@link StarsStore}.
+ *
+ * <p>The index is a grid with one cell per sector. Each cell holds the IDs and offsets of the stars
+ * in that sector in flat arrays, so a query only has to look at the cells that overlap it. Stars
+ * never move, so once a star is in the index the only thing that can happen to it is that it gets
+ * deleted.
+ *
+ * <p>Positions are in "universe" pixels: {@code sector_x * SECTOR_SIZE + offset_x}, and likewise
+ * for y.
+ */
+class StarIndex {
+  private static final int SECTOR_SIZE = SectorManager.SECTOR_SIZE;
+
+  private final Map<Long, Cell> cells = new HashMap<>();
+
+  /** Adds the given star to the index, if it's not already there. */
+  synchronized void add(long id, long sectorX, long sectorY, int offsetX, int offsetY) {
+    long key = key(sectorX, sectorY);
+    Cell cell = cells.get(key);
+    if (cell == null) {
+      cell = new Cell();
+      cells.put(key, cell);
+    }
+    cell.add(id, offsetX, offsetY);
+  }
+
+  /**
+   * Removes the star with the given ID from the index. We don't know which sector it was in, so we
+   * have to look through all of them, but stars are deleted rarely enough that it doesn't matter.
+   */
+  synchronized void remove(long id) {
+    Iterator<Cell> it = cells.values().iterator();
+    while (it.hasNext()) {
+      Cell cell = it.next();
+      if (cell.remove(id)) {
+        if (cell.size == 0) {
+          it.remove();
+        }
+        return;
+      }
+    }
+  }
+
+  /** Returns true if there are any stars in the given sector. */
+  synchronized boolean hasStars(long sectorX, long sectorY) {
+    return cells.containsKey(key(sectorX, sectorY));
+  }
+
+  /**
+   * Finds all the stars in the given rectangle. The top-left corner is inclusive and the
+   * bottom-right corner is exclusive. Stars are returned sector by sector, left to right then top
+   * to bottom.
+   */
+  synchronized ArrayList<Long> findInRect(long left, long top, long right, long bottom) {
+    ArrayList<Long> ids = new ArrayList<>();
+    for (long sectorY = sectorOf(top); sectorY <= sectorOf(bottom - 1); sectorY++) {
+      for (long sectorX = sectorOf(left); sectorX <= sectorOf(right - 1); sectorX++) {
+        Cell cell = cells.get(key(sectorX, sectorY));
+        if (cell == null) {
+          continue;
+        }
+
+        long originX = sectorX * SECTOR_SIZE;
+        long originY = sectorY * SECTOR_SIZE;
+        for (int i = 0; i < cell.size; i++) {
+          long x = originX + cell.offsetX[i];
+          long y = originY + cell.offsetY[i];
+          if (x >= left && x < right && y >= top && y < bottom) {
+            ids.add(cell.ids[i]);
+          }
+        }
+      }
+    }
+    return ids;
+  }
+
+  /** Finds all the stars within the given radius of the given point. */
+  synchronized ArrayList<Long> findNear(long x, long y, double radius) {
+    ArrayList<Long> ids = new ArrayList<>();
+    long r = (long) Math.ceil(radius);
+    double radiusSq = radius * radius;
+    for (long sectorY = sectorOf(y - r); sectorY <= sectorOf(y + r); sectorY++) {
+      for (long sectorX = sectorOf(x - r); sectorX <= sectorOf(x + r); sectorX++) {
+        Cell cell = cells.get(key(sectorX, sectorY));
+        if (cell == null) {
+          continue;
+        }
+
+        long originX = sectorX * SECTOR_SIZE;
+        long originY = sectorY * SECTOR_SIZE;
+        for (int i = 0; i < cell.size; i++) {
+          double dx = originX + cell.offsetX[i] - x;
+          double dy = originY + cell.offsetY[i] - y;
+          if (dx * dx + dy * dy <= radiusSq) {
+            ids.add(cell.ids[i]);
+          }
+        }
+      }
+    }
+    return ids;
+  }
+
+  private static long sectorOf(long coord) {
+    return Math.floorDiv(coord, SECTOR_SIZE);
+  }
+
+  private static long key(long sectorX, long sectorY) {
+    return (sectorX << 32) | (sectorY & 0xffffffffL);
+  }
+
+  /** The stars in a single sector. */
+  private static class Cell {
+    private long[] ids = new long[16];
+    private int[] offsetX = new int[16];
+    private int[] offsetY = new int[16];
+    private int size;
+
+    private void add(long id, int x, int y) {
+      // A sector only has a few dozen stars, so a linear search is plenty fast.
+      for (int i = 0; i < size; i++) {
+        if (ids[i] == id) {
+          return;
+        }
+      }
+
+      if (size == ids.length) {
+        ids = Arrays.copyOf(ids, size * 2);
+        offsetX = Arrays.copyOf(offsetX, size * 2);
+        offsetY = Arrays.copyOf(offsetY, size * 2);
+      }
+      ids[size] = id;
+      offsetX[size] = x;
+      offsetY[size] = y;
+      size++;
+    }
+
+    private boolean remove(long id) {
+      for (int i = 0; i < size; i++) {
+        if (ids[i] == id) {
+          size--;
+          ids[i] = ids[size];
+          offsetX[i] = offsetX[size];
+          offsetY[i] = offsetY[size];
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
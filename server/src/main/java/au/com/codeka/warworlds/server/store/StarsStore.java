@@ -9,22 +9,97 @@ import au.com.codeka.warworlds.server.store.base.QueryResult;
 import au.com.codeka.warworlds.server.store.base.StoreWriter;
 import au.com.codeka.warworlds.server.store.base.Transaction;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import javax.annotation.Nullable;
 
 /**
  * A store for storing stars, including some extra indices for special queries that we can do.
+ *
+ * <p>Writes to the store are "write-behind": {@link #put} just queues the star up, and a
+ * dedicated writer thread flushes all queued stars in a single transaction every
+ * {@link #FLUSH_INTERVAL_MS} milliseconds (or sooner, if {@link #MAX_PENDING_WRITES} stars are
+ * queued). If the same star is updated multiple times before it's flushed, only the latest version
+ * is written. Reads check the queue first, so callers always see the latest version of a star.
+ *
+ * <p>We also keep a {@link StarIndex} of the position of every star in memory, which is updated as
+ * soon as a star is put (rather than when it's written), so that we can quickly find the stars in
+ * a given area without going to the database at all.
  */
 public class StarsStore extends BaseStore {
   private static final Log log = new Log("StarsStore");
 
+  /** The maximum amount of time a star will sit in the queue before we write it. */
+  private static final long FLUSH_INTERVAL_MS = 1000L;
+
+  /** If there's more than this many stars queued, we'll write them out immediately. */
+  private static final int MAX_PENDING_WRITES = 200;
+
+  /** Planets with a population congeniality above this will get a native colony. */
+  public static final int NATIVE_COLONY_MIN_CONGENIALITY = 500;
+
+  /** Stars that have been {@link #put} but not written to disk yet, keyed by ID. */
+  private final Map<Long, Star> pendingWrites = new LinkedHashMap<>();
+
+  /**
+   * Held while we're writing to the stars table, so that a {@link #delete} can't be undone by a
+   * flush of a star that was queued before it was deleted. {@link #getStarsForSector} also holds it
+   * while it merges the table with {@link #pendingWrites}, so that a flush can't happen halfway.
+   */
+  private final Object writeLock = new Object();
+
+  /** The position of every star in the store, including the ones that haven't been written yet. */
+  private final StarIndex index = new StarIndex();
+
+  @Nullable private Thread writerThread;
+  private volatile boolean running;
+
   StarsStore(String fileName) {
     super(fileName);
   }
 
+  @Override
+  public void open() throws StoreException {
+    super.open();
+    loadIndex();
+
+    running = true;
+    writerThread = new Thread(this::runWriter, "StarsStoreWriter");
+    writerThread.start();
+  }
+
+  @Override
+  public void close() throws StoreException {
+    running = false;
+    if (writerThread != null) {
+      synchronized (pendingWrites) {
+        pendingWrites.notify();
+      }
+      try {
+        writerThread.join();
+      } catch (InterruptedException e) {
+        // Ignore.
+      }
+      writerThread = null;
+    }
+
+    // Make sure everything is written before we close.
+    flush();
+    super.close();
+  }
+
   @Nullable
   public Star get(long id) {
+    synchronized (pendingWrites) {
+      Star star = pendingWrites.get(id);
+      if (star != null) {
+        return star;
+      }
+    }
+
     try (QueryResult res =
              newReader().stmt("SELECT star FROM stars WHERE id = ?").param(0, id).query()) {
       if (res.next()) {
@@ -36,7 +111,86 @@ public class StarsStore extends BaseStore {
     return null;
   }
 
+  /** Queues the given star to be written to the store. */
   public void put(long id, Star star) {
+    index.add(id, star.sector_x, star.sector_y, star.offset_x, star.offset_y);
+    synchronized (pendingWrites) {
+      pendingWrites.put(id, star);
+      if (pendingWrites.size() >= MAX_PENDING_WRITES) {
+        pendingWrites.notify();
+      }
+    }
+  }
+
+  /**
+   * Writes all of the queued stars to the store in a single transaction.
+   *
+   * @return true if the stars were written (or there was nothing to write), false if there was an
+   *     error. If there was an error the stars stay queued and we'll try them again next time.
+   */
+  public boolean flush() {
+    synchronized (writeLock) {
+      ArrayList<Star> stars;
+      synchronized (pendingWrites) {
+        if (pendingWrites.isEmpty()) {
+          return true;
+        }
+        stars = new ArrayList<>(pendingWrites.values());
+      }
+
+      long startTime = System.nanoTime();
+      try (Transaction trans = newTransaction()) {
+        StoreWriter starWriter = newWriter(trans)
+            .stmt("INSERT OR REPLACE INTO stars (id, sector_x, sector_y, offset_x, offset_y, next_simulation, time_emptied, star) VALUES (?, ?, ?, ?, ?, ?, ?, ?)");
+        StoreWriter deleteEmpiresWriter = newWriter(trans)
+            .stmt("DELETE FROM star_empires WHERE star_id = ?");
+        StoreWriter insertEmpireWriter = newWriter(trans)
+            .stmt("INSERT INTO star_empires (empire_id, star_id) VALUES (?, ?)");
+
+        for (Star star : stars) {
+          starWriter
+              .param(0, star.id)
+              .param(1, star.sector_x)
+              .param(2, star.sector_y)
+              .param(3, star.offset_x)
+              .param(4, star.offset_y)
+              .param(5, star.next_simulation)
+              .param(6, getTimeEmptied(star))
+              .param(7, star.encode())
+              .execute();
+
+          deleteEmpiresWriter
+              .param(0, star.id)
+              .execute();
+
+          insertEmpireWriter.param(1, star.id);
+          for (Long empireId : getEmpireIds(star)) {
+            insertEmpireWriter.param(0, empireId)
+                .execute();
+          }
+        }
+
+        trans.commit();
+      } catch (Exception e) {
+        log.error("Error writing %d stars, will try again.", stars.size(), e);
+        return false;
+      }
+
+      // Now that they're written, we can remove them from the queue. Unless they've been updated
+      // again in the meantime, in which case we'll write the new version next time.
+      synchronized (pendingWrites) {
+        for (Star star : stars) {
+          if (pendingWrites.get(star.id) == star) {
+            pendingWrites.remove(star.id);
+          }
+        }
+      }
+      log.debug("Wrote %d stars in %.2fms", stars.size(), (System.nanoTime() - startTime) / 1000000.0);
+      return true;
+    }
+  }
+
+  private static Set<Long> getEmpireIds(Star star) {
     Set<Long> empireIds = new HashSet<>();
     for (Fleet fleet : star.fleets) {
       if (fleet.empire_id != null) {
@@ -48,87 +202,207 @@ public class StarsStore extends BaseStore {
         empireIds.add(planet.colony.empire_id);
       }
     }
+    return empireIds;
+  }
 
-    try(Transaction trans = newTransaction()) {
-      newWriter(trans)
-          .stmt("INSERT OR REPLACE INTO stars (id, sector_x, sector_y, next_simulation, star) VALUES (?, ?, ?, ?, ?)")
-          .param(0, id)
-          .param(1, star.sector_x)
-          .param(2, star.sector_y)
-          .param(3, star.next_simulation)
-          .param(4, star.encode())
-          .execute();
-
-      newWriter(trans)
-          .stmt("DELETE FROM star_empires WHERE star_id = ?")
-          .param(0, id)
-          .execute();
+  /**
+   * Gets the value of the time_emptied column for the given star. This is only set for stars that
+   * could get a native colony: ones with no colonies or fleets, and at least one planet with a
+   * population congeniality above {@link #NATIVE_COLONY_MIN_CONGENIALITY}. For those, it's the
+   * time the star was emptied, or zero if nobody has ever been there.
+   */
+  @Nullable
+  private static Long getTimeEmptied(Star star) {
+    if (!star.fleets.isEmpty()) {
+      return null;
+    }
+    boolean hasEligiblePlanet = false;
+    for (Planet planet : star.planets) {
+      if (planet.colony != null) {
+        return null;
+      }
+      if (planet.population_congeniality != null
+          && planet.population_congeniality > NATIVE_COLONY_MIN_CONGENIALITY) {
+        hasEligiblePlanet = true;
+      }
+    }
+    if (!hasEligiblePlanet) {
+      return null;
+    }
+    return star.time_emptied == null ? 0L : star.time_emptied;
+  }
 
-      StoreWriter writer = newWriter(trans)
-          .stmt("INSERT INTO star_empires (empire_id, star_id) VALUES (?, ?)")
-          .param(1, id);
-      for (Long empireId : empireIds) {
-        writer.param(0, empireId)
-            .execute();
+  private void runWriter() {
+    while (running) {
+      try {
+        synchronized (pendingWrites) {
+          if (running && pendingWrites.size() < MAX_PENDING_WRITES) {
+            pendingWrites.wait(FLUSH_INTERVAL_MS);
+          }
+        }
+      } catch (InterruptedException e) {
+        // Ignore.
       }
 
-      trans.commit();
-    } catch (Exception e) {
-      log.error("Unexpected.", e);
+      if (!flush()) {
+        // Back off for a bit so we don't spin if the error keeps happening.
+        try {
+          Thread.sleep(FLUSH_INTERVAL_MS);
+        } catch (InterruptedException e) {
+          // Ignore.
+        }
+      }
     }
   }
 
   public void delete(long id) {
-    try (Transaction trans = newTransaction()) {
-      newWriter(trans)
-          .stmt("DELETE FROM star_empires WHERE star_id = ?")
-          .param(0, id)
-          .execute();
+    synchronized (writeLock) {
+      synchronized (pendingWrites) {
+        pendingWrites.remove(id);
+      }
+      index.remove(id);
 
-      newWriter(trans)
-          .stmt("DELETE FROM stars WHERE id = ?")
-          .param(0, id)
-          .execute();
+      try (Transaction trans = newTransaction()) {
+        newWriter(trans)
+            .stmt("DELETE FROM star_empires WHERE star_id = ?")
+            .param(0, id)
+            .execute();
 
-      trans.commit();
-    } catch (Exception e) {
-      log.error("Unexpected.", e);
+        newWriter(trans)
+            .stmt("DELETE FROM stars WHERE id = ?")
+            .param(0, id)
+            .execute();
+
+        trans.commit();
+      } catch (Exception e) {
+        log.error("Unexpected.", e);
+      }
     }
   }
 
-  @Nullable
-  public Star nextStarForSimulate() {
+  /**
+   * Gets the next_simulation time of every star that needs simulating, keyed by star ID. We only
+   * read the indexed column here, so this doesn't need to decode any of the star blobs.
+   */
+  public Map<Long, Long> getNextSimulationTimes() {
     try (
         QueryResult res = newReader()
-            .stmt("SELECT star FROM stars WHERE next_simulation IS NOT NULL ORDER BY next_simulation ASC")
+            .stmt("SELECT id, next_simulation FROM stars WHERE next_simulation IS NOT NULL")
             .query()) {
-      if (res.next()) {
-        return Star.ADAPTER.decode(res.getBytes(0));
+      Map<Long, Long> times = new HashMap<>();
+      while (res.next()) {
+        times.put(res.getLong(0), res.getLong(1));
       }
+      return times;
     } catch (Exception e) {
       log.error("Unexpected.", e);
+      return new HashMap<>();
     }
-    return null;
   }
 
-  public ArrayList<Star> getStarsForSector(long sectorX, long sectorY) {
-    try (QueryResult res = newReader()
-        .stmt("SELECT star FROM stars WHERE sector_x = ? AND sector_y = ?")
-        .param(0, sectorX)
-        .param(1, sectorY)
-        .query()) {
-      ArrayList<Star> stars = new ArrayList<>();
+  /**
+   * Gets the IDs of the stars that could get a native colony and were emptied before the given
+   * time (including the ones that have never had anybody on them). Stars can change at any time,
+   * so some of these might have been colonized since: callers should check the star itself before
+   * doing anything with it.
+   *
+   * @param time Only return stars emptied before this time.
+   * @param limit The maximum number of stars to return, the ones emptied longest ago first.
+   */
+  public ArrayList<Long> getStarsEmptiedBefore(long time, int limit) {
+    // The time_emptied index is only updated when stars are written, so make sure any queued stars
+    // are written first.
+    flush();
+
+    try (
+        QueryResult res = newReader()
+            .stmt("SELECT id FROM stars WHERE time_emptied < ? ORDER BY time_emptied LIMIT ?")
+            .param(0, time)
+            .param(1, limit)
+            .query()) {
+      ArrayList<Long> ids = new ArrayList<>();
       while (res.next()) {
-        stars.add(Star.ADAPTER.decode(res.getBytes(0)));
+        ids.add(res.getLong(0));
       }
-      return stars;
+      return ids;
     } catch (Exception e) {
       log.error("Unexpected.", e);
-      return null;
+      return new ArrayList<>();
+    }
+  }
+
+  /** Returns true if there are any stars in the given sector. This doesn't touch the database. */
+  public boolean hasStarsInSector(long sectorX, long sectorY) {
+    return index.hasStars(sectorX, sectorY);
+  }
+
+  /**
+   * Gets the IDs of all the stars in the given rectangle, in universe pixels (that is,
+   * {@code sector_x * SECTOR_SIZE + offset_x}, and likewise for y). The top-left corner is
+   * inclusive and the bottom-right corner exclusive. This doesn't touch the database.
+   */
+  public ArrayList<Long> findStarsInRect(long left, long top, long right, long bottom) {
+    return index.findInRect(left, top, right, bottom);
+  }
+
+  /**
+   * Gets the IDs of all the stars within the given radius of the given point, in universe pixels.
+   * This doesn't touch the database.
+   */
+  public ArrayList<Long> findStarsNear(long x, long y, double radius) {
+    return index.findNear(x, y, radius);
+  }
+
+  public ArrayList<Star> getStarsForSector(long sectorX, long sectorY) {
+    if (!index.hasStars(sectorX, sectorY)) {
+      return new ArrayList<>();
+    }
+
+    // Hold the write lock so that a flush can't write (and stop queueing) stars between reading
+    // the table and checking what's queued. Otherwise we could miss a new star entirely, or return
+    // the old version of one that was updated.
+    synchronized (writeLock) {
+      try (QueryResult res = newReader()
+          .stmt("SELECT star FROM stars WHERE sector_x = ? AND sector_y = ?")
+          .param(0, sectorX)
+          .param(1, sectorY)
+          .query()) {
+        ArrayList<Star> stars = new ArrayList<>();
+        while (res.next()) {
+          stars.add(Star.ADAPTER.decode(res.getBytes(0)));
+        }
+
+        // Replace any stars that have newer versions waiting to be written, and add any that are
+        // brand new and haven't been written at all yet.
+        synchronized (pendingWrites) {
+          Set<Long> ids = new HashSet<>();
+          for (int i = 0; i < stars.size(); i++) {
+            ids.add(stars.get(i).id);
+            Star pending = pendingWrites.get(stars.get(i).id);
+            if (pending != null) {
+              stars.set(i, pending);
+            }
+          }
+          for (Star pending : pendingWrites.values()) {
+            if (pending.sector_x == sectorX && pending.sector_y == sectorY
+                && !ids.contains(pending.id)) {
+              stars.add(pending);
+            }
+          }
+        }
+        return stars;
+      } catch (Exception e) {
+        log.error("Unexpected.", e);
+        return null;
+      }
     }
   }
 
   public ArrayList<Long> getStarsForEmpire(long empireId) {
+    // The star_empires index is only updated when stars are written, so make sure any queued
+    // stars are written first.
+    flush();
+
     try (
         QueryResult res = newReader()
             .stmt("SELECT star_id FROM star_empires WHERE empire_id = ?")
@@ -174,7 +448,109 @@ public class StarsStore extends BaseStore {
 
       diskVersion++;
     }
+    if (diskVersion == 1) {
+      newWriter()
+          .stmt("ALTER TABLE stars ADD COLUMN offset_x INTEGER")
+          .execute();
+      newWriter()
+          .stmt("ALTER TABLE stars ADD COLUMN offset_y INTEGER")
+          .execute();
+      updateAllOffsets();
+
+      diskVersion++;
+    }
+    if (diskVersion == 2) {
+      newWriter()
+          .stmt("ALTER TABLE stars ADD COLUMN time_emptied INTEGER")
+          .execute();
+      newWriter()
+          .stmt("CREATE INDEX IX_stars_time_emptied ON stars (time_emptied)")
+          .execute();
+      updateAllTimeEmptied();
+
+      diskVersion++;
+    }
 
     return diskVersion;
   }
+
+  /** Called by {@link #onOpen} to fill in the offset columns of all the existing stars. */
+  private void updateAllOffsets() throws StoreException {
+    // Read everything first, so we're not holding a query open while we write.
+    ArrayList<Star> stars = new ArrayList<>();
+    try (QueryResult res = newReader().stmt("SELECT star FROM stars").query()) {
+      while (res.next()) {
+        Star star = Star.ADAPTER.decode(res.getBytes(0));
+        stars.add(new Star.Builder().id(star.id).offset_x(star.offset_x).offset_y(star.offset_y)
+            .build());
+      }
+    } catch (Exception e) {
+      throw new StoreException(e);
+    }
+
+    try (Transaction trans = newTransaction()) {
+      StoreWriter writer = newWriter(trans)
+          .stmt("UPDATE stars SET offset_x = ?, offset_y = ? WHERE id = ?");
+      for (Star star : stars) {
+        writer
+            .param(0, star.offset_x)
+            .param(1, star.offset_y)
+            .param(2, star.id)
+            .execute();
+      }
+      trans.commit();
+    } catch (Exception e) {
+      throw new StoreException(e);
+    }
+  }
+
+  /** Called by {@link #onOpen} to fill in the time_emptied column of all the existing stars. */
+  private void updateAllTimeEmptied() throws StoreException {
+    // Read everything first, so we're not holding a query open while we write.
+    Map<Long, Long> timesEmptied = new HashMap<>();
+    try (QueryResult res = newReader().stmt("SELECT star FROM stars").query()) {
+      while (res.next()) {
+        Star star = Star.ADAPTER.decode(res.getBytes(0));
+        Long timeEmptied = getTimeEmptied(star);
+        if (timeEmptied != null) {
+          timesEmptied.put(star.id, timeEmptied);
+        }
+      }
+    } catch (Exception e) {
+      throw new StoreException(e);
+    }
+
+    try (Transaction trans = newTransaction()) {
+      StoreWriter writer = newWriter(trans)
+          .stmt("UPDATE stars SET time_emptied = ? WHERE id = ?");
+      for (Map.Entry<Long, Long> entry : timesEmptied.entrySet()) {
+        writer
+            .param(0, entry.getValue())
+            .param(1, entry.getKey())
+            .execute();
+      }
+      trans.commit();
+    } catch (Exception e) {
+      throw new StoreException(e);
+    }
+  }
+
+  /** Called by {@link #open} to build the {@link StarIndex} from the stars that are on disk. */
+  private void loadIndex() throws StoreException {
+    long startTime = System.nanoTime();
+    int numStars = 0;
+    try (
+        QueryResult res = newReader()
+            .stmt("SELECT id, sector_x, sector_y, offset_x, offset_y FROM stars")
+            .query()) {
+      while (res.next()) {
+        index.add(res.getLong(0), res.getLong(1), res.getLong(2), res.getInt(3), res.getInt(4));
+        numStars++;
+      }
+    } catch (Exception e) {
+      throw new StoreException(e);
+    }
+    log.info("Loaded %d stars into the index in %.2fms", numStars,
+        (System.nanoTime() - startTime) / 1000000.0);
+  }
 }
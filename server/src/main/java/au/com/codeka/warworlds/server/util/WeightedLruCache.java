@@ -0,0 +1,356 @@
+package au.com.codeka.warworlds.server.util;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.Nullable;
+
+/**
+ * A least-recently-used cache that's bounded by the total "weight" of the values in it, rather
+ * than by the number of entries. When the total weight goes over the maximum, the least-recently
+ * used entries are evicted until it's back under.
+ *
+ * <p>Entries can also be "pinned", in which case they'll never be evicted. They still count towards
+ * the total weight, we just skip over them when looking for something to evict. Whether an entry
+ * is pinned is checked at eviction time, so it can change over the life of the entry.
+ *
+ * <p>Evicting a value doesn't stop whoever got it from us from using it. So that there's never more
+ * than one copy of a value around at a time (for example, two copies of a star, each with its own
+ * lock), we keep a weak reference to evicted values. If one is asked for again while something
+ * still has hold of it, we put that same instance back in the cache rather than loading a new one.
+ * Once nothing is using it, it's garbage collected and the next request loads it again as normal.
+ *
+ * <p>The cache is safe to use from multiple threads. Lookups of values that are already in the
+ * cache don't take any locks. {@link #get(Object, Loader)} will load missing values, making sure
+ * that only one thread loads any given key, while different keys can be loaded in parallel.
+ */
+public class WeightedLruCache<K, V> {
+  /** Decides the weight of values in the cache, and whether they're pinned. */
+  public interface Policy<V> {
+    /** Gets the weight of the given value. Must be >= 0. */
+    int getWeight(V value);
+
+    /**
+     * Returns true if the given value must not be evicted right now. This is called while we hold
+     * the cache's eviction lock, which other threads can be waiting for while holding their own
+     * locks, so it mustn't take any locks itself.
+     */
+    boolean isPinned(V value);
+  }
+
+  /** Loads values that aren't in the cache. */
+  public interface Loader<K, V> {
+    /** Load the value with the given key, or return null if there's no such value. */
+    @Nullable
+    V load(K key);
+  }
+
+  /**
+   * When we evict, we evict down to this fraction of the maximum weight, so that we're not
+   * evicting (which means scanning the whole cache) on every put once the cache is full.
+   */
+  private static final double EVICT_TO_FRACTION = 0.9;
+
+  /**
+   * When an eviction can't get us back under the maximum weight (because too much of the cache is
+   * pinned), we don't try again until the total weight has grown by this fraction of the maximum.
+   * Otherwise every put would scan the whole cache, just to find there's still nothing to evict.
+   */
+  private static final double EVICT_RETRY_FRACTION = 0.1;
+
+  private final Policy<V> policy;
+  private final long maxWeight;
+  private final ConcurrentHashMap<K, Entry<V>> entries = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<K, CompletableFuture<V>> loading = new ConcurrentHashMap<>();
+  private final AtomicLong totalWeight = new AtomicLong();
+  private final Object evictionLock = new Object();
+
+  /** We don't try to evict anything until the total weight is over this, see {@link #evict}. */
+  private volatile long evictionWeight;
+
+  /** Values that we've evicted, but which might still be in use. See the class comment. */
+  private final ConcurrentHashMap<K, EvictedRef<K, V>> evicted = new ConcurrentHashMap<>();
+  private final ReferenceQueue<V> evictedQueue = new ReferenceQueue<>();
+
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public WeightedLruCache(Policy<V> policy, long maxWeight) {
+    this.policy = policy;
+    this.maxWeight = maxWeight;
+    this.evictionWeight = maxWeight;
+  }
+
+  /** Gets the value with the given key, or null if it's not in the cache. */
+  @Nullable
+  public V get(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    entry.touch();
+    return entry.value;
+  }
+
+  /**
+   * Gets the value with the given key, loading it with the given {@link Loader} if it's not
+   * already in the cache. If another thread is already loading the same key, we'll wait for it
+   * rather than loading it again.
+   *
+   * @return The value, or null if it's not in the cache and the loader couldn't load it.
+   */
+  @Nullable
+  public V get(K key, Loader<K, V> loader) {
+    V value = get(key);
+    if (value != null) {
+      return value;
+    }
+
+    CompletableFuture<V> future = new CompletableFuture<>();
+    CompletableFuture<V> existing = loading.putIfAbsent(key, future);
+    if (existing != null) {
+      return existing.join();
+    }
+
+    try {
+      // Check again, it could have been loaded by another thread between when we checked and when
+      // we put our future in.
+      Entry<V> entry = entries.get(key);
+      if (entry != null) {
+        value = entry.value;
+      } else {
+        EvictedRef<K, V> ref = evicted.get(key);
+        value = (ref == null ? null : ref.get());
+        if (value == null) {
+          value = loader.load(key);
+        }
+        if (value != null) {
+          put(key, value);
+        }
+        if (ref != null) {
+          // Only remove the reference once the value's back in entries, so that peek can always
+          // see it.
+          evicted.remove(key, ref);
+        }
+      }
+      future.complete(value);
+      return value;
+    } catch (RuntimeException e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      loading.remove(key, future);
+    }
+  }
+
+  /**
+   * Gets the value with the given key, or null if it's not in the cache. Unlike {@link #get}, this
+   * doesn't affect the hit/miss counters, so it's useful for internal bookkeeping. This includes
+   * values that have been evicted but are still in use, since changes made to those should be made
+   * to the same instance that {@link #get(Object, Loader)} will return.
+   */
+  @Nullable
+  public V peek(K key) {
+    Entry<V> entry = entries.get(key);
+    if (entry != null) {
+      return entry.value;
+    }
+    EvictedRef<K, V> ref = evicted.get(key);
+    return ref == null ? null : ref.get();
+  }
+
+  /** Adds the given value to the cache, replacing any value already there with the same key. */
+  public void put(K key, V value) {
+    Entry<V> entry = new Entry<>(value, policy.getWeight(value));
+    totalWeight.addAndGet(entry.weight);
+    Entry<V> old = entries.put(key, entry);
+    if (old != null) {
+      old.release(totalWeight);
+    }
+    evict(key);
+  }
+
+  /**
+   * Recalculates the weight of the given value, which must be the value that's currently cached
+   * under the given key. If it's not (e.g. because it's already been evicted) then nothing
+   * happens.
+   */
+  public void reweigh(K key, V value) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null || entry.value != value) {
+      return;
+    }
+    entry.setWeight(policy.getWeight(value), totalWeight);
+    evict(key);
+  }
+
+  /** Removes the value with the given key from the cache. */
+  public void remove(K key) {
+    evicted.remove(key);
+    Entry<V> entry = entries.remove(key);
+    if (entry != null) {
+      entry.release(totalWeight);
+    }
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getTotalWeight() {
+    return totalWeight.get();
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * If we're over the maximum weight, evicts least-recently-used entries until we're back down to
+   * {@link #EVICT_TO_FRACTION} of it.
+   *
+   * <p>If we can't get under the maximum weight, because too much of the cache is pinned, we don't
+   * try again until the total weight has grown by {@link #EVICT_RETRY_FRACTION} of the maximum.
+   *
+   * @param keep The key of an entry that we've just added or updated. We never evict it, because
+   *     the caller is about to use it.
+   */
+  private void evict(K keep) {
+    long weight = totalWeight.get();
+    if (weight <= maxWeight) {
+      if (evictionWeight != maxWeight) {
+        // We're back under the maximum (e.g. things were removed), so stop backing off.
+        evictionWeight = maxWeight;
+      }
+      return;
+    }
+    if (weight <= evictionWeight) {
+      return;
+    }
+
+    synchronized (evictionLock) {
+      if (totalWeight.get() <= evictionWeight) {
+        // Someone else evicted while we were waiting for the lock.
+        return;
+      }
+      expungeEvictedRefs();
+
+      // Snapshot the access times, since they can change while we're sorting.
+      ArrayList<Candidate<K, V>> candidates = new ArrayList<>();
+      for (Map.Entry<K, Entry<V>> entry : entries.entrySet()) {
+        if (entry.getKey().equals(keep) || policy.isPinned(entry.getValue().value)) {
+          continue;
+        }
+        candidates.add(new Candidate<>(entry.getKey(), entry.getValue()));
+      }
+      candidates.sort(Comparator.comparingLong(candidate -> candidate.lastAccessTime));
+
+      long targetWeight = (long) (maxWeight * EVICT_TO_FRACTION);
+      for (Candidate<K, V> candidate : candidates) {
+        if (totalWeight.get() <= targetWeight) {
+          break;
+        }
+        // Add the weak reference before we remove the entry, so that there's no gap where the
+        // value can't be found at all (and a get would load a second copy).
+        EvictedRef<K, V> ref = new EvictedRef<>(candidate.key, candidate.entry.value, evictedQueue);
+        evicted.put(candidate.key, ref);
+        if (entries.remove(candidate.key, candidate.entry)) {
+          candidate.entry.release(totalWeight);
+          evictions.increment();
+        } else {
+          evicted.remove(candidate.key, ref);
+        }
+      }
+
+      weight = totalWeight.get();
+      if (weight > maxWeight) {
+        evictionWeight = weight + (long) (maxWeight * EVICT_RETRY_FRACTION);
+      } else {
+        evictionWeight = maxWeight;
+      }
+    }
+  }
+
+  /** Forget about any evicted values that have been garbage collected. */
+  private void expungeEvictedRefs() {
+    Object ref;
+    while ((ref = evictedQueue.poll()) != null) {
+      @SuppressWarnings("unchecked")
+      EvictedRef<K, V> evictedRef = (EvictedRef<K, V>) ref;
+      evicted.remove(evictedRef.key, evictedRef);
+    }
+  }
+
+  private static class EvictedRef<K, V> extends WeakReference<V> {
+    private final K key;
+
+    EvictedRef(K key, V value, ReferenceQueue<V> queue) {
+      super(value, queue);
+      this.key = key;
+    }
+  }
+
+  private static class Candidate<K, V> {
+    private final K key;
+    private final Entry<V> entry;
+    private final long lastAccessTime;
+
+    Candidate(K key, Entry<V> entry) {
+      this.key = key;
+      this.entry = entry;
+      this.lastAccessTime = entry.lastAccessTime;
+    }
+  }
+
+  private static class Entry<V> {
+    private final V value;
+    private int weight;
+    private boolean released;
+    private volatile long lastAccessTime;
+
+    Entry(V value, int weight) {
+      this.value = value;
+      this.weight = weight;
+      this.lastAccessTime = System.nanoTime();
+    }
+
+    void touch() {
+      lastAccessTime = System.nanoTime();
+    }
+
+    /** Update this entry's weight, and adjust the total weight to match. */
+    synchronized void setWeight(int weight, AtomicLong totalWeight) {
+      if (released) {
+        return;
+      }
+      totalWeight.addAndGet(weight - this.weight);
+      this.weight = weight;
+      touch();
+    }
+
+    /** Called when this entry is removed from the cache, to remove its weight from the total. */
+    synchronized void release(AtomicLong totalWeight) {
+      if (!released) {
+        released = true;
+        totalWeight.addAndGet(-weight);
+      }
+    }
+  }
+}
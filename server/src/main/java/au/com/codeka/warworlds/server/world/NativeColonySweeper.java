@@ -0,0 +1,133 @@
+package au.com.codeka.warworlds.server.world;
+
+import au.com.codeka.warworlds.common.Log;
+import au.com.codeka.warworlds.common.Time;
+import au.com.codeka.warworlds.common.proto.Planet;
+import au.com.codeka.warworlds.common.proto.Star;
+import au.com.codeka.warworlds.server.store.DataStore;
+import au.com.codeka.warworlds.server.store.StarsStore;
+import java.util.ArrayList;
+
+/**
+ * Periodically looks for stars which are eligible for a native colony and gives them one.
+ *
+ * <p>A star is eligible if it has no colonies or fleets, at least one planet with a high enough
+ * population congeniality, and it was emptied more than {@link #EMPTY_TIME} ago (or has never had
+ * anybody on it at all). The {@link StarsStore} indexes the time_emptied of just those stars, so
+ * each sweep only has to look at the stars that are actually due.
+ */
+public class NativeColonySweeper {
+  public static final NativeColonySweeper i = new NativeColonySweeper();
+  private static final Log log = new Log("NativeColonySweeper");
+
+  /** How long a star has to be empty before it gets a native colony again. */
+  private static final long EMPTY_TIME = 3 * Time.DAY;
+
+  /** How long we wait between sweeps. */
+  private static final long SWEEP_INTERVAL_MS = Time.MINUTE;
+
+  /**
+   * The most stars we'll look at in one sweep, so that a big backlog (say, the first sweep over a
+   * brand new universe) is spread out over a few sweeps.
+   */
+  private static final int MAX_STARS_PER_SWEEP = 1000;
+
+  private final Thread thread;
+  private final Object pinger = new Object();
+  private volatile boolean running;
+
+  private NativeColonySweeper() {
+    thread = new Thread(this::run, "NativeColonySweeper");
+  }
+
+  public void start() {
+    running = true;
+    thread.start();
+  }
+
+  public void stop() {
+    running = false;
+    ping();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      // Ignore.
+    }
+  }
+
+  /** Wake up the sweeper and sweep straight away, for example because we just made new stars. */
+  public void ping() {
+    synchronized (pinger) {
+      pinger.notify();
+    }
+  }
+
+  private void run() {
+    log.info("Native colony sweeper starting up.");
+    while (running) {
+      try {
+        sweep();
+      } catch (Exception e) {
+        log.error("Unexpected.", e);
+      }
+
+      try {
+        synchronized (pinger) {
+          if (running) {
+            pinger.wait(SWEEP_INTERVAL_MS);
+          }
+        }
+      } catch (InterruptedException e) {
+        // Ignore.
+      }
+    }
+  }
+
+  private void sweep() {
+    long now = System.currentTimeMillis();
+    ArrayList<Long> starIds =
+        DataStore.i.stars().getStarsEmptiedBefore(now - EMPTY_TIME, MAX_STARS_PER_SWEEP);
+    if (starIds.isEmpty()) {
+      return;
+    }
+
+    int numAdded = 0;
+    for (Long id : starIds) {
+      WatchableObject<Star> star = StarManager.i.getStar(id);
+      // The store's index might be a little behind, so check the star itself before we do it.
+      if (star != null && isEligible(star.get(), now)) {
+        StarManager.i.addNativeColonies(id);
+        numAdded++;
+      }
+    }
+    log.info("Added native colonies to %d of %d candidate stars in %dms.", numAdded,
+        starIds.size(), System.currentTimeMillis() - now);
+  }
+
+  private static boolean isEligible(Star star, long now) {
+    // If there's any fleets on it, it's not eligible.
+    if (star.fleets.size() > 0) {
+      return false;
+    }
+
+    // If there's any colonies, it's also not eligible.
+    for (Planet planet : star.planets) {
+      if (planet.colony != null) {
+        return false;
+      }
+    }
+
+    // If it was emptied too recently, it's not eligible.
+    if (star.time_emptied != null && (now - star.time_emptied) < EMPTY_TIME) {
+      return false;
+    }
+
+    // If there's no planets with a high enough population congeniality, it's not eligible.
+    for (Planet planet : star.planets) {
+      if (planet.population_congeniality > StarsStore.NATIVE_COLONY_MIN_CONGENIALITY) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
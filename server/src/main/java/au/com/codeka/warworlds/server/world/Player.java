@@ -12,11 +12,9 @@ import au.com.codeka.warworlds.common.proto.HelloPacket;
 import au.com.codeka.warworlds.common.proto.ModifyStarPacket;
 import au.com.codeka.warworlds.common.proto.Packet;
 import au.com.codeka.warworlds.common.proto.RequestEmpirePacket;
-import au.com.codeka.warworlds.common.proto.Sector;
-import au.com.codeka.warworlds.common.proto.SectorCoord;
+import au.com.codeka.warworlds.common.proto.RequestStarsPacket;
 import au.com.codeka.warworlds.common.proto.Star;
 import au.com.codeka.warworlds.common.proto.StarModification;
-import au.com.codeka.warworlds.common.proto.StarUpdatedPacket;
 import au.com.codeka.warworlds.common.proto.WatchSectorsPacket;
 import au.com.codeka.warworlds.common.sim.SuspiciousModificationException;
 import au.com.codeka.warworlds.server.concurrency.TaskRunner;
@@ -24,12 +22,13 @@ import au.com.codeka.warworlds.server.concurrency.Threads;
 import au.com.codeka.warworlds.server.net.Connection;
 import au.com.codeka.warworlds.server.world.chat.ChatManager;
 import au.com.codeka.warworlds.server.world.chat.Participant;
-import com.google.common.collect.Lists;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /** Represents a currently-connected player. */
 public class Player {
@@ -41,12 +40,24 @@ public class Player {
   /** The {@link Empire} this player belongs to. */
   private final WatchableObject<Empire> empire;
 
-  /** The list of {@link Sector}s this player is currently watching. */
-  private final ArrayList<WatchableObject<Sector>> sectors = new ArrayList<>();
+  /**
+   * The bounds of the sectors we're currently watching, or null if we haven't been asked to watch
+   * any yet. Guarded by {@link #stars}.
+   */
+  @Nullable private WatchSectorsPacket watchedSectors;
 
   /** The {@link Star}s that we are currently watching. */
   private final Map<Long, WatchableObject<Star>> stars = new HashMap<>();
 
+  /**
+   * Set once the client has disconnected, so that we don't start watching any more stars. Guarded
+   * by {@link #stars}.
+   */
+  private boolean disconnected;
+
+  /** Batches up updates to the stars we're watching, so we don't send them one at a time. */
+  private final StarUpdateBatcher starUpdateBatcher;
+
   /** The {@link WatchableObject.Watcher} which we'll be watching stars with. */
   private final WatchableObject.Watcher<Star> starWatcher;
 
@@ -57,13 +68,8 @@ public class Player {
     this.connection = checkNotNull(connection);
     this.empire = checkNotNull(empire);
 
-    starWatcher = star -> {
-      connection.send(new Packet.Builder()
-          .star_updated(new StarUpdatedPacket.Builder()
-              .stars(Lists.newArrayList(star.get()))
-              .build())
-          .build());
-    };
+    starUpdateBatcher = new StarUpdateBatcher(connection);
+    starWatcher = starUpdateBatcher::onStarUpdated;
 
     TaskRunner.i.runTask(this::onPostConnect, Threads.BACKGROUND);
   }
@@ -77,6 +83,8 @@ public class Player {
       onRequestEmpire(pkt.request_empire);
     } else if (pkt.chat_msgs != null) {
       onChatMessages(pkt.chat_msgs);
+    } else if (pkt.request_stars != null) {
+      onRequestStars(pkt.request_stars);
     } else {
       log.error("Unknown/unexpected packet. %s", PacketDebug.getPacketDebug(pkt));
     }
@@ -104,11 +112,7 @@ public class Player {
     }
     if (!updatedStars.isEmpty()) {
       log.debug("%d updated stars, sending update packet.", updatedStars.size());
-      connection.send(new Packet.Builder()
-          .star_updated(new StarUpdatedPacket.Builder()
-              .stars(updatedStars)
-              .build())
-          .build());
+      starUpdateBatcher.sendStars(updatedStars);
     } else {
       log.debug("No updated stars, not sending update packet.");
     }
@@ -122,45 +126,75 @@ public class Player {
    */
   public void onDisconnect() {
     ChatManager.i.disconnectPlayer(empire.get().id);
-  }
-
-  private void onWatchSectorsPacket(WatchSectorsPacket pkt) {
-    // TODO: if we're already watching some of these sectors, we can just keep watching those,
 
-    // Remove all our current watched stars
+    // Stop watching all of our stars, otherwise they'd stay pinned in StarManager's cache.
     synchronized (stars) {
+      disconnected = true;
       for (WatchableObject<Star> star : stars.values()) {
         star.removeWatcher(starWatcher);
       }
+      stars.clear();
+      watchedSectors = null;
     }
+    starUpdateBatcher.close();
+  }
 
-    sectors.clear();
-    List<Star> stars = new ArrayList<>();
-    for (long sectorY = pkt.top; sectorY <= pkt.bottom; sectorY ++) {
-      for (long sectorX = pkt.left; sectorX <= pkt.right; sectorX ++) {
-        WatchableObject<Sector> sector =
-            SectorManager.i.getSector(new SectorCoord.Builder().x(sectorX).y(sectorY).build());
-        SectorManager.i.verifyNativeColonies(sector);
-        sectors.add(sector);
-        stars.addAll(sector.get().stars);
+  private void onWatchSectorsPacket(WatchSectorsPacket pkt) {
+    synchronized (stars) {
+      if (disconnected) {
+        return;
       }
-    }
 
-    connection.send(new Packet.Builder()
-        .star_updated(new StarUpdatedPacket.Builder()
-            .stars(stars)
-            .build())
-        .build());
+      // Stop watching the stars in any sectors that have gone out of bounds.
+      Iterator<WatchableObject<Star>> it = stars.values().iterator();
+      while (it.hasNext()) {
+        WatchableObject<Star> star = it.next();
+        if (!isInBounds(pkt, star.get().sector_x, star.get().sector_y)) {
+          star.removeWatcher(starWatcher);
+          starUpdateBatcher.forgetStar(star.get().id);
+          it.remove();
+        }
+      }
 
-    synchronized (this.stars) {
-      for (Star star : stars) {
-        WatchableObject<Star> watchableStar = StarManager.i.getStar(star.id);
-        watchableStar.addWatcher(starWatcher);
-        this.stars.put(star.id, watchableStar);
+      // Start watching the stars in any sectors that have come into bounds. We fetch the whole
+      // rectangle in one go (that's one query of the star index), and skip the ones we were
+      // already watching: the client already has them, and will keep getting updates for them.
+      List<WatchableObject<Star>> newStars = new ArrayList<>();
+      if (watchedSectors == null || !contains(watchedSectors, pkt)) {
+        for (WatchableObject<Star> star
+            : SectorManager.i.getStarsInSectors(pkt.left, pkt.top, pkt.right, pkt.bottom)) {
+          if (!stars.containsKey(star.get().id)) {
+            newStars.add(star);
+          }
+        }
+      }
+      watchedSectors = pkt;
+
+      List<Star> starsToSend = new ArrayList<>();
+      for (WatchableObject<Star> star : newStars) {
+        starsToSend.add(star.get());
+      }
+      starUpdateBatcher.sendStars(starsToSend);
+
+      for (WatchableObject<Star> star : newStars) {
+        star.addWatcher(starWatcher);
+        stars.put(star.get().id, star);
       }
     }
   }
 
+  /** Returns true if every sector in {@code inner} is also in {@code outer}. */
+  private static boolean contains(WatchSectorsPacket outer, WatchSectorsPacket inner) {
+    return inner.left >= outer.left && inner.right <= outer.right
+        && inner.top >= outer.top && inner.bottom <= outer.bottom;
+  }
+
+  /** Returns true if the given sector is in the bounds of the given {@link WatchSectorsPacket}. */
+  private static boolean isInBounds(WatchSectorsPacket pkt, long sectorX, long sectorY) {
+    return sectorX >= pkt.left && sectorX <= pkt.right
+        && sectorY >= pkt.top && sectorY <= pkt.bottom;
+  }
+
   private void onModifyStar(ModifyStarPacket pkt) {
     WatchableObject<Star> star = StarManager.i.getStar(pkt.star_id);
     for (StarModification modification : pkt.modification) {
@@ -189,6 +223,21 @@ public class Player {
     }
   }
 
+  /**
+   * Called when the client couldn't apply a {@link au.com.codeka.warworlds.common.proto.StarDelta}
+   * we sent it, and wants the whole star again.
+   */
+  private void onRequestStars(RequestStarsPacket pkt) {
+    List<Star> stars = new ArrayList<>();
+    for (long id : pkt.star_id) {
+      WatchableObject<Star> star = StarManager.i.getStar(id);
+      if (star != null) {
+        stars.add(star.get());
+      }
+    }
+    starUpdateBatcher.sendStars(stars);
+  }
+
   private void onRequestEmpire(RequestEmpirePacket pkt) {
     List<Empire> empires = new ArrayList<>();
     for (long id : pkt.empire_id) {
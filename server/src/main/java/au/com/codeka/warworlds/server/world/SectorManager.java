@@ -1,123 +1,162 @@
 package au.com.codeka.warworlds.server.world;
 
-import au.com.codeka.warworlds.common.Time;
-import au.com.codeka.warworlds.common.proto.Planet;
 import au.com.codeka.warworlds.common.proto.Sector;
 import au.com.codeka.warworlds.common.proto.SectorCoord;
 import au.com.codeka.warworlds.common.proto.Star;
 import au.com.codeka.warworlds.server.store.DataStore;
+import au.com.codeka.warworlds.server.store.StarsStore;
+import au.com.codeka.warworlds.server.util.WeightedLruCache;
 import au.com.codeka.warworlds.server.world.generator.SectorGenerator;
-import com.google.common.base.Preconditions;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.annotation.Nonnull;
 
 /**
  * Manages the sectors we have loaded.
  */
 public class SectorManager {
-  public static final SectorManager i = new SectorManager();
   public static final int SECTOR_SIZE = 1024;
 
-  private final HashMap<SectorCoord, WatchableObject<Sector>> sectors = new HashMap<>();
+  /** The maximum total size (in encoded bytes) of the sectors we'll keep cached. */
+  private static final long MAX_CACHED_SECTOR_BYTES = 32L * 1024L * 1024L;
 
-  /** Gets the sector with the given {@link SectorCoord}, creating a new one if necessary. */
-  public WatchableObject<Sector> getSector(@Nonnull SectorCoord coord) {
-    synchronized (sectors) {
-      WatchableObject<Sector> sector = sectors.get(coord);
-      if (sector == null) {
-        Sector s = DataStore.i.sectors().getSector(coord.x, coord.y);
-        if (s == null) {
-          s = new SectorGenerator().generate(coord.x, coord.y);
+  /**
+   * Sectors are weighted by their encoded size. We don't need to pin any of them, because they're
+   * just a view over the stars, and can always be loaded again from the store.
+   */
+  private static final WeightedLruCache.Policy<WatchableObject<Sector>> SECTOR_CACHE_POLICY =
+      new WeightedLruCache.Policy<WatchableObject<Sector>>() {
+        @Override
+        public int getWeight(WatchableObject<Sector> sector) {
+          return Sector.ADAPTER.encodedSize(sector.get());
         }
-        sector = new WatchableObject<>(s);
-        sectors.put(coord, sector);
-
-        // Watch all the stars so that we can update the sector when the star is updated.
-        WatchableObject.Watcher<Star> watcher = new StarWatcher(coord);
-        for (Star sectorStar : sector.get().stars) {
-          WatchableObject<Star> star = StarManager.i.getStar(sectorStar.id);
-          star.addWatcher(watcher);
+
+        @Override
+        public boolean isPinned(WatchableObject<Sector> sector) {
+          return false;
         }
-      }
-      return sector;
-    }
-  }
+      };
+
+  // Must come after the cache policy, which the constructor uses.
+  public static final SectorManager i = new SectorManager();
+
+  private final WeightedLruCache<SectorCoord, WatchableObject<Sector>> sectors =
+      new WeightedLruCache<>(SECTOR_CACHE_POLICY, MAX_CACHED_SECTOR_BYTES);
 
   /**
-   * Called in the very rare situations where we need to forget the whole sector (for example,
-   * when a star is deleted). Package private because we shouldn't normally want to call this
-   * directly.
+   * Stars that have been updated since their (cached) sector was last brought up to date, keyed by
+   * sector and then by star ID. See {@link #onStarUpdated}.
    */
-  void forgetSector(@Nonnull SectorCoord coord) {
-    synchronized (sectors) {
-      sectors.remove(coord);
+  private final ConcurrentHashMap<SectorCoord, Map<Long, Star>> updatedStars =
+      new ConcurrentHashMap<>();
+
+  /** Gets the sector with the given {@link SectorCoord}, creating a new one if necessary. */
+  public WatchableObject<Sector> getSector(@Nonnull SectorCoord coord) {
+    WatchableObject<Sector> sector = sectors.get(coord, c -> {
+      Sector s = DataStore.i.sectors().getSector(c.x, c.y);
+      if (s == null) {
+        s = new SectorGenerator().generate(c.x, c.y);
+      }
+      return new WatchableObject<>(s);
+    });
+    if (updatedStars.containsKey(coord)) {
+      applyUpdatedStars(coord, sector);
     }
+    return sector;
   }
 
   /**
-   * Go through all of the stars in the given {@link Sector} and make sure any stars which are
-   * eligible for a native colony have one.
+   * Gets all of the stars in the given (inclusive) range of sectors, generating any of the
+   * sectors that don't exist yet. The stars come from {@link StarsStore}'s index, so unlike
+   * {@link #getSector}, this doesn't have to query each sector separately.
    */
-  public void verifyNativeColonies(WatchableObject<Sector> sector) {
-    for (Star star : sector.get().stars) {
-      // If there's any fleets on it, it's not eligible.
-      if (star.fleets.size() > 0) {
-        continue;
-      }
-
-      // If there's any colonies, it's also not eligible.
-      int numColonies = 0;
-      for (Planet planet: star.planets) {
-        if (planet.colony != null) {
-          numColonies ++;
+  public List<WatchableObject<Star>> getStarsInSectors(
+      long left, long top, long right, long bottom) {
+    StarsStore store = DataStore.i.stars();
+    for (long sectorY = top; sectorY <= bottom; sectorY++) {
+      for (long sectorX = left; sectorX <= right; sectorX++) {
+        if (!store.hasStarsInSector(sectorX, sectorY)) {
+          getSector(new SectorCoord.Builder().x(sectorX).y(sectorY).build());
         }
       }
-      if (numColonies > 0) {
-        continue;
-      }
-
-      // If it was emptied < 3 days ago, it's not eligible.
-      if (star.time_emptied != null
-          && (System.currentTimeMillis() - star.time_emptied) < (3 * Time.DAY)) {
-        continue;
-      }
+    }
 
-      // If there's no planets with a population congeniality above 500, it's not eligible.
-      int numEligiblePlanets = 0;
-      for (Planet planet: star.planets) {
-        if (planet.population_congeniality > 500) {
-          numEligiblePlanets ++;
-        }
-      }
-      if (numEligiblePlanets == 0) {
-        continue;
+    List<WatchableObject<Star>> stars = new ArrayList<>();
+    for (Long id : store.findStarsInRect(
+        left * SECTOR_SIZE, top * SECTOR_SIZE, (right + 1) * SECTOR_SIZE,
+        (bottom + 1) * SECTOR_SIZE)) {
+      WatchableObject<Star> star = StarManager.i.getStar(id);
+      if (star != null) {
+        stars.add(star);
       }
-
-      // Looks like it's eligible, let's do it.
-      StarManager.i.addNativeColonies(star.id);
     }
+    return stars;
   }
 
-  private class StarWatcher implements WatchableObject.Watcher<Star> {
-    private final SectorCoord coord;
+  /** Gets the cache we keep sectors in, so that we can report on how it's doing. */
+  public WeightedLruCache<SectorCoord, WatchableObject<Sector>> getCache() {
+    return sectors;
+  }
 
-    public StarWatcher(SectorCoord coord) {
-      this.coord = Preconditions.checkNotNull(coord);
+  /**
+   * Called by {@link StarManager} whenever a star is updated. If we have the star's sector cached,
+   * we'll remember the star's new value, and update the sector with it the next time someone asks
+   * for the sector (see {@link #getSector}). If not, there's nothing to do: the next time the
+   * sector is loaded, it'll be loaded with the new value anyway.
+   *
+   * <p>This is called with the star's lock held, and stars are updated far more often than sectors
+   * are fetched, so we don't want to rebuild the sector (or take any lock shared with other
+   * sectors) here.
+   */
+  void onStarUpdated(Star star) {
+    SectorCoord coord = new SectorCoord.Builder().x(star.sector_x).y(star.sector_y).build();
+    if (sectors.peek(coord) == null) {
+      return;
     }
+    // Use compute so that we're not adding to the map just as applyUpdatedStars takes it away.
+    updatedStars.compute(coord, (c, stars) -> {
+      if (stars == null) {
+        stars = new HashMap<>();
+      }
+      stars.put(star.id, star);
+      return stars;
+    });
+  }
+
+  /** Updates the given sector with any stars in it that have been updated since we last did. */
+  private void applyUpdatedStars(SectorCoord coord, WatchableObject<Sector> sector) {
+    synchronized (sector.lock) {
+      Map<Long, Star> stars = updatedStars.remove(coord);
+      if (stars == null) {
+        // Someone else got to it first.
+        return;
+      }
 
-    @Override
-    public void onUpdate(WatchableObject<Star> object) {
-      WatchableObject<Sector> sector = sectors.get(coord);
       Sector.Builder newSector = sector.get().newBuilder();
       for (int i = 0; i < newSector.stars.size(); i++) {
-        if (newSector.stars.get(i).id.equals(object.get().id)) {
-          newSector.stars.remove(i);
-          break;
+        Star star = stars.remove(newSector.stars.get(i).id);
+        if (star != null) {
+          newSector.stars.set(i, star);
         }
       }
-      newSector.stars.add(object.get());
+      // Anything left is a star that wasn't in the sector before.
+      newSector.stars.addAll(stars.values());
 
       sector.set(newSector.build());
+      sectors.reweigh(coord, sector);
     }
   }
+
+  /**
+   * Called in the very rare situations where we need to forget the whole sector (for example,
+   * when a star is deleted). Package private because we shouldn't normally want to call this
+   * directly.
+   */
+  void forgetSector(@Nonnull SectorCoord coord) {
+    sectors.remove(coord);
+    updatedStars.remove(coord);
+  }
 }
@@ -0,0 +1,137 @@
+package au.com.codeka.warworlds.server.world;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import javax.annotation.Nullable;
+
+/**
+ * An in-memory index of the time each star next needs to be simulated. This lets the
+ * {@link StarSimulatorQueue} find the next star to simulate without having to go to the data store
+ * (and decode the star) every time.
+ *
+ * <p>The index is a min-heap ordered by next_simulation time, plus a map of star ID to its current
+ * scheduled time. When a star is rescheduled, we just push a new entry onto the heap and the old
+ * one becomes "stale": it's discarded when it makes its way to the top of the heap and we notice
+ * it doesn't match the time in the map any more.
+ */
+class SimulationSchedule {
+  private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+  private final Map<Long, Long> scheduled = new HashMap<>();
+
+  /** Clears the schedule and replaces it with the given map of star ID to next_simulation. */
+  synchronized void reset(Map<Long, Long> nextSimulations) {
+    queue.clear();
+    scheduled.clear();
+    for (Map.Entry<Long, Long> entry : nextSimulations.entrySet()) {
+      schedule(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Schedules the given star to be simulated at the given time. If the star was already scheduled,
+   * the old time is replaced.
+   *
+   * @param starId The ID of the star to schedule.
+   * @param nextSimulation The time to simulate the star, or null if it doesn't need simulating.
+   */
+  synchronized void schedule(long starId, @Nullable Long nextSimulation) {
+    if (nextSimulation == null) {
+      scheduled.remove(starId);
+      return;
+    }
+
+    Long existing = scheduled.put(starId, nextSimulation);
+    if (existing == null || existing.longValue() != nextSimulation) {
+      queue.add(new Entry(starId, nextSimulation));
+    }
+
+    // If there's a lot of stale entries in the heap, rebuild it so it doesn't grow without bound.
+    if (queue.size() > 1024 && queue.size() > scheduled.size() * 2) {
+      queue.clear();
+      for (Map.Entry<Long, Long> entry : scheduled.entrySet()) {
+        queue.add(new Entry(entry.getKey(), entry.getValue()));
+      }
+    }
+  }
+
+  /** Removes the given star from the schedule, if it's in there. */
+  synchronized void remove(long starId) {
+    scheduled.remove(starId);
+  }
+
+  /**
+   * Gets the time the next star is due to be simulated, or null if there are no stars in the
+   * schedule at all.
+   */
+  @Nullable
+  synchronized Long peekTime() {
+    Entry entry = peekEntry();
+    return entry == null ? null : entry.nextSimulation;
+  }
+
+  /**
+   * Removes and returns the ID of the next star to simulate, if it's due at or before the given
+   * time. Returns null if there's no star due yet.
+   */
+  @Nullable
+  synchronized Long pollDue(long now) {
+    Entry entry = peekEntry();
+    if (entry == null || entry.nextSimulation > now) {
+      return null;
+    }
+
+    queue.poll();
+    scheduled.remove(entry.starId);
+    return entry.starId;
+  }
+
+  /** Gets the number of stars that are due to be simulated at or before the given time. */
+  synchronized int countDue(long now) {
+    int count = 0;
+    for (Long time : scheduled.values()) {
+      if (time <= now) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /** Gets the number of stars currently scheduled. */
+  synchronized int size() {
+    return scheduled.size();
+  }
+
+  /** Peeks the top of the heap, discarding any stale entries that we find along the way. */
+  @Nullable
+  private Entry peekEntry() {
+    while (!queue.isEmpty()) {
+      Entry entry = queue.peek();
+      Long time = scheduled.get(entry.starId);
+      if (time != null && time == entry.nextSimulation) {
+        return entry;
+      }
+      queue.poll();
+    }
+    return null;
+  }
+
+  private static class Entry implements Comparable<Entry> {
+    private final long starId;
+    private final long nextSimulation;
+
+    Entry(long starId, long nextSimulation) {
+      this.starId = starId;
+      this.nextSimulation = nextSimulation;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      int comp = Long.compare(nextSimulation, other.nextSimulation);
+      if (comp == 0) {
+        comp = Long.compare(starId, other.starId);
+      }
+      return comp;
+    }
+  }
+}
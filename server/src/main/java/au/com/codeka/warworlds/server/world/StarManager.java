@@ -15,10 +15,11 @@ import au.com.codeka.warworlds.common.sim.StarModifier;
 import au.com.codeka.warworlds.common.sim.SuspiciousModificationException;
 import au.com.codeka.warworlds.server.store.DataStore;
 import au.com.codeka.warworlds.server.store.StarsStore;
+import au.com.codeka.warworlds.server.util.WeightedLruCache;
 import com.google.common.collect.Lists;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import javax.annotation.Nullable;
@@ -28,10 +29,36 @@ import javax.annotation.Nullable;
  */
 public class StarManager {
   private static final Log log = new Log("StarManager");
+
+  /**
+   * The maximum total size (in encoded bytes) of the stars we'll keep cached. Stars that are pinned
+   * (see {@link #STAR_CACHE_POLICY}) are never evicted, so we could go over this.
+   */
+  private static final long MAX_CACHED_STAR_BYTES = 64L * 1024L * 1024L;
+
+  /**
+   * Stars are weighted by their encoded size. A star is pinned if it's being watched by anybody
+   * other than us (i.e. a {@link Player}) or if it has a pending simulation.
+   */
+  private static final WeightedLruCache.Policy<WatchableObject<Star>> STAR_CACHE_POLICY =
+      new WeightedLruCache.Policy<WatchableObject<Star>>() {
+        @Override
+        public int getWeight(WatchableObject<Star> star) {
+          return Star.ADAPTER.encodedSize(star.get());
+        }
+
+        @Override
+        public boolean isPinned(WatchableObject<Star> star) {
+          return star.getWatcherCount() > 1 || star.get().next_simulation != null;
+        }
+      };
+
+  // Must come after the cache policy, which the constructor uses.
   public static final StarManager i = new StarManager();
 
   private final StarsStore store;
-  private final HashMap<Long, WatchableObject<Star>> stars = new HashMap<>();
+  private final WeightedLruCache<Long, WatchableObject<Star>> stars =
+      new WeightedLruCache<>(STAR_CACHE_POLICY, MAX_CACHED_STAR_BYTES);
   private final StarModifier starModifier;
 
   private StarManager() {
@@ -39,28 +66,28 @@ public class StarManager {
     starModifier = new StarModifier(() -> DataStore.i.seq().nextIdentifier());
   }
 
+  /**
+   * Gets the star with the given ID, loading it from the data store if it's not already cached.
+   * Stars can be evicted from the cache at any time. If one is evicted while someone is still
+   * using it, we'll return that same {@link WatchableObject} (and so the same lock) rather than
+   * loading a second copy, see {@link WeightedLruCache}. Otherwise it's loaded again as normal.
+   *
+   * <p>Cached stars are returned without taking any locks. If the star needs to be loaded, only
+   * one thread will load it (any others asking for the same star will wait for that load), but
+   * different stars can be loaded in parallel.
+   */
   @Nullable
   public WatchableObject<Star> getStar(long id) {
-    WatchableObject<Star> watchableStar;
-    synchronized (stars) {
-      watchableStar = stars.get(id);
-      if (watchableStar == null) {
-        Star star = store.get(id);
-        if (star == null) {
-          return null;
-        }
-
-        watchableStar = new WatchableObject<>(star);
-        watchableStar.addWatcher(starWatcher);
-        stars.put(star.id, watchableStar);
-      }
-    }
+    return stars.get(id, starLoader);
+  }
 
-    return watchableStar;
+  /** Gets the cache we keep stars in, so that we can report on how it's doing. */
+  public WeightedLruCache<Long, WatchableObject<Star>> getCache() {
+    return stars;
   }
 
   public void deleteStar(long id) {
-    WatchableObject<Star> watchableStar = stars.get(id);
+    WatchableObject<Star> watchableStar = stars.peek(id);
     Star star;
     if (watchableStar != null) {
       star = watchableStar.get();
@@ -74,9 +101,8 @@ public class StarManager {
     SectorCoord coord = new SectorCoord.Builder().x(star.sector_x).y(star.sector_y).build();
 
     store.delete(id);
-    synchronized (stars) {
-      stars.remove(id);
-    }
+    StarSimulatorQueue.i.unschedule(id);
+    stars.remove(id);
     SectorManager.i.forgetSector(coord);
   }
 
@@ -88,13 +114,14 @@ public class StarManager {
     synchronized (star.lock) {
       log.debug("Adding native colonies to star %d \"%s\"...", star.get().id, star.get().name);
 
-      // OK, so basically any planet with a population congeniality > 500 will get a colony.
+      // OK, so basically any planet with a high enough population congeniality will get a colony.
       Star.Builder starBuilder = star.get().newBuilder();
 
       try {
         int numColonies = 0;
         for (int i = 0; i < starBuilder.planets.size(); i++) {
-          if (starBuilder.planets.get(i).population_congeniality > 500) {
+          if (starBuilder.planets.get(i).population_congeniality
+              > StarsStore.NATIVE_COLONY_MIN_CONGENIALITY) {
             starModifier.modifyStar(starBuilder, new StarModification.Builder()
                 .type(StarModification.MODIFICATION_TYPE.COLONIZE)
                 .planet_index(i)
@@ -120,6 +147,7 @@ public class StarManager {
         log.error("Unexpected suspicious modification.", e);
       }
 
+      starBuilder.seq(nextSeq(star.get()));
       star.set(starBuilder.build());
     }
   }
@@ -157,10 +185,70 @@ public class StarManager {
       Collection<StarModification> modifications,
       @Nullable Simulation.LogHandler logHandler)
       throws SuspiciousModificationException {
+    ArrayList<Fleet> arrivedFleets = new ArrayList<>();
     synchronized (star.lock) {
       Star.Builder starBuilder = star.get().newBuilder();
       starModifier.modifyStar(starBuilder, auxStars, modifications, logHandler);
-      completeActions(star, starBuilder, logHandler);
+      completeActions(star, starBuilder, arrivedFleets, logHandler);
+    }
+
+    // Only once we've released this star's lock do we hand any fleets that arrived off to their
+    // destination. That way we never hold more than one star's lock at a time, and two stars
+    // sending fleets to each other can't deadlock. The fleets have already been removed from this
+    // star (and it's been saved), so if one can't be delivered we put it back rather than lose it.
+    for (Fleet fleet : arrivedFleets) {
+      if (!deliverFleet(fleet, logHandler)) {
+        returnFleet(star, fleet);
+      }
+    }
+  }
+
+  /**
+   * Adds a fleet that has arrived at its destination to the destination star. The fleet must
+   * already have been removed from the star it departed from.
+   *
+   * <p>Errors are logged rather than thrown: the modification that made the fleet arrive has
+   * already been applied, so they're not the caller's problem.
+   *
+   * @return true if the fleet was delivered, false if it couldn't be.
+   */
+  private boolean deliverFleet(Fleet fleet, @Nullable Simulation.LogHandler logHandler) {
+    WatchableObject<Star> destStar = getStar(fleet.destination_star_id);
+    if (destStar == null) {
+      log.warning("Fleet %d arrived at star %d, which doesn't exist.",
+          fleet.id, fleet.destination_star_id);
+      return false;
+    }
+
+    try {
+      modifyStar(destStar, null, Lists.newArrayList(new StarModification.Builder()
+          .type(StarModification.MODIFICATION_TYPE.CREATE_FLEET)
+          .empire_id(fleet.empire_id)
+          .fleet(fleet)
+          .build()), logHandler);
+      return true;
+    } catch (SuspiciousModificationException | RuntimeException e) {
+      log.error("Error delivering fleet %d to star %d.", fleet.id, fleet.destination_star_id, e);
+      return false;
+    }
+  }
+
+  /**
+   * Puts a fleet that we couldn't deliver back on the star it departed from. It goes back to idle,
+   * as if it had never left.
+   */
+  private void returnFleet(WatchableObject<Star> star, Fleet fleet) {
+    log.warning("Returning fleet %d to star %d.", fleet.id, star.get().id);
+    synchronized (star.lock) {
+      Star.Builder starBuilder = star.get().newBuilder();
+      starBuilder.fleets.add(fleet.newBuilder()
+          .state(Fleet.FLEET_STATE.IDLE)
+          .state_start_time(System.currentTimeMillis())
+          .destination_star_id(null)
+          .eta(null)
+          .build());
+      starBuilder.seq(nextSeq(star.get()));
+      star.set(starBuilder.build());
     }
   }
 
@@ -170,6 +258,10 @@ public class StarManager {
    *
    * @param star The {@link WatchableObject<Star>} of the star that we'll update.
    * @param starBuilder A simulated star that we need to finish up.
+   * @param arrivedFleets A list that we'll add any fleets to that have arrived at their
+   *                      destination. The caller must deliver them (via {@link #deliverFleet})
+   *                      once it has released {@code star}'s lock, and return any that can't be
+   *                      delivered (via {@link #returnFleet}).
    * @param logHandler An optional {@link Simulation.LogHandler} that we'll pass log messages
    *                   through to. If null, we'll just do normal logging.
    * @throws SuspiciousModificationException if the
@@ -177,6 +269,7 @@ public class StarManager {
   private void completeActions(
       WatchableObject<Star> star,
       Star.Builder starBuilder,
+      ArrayList<Fleet> arrivedFleets,
       @Nullable Simulation.LogHandler logHandler)
       throws SuspiciousModificationException{
     // For any builds/moves/etc that finish in the future, make sure we schedule a job to
@@ -237,31 +330,18 @@ public class StarManager {
       starBuilder.planets.set(i, planetBuilder.build());
     }
 
-    // Any fleets that have arrived, make sure we remove them here and add them to the destination.
+    // Any fleets that have arrived, make sure we remove them here so they can be added to the
+    // destination.
     for (int i = 0; i < starBuilder.fleets.size(); i++) {
       Fleet fleet = starBuilder.fleets.get(i);
       if (fleet.state != Fleet.FLEET_STATE.MOVING || fleet.eta > now) {
         continue;
       }
 
-      // First, grab the destination star and add it there.
-      WatchableObject<Star> destStar = getStar(fleet.destination_star_id);
-      synchronized (destStar.lock) { // TODO: this could deadlock, need to lock in the same order
-        Star.Builder destStarBuilder = destStar.get().newBuilder();
-        starModifier.modifyStar(
-            destStarBuilder,
-            null,
-            Lists.newArrayList(new StarModification.Builder()
-                .type(StarModification.MODIFICATION_TYPE.CREATE_FLEET)
-                .empire_id(fleet.empire_id)
-                .fleet(fleet)
-                .build()),
-            logHandler);
-        destStar.set(destStarBuilder.build());
-      }
-
-      // Then remove it from our star.
+      // Remove it from our star, the caller will add it to the destination.
+      arrivedFleets.add(fleet);
       starBuilder.fleets.remove(i);
+      i--;
     }
 
     // Any fleets that have been destroyed, destroy them.
@@ -282,11 +362,40 @@ public class StarManager {
       }
     }
 
+    // If the last colony or fleet just left, note the time so that we know when it's eligible for
+    // a native colony again (see NativeColonySweeper).
+    if (!isEmpty(star.get().planets, star.get().fleets)
+        && isEmpty(starBuilder.planets, starBuilder.fleets)) {
+      starBuilder.time_emptied(now);
+    }
+
     starBuilder.next_simulation(nextSimulateTime);
+    starBuilder.seq(nextSeq(star.get()));
     star.set(starBuilder.build());
 
-    // TODO: only ping if the next simulate time is in the next 10 minutes.
-    StarSimulatorQueue.i.ping();
+    StarSimulatorQueue.i.schedule(starBuilder.id, nextSimulateTime);
+  }
+
+  /** Returns true if there are no colonies or fleets on a star with the given planets and fleets. */
+  private static boolean isEmpty(List<Planet> planets, List<Fleet> fleets) {
+    if (!fleets.isEmpty()) {
+      return false;
+    }
+    for (Planet planet : planets) {
+      if (planet.colony != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Gets the seq that the next version of the given star should have. Every modification gets a new
+   * seq, so that clients can tell whether a {@link au.com.codeka.warworlds.common.proto.StarDelta}
+   * applies to the version of the star they have.
+   */
+  private static long nextSeq(Star star) {
+    return star.seq == null ? 1 : star.seq + 1;
   }
 
   private final WatchableObject.Watcher<Star> starWatcher = new WatchableObject.Watcher<Star>() {
@@ -294,6 +403,24 @@ public class StarManager {
     public void onUpdate(WatchableObject<Star> star) {
       log.debug("Saving star %d %s", star.get().id, star.get().name);
       store.put(star.get().id, star.get());
+      stars.reweigh(star.get().id, star);
+      SectorManager.i.onStarUpdated(star.get());
     }
   };
+
+  private final WeightedLruCache.Loader<Long, WatchableObject<Star>> starLoader =
+      new WeightedLruCache.Loader<Long, WatchableObject<Star>>() {
+        @Nullable
+        @Override
+        public WatchableObject<Star> load(Long id) {
+          Star star = store.get(id);
+          if (star == null) {
+            return null;
+          }
+
+          WatchableObject<Star> watchableStar = new WatchableObject<>(star);
+          watchableStar.addWatcher(starWatcher);
+          return watchableStar;
+        }
+      };
 }
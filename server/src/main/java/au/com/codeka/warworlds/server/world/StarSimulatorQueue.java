@@ -3,24 +3,55 @@ package au.com.codeka.warworlds.server.world;
 import au.com.codeka.warworlds.common.Log;
 import au.com.codeka.warworlds.common.Time;
 import au.com.codeka.warworlds.common.proto.Star;
+import au.com.codeka.warworlds.common.sim.Simulation;
 import au.com.codeka.warworlds.common.sim.SuspiciousModificationException;
+import au.com.codeka.warworlds.server.Configuration;
+import au.com.codeka.warworlds.server.concurrency.ThreadPool;
+import au.com.codeka.warworlds.server.concurrency.Threads;
 import au.com.codeka.warworlds.server.store.DataStore;
 import au.com.codeka.warworlds.server.store.StarsStore;
 import com.google.api.client.util.Lists;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
 
 /**
  * This class manages the star simulation queue, and schedules stars to be simulated at the
  * appropriate time.
+ *
+ * <p>A single "StarSimulateQueue" thread waits for stars to become due, and then hands them off to
+ * a pool of {@link Threads#SIMULATION} workers to actually simulate. The number of workers comes
+ * from {@link Configuration.SimulationConfig#getNumThreads()}. A star is removed from the schedule
+ * when it's handed off, and only re-added once it's been simulated, so the same star is never
+ * simulated by two workers at once (and {@link StarManager#modifyStar} takes the star's lock
+ * anyway).
  */
 public class StarSimulatorQueue {
   public static final StarSimulatorQueue i = new StarSimulatorQueue();
   private static final Log log = new Log("StarSimulatorQueue");
 
+  /**
+   * How long we wait before trying again to simulate a star that failed. It's already been taken
+   * off the schedule, so if we didn't put it back it would never be simulated again.
+   */
+  private static final long RETRY_DELAY_MS = Time.MINUTE;
+
   private final Thread thread;
   private final StarsStore stars;
+  private final SimulationSchedule schedule = new SimulationSchedule();
   private boolean running;
   private final Object pinger = new Object();
 
+  private int numThreads;
+  private ThreadPool threadPool;
+
+  /** One permit per worker, so that we never hand off more stars than we have workers for. */
+  private Semaphore workerPermits;
+
+  private final AtomicInteger numInFlight = new AtomicInteger();
+  private volatile long lastLagMs;
+
   private StarSimulatorQueue() {
     stars = DataStore.i.stars();
     thread = new Thread(this::run, "StarSimulateQueue");
@@ -28,6 +59,27 @@ public class StarSimulatorQueue {
 
   public void start() {
     log.info("Starting star simulation queue.");
+    long startTime = System.nanoTime();
+    schedule.reset(stars.getNextSimulationTimes());
+    log.info("Loaded %d stars into simulation schedule in %dms.",
+        schedule.size(), (System.nanoTime() - startTime) / 1000000L);
+
+    numThreads = Math.max(1, Configuration.i.getSimulation().getNumThreads());
+    threadPool = new ThreadPool(
+        Threads.SIMULATION,
+        numThreads /* maxQueuedItems */,
+        numThreads /* minThreads */,
+        numThreads /* maxThreads */,
+        5000 /* keepAliveMs */);
+    Threads.SIMULATION.setThreadPool(threadPool);
+    workerPermits = new Semaphore(numThreads);
+    log.info("Simulating stars on %d thread(s).", numThreads);
+
+    Simulation.FastForwardMode fastForwardMode =
+        Configuration.i.getSimulation().getFastForwardMode();
+    Simulation.setDefaultFastForwardMode(fastForwardMode);
+    log.info("Simulation fast-forward mode: %s", fastForwardMode);
+
     running = true;
     thread.start();
   }
@@ -37,6 +89,11 @@ public class StarSimulatorQueue {
     ping();
     try {
       thread.join();
+
+      // Wait for any in-flight simulations to finish up.
+      if (!workerPermits.tryAcquire(numThreads, 30, TimeUnit.SECONDS)) {
+        log.warning("Timed out waiting for %d in-flight simulations.", numInFlight.get());
+      }
     } catch (InterruptedException e) {
       // Ignore.
     }
@@ -48,58 +105,144 @@ public class StarSimulatorQueue {
     }
   }
 
+  /**
+   * Schedule the given star to be simulated at the given time, replacing any previously-scheduled
+   * time. If the new time is earlier than the star we're currently waiting on, we'll wake up the
+   * queue so that it can pick it up. We hold {@link #pinger} while we check and update the
+   * schedule, so that the queue can't miss the wake up between working out how long to sleep and
+   * going to sleep.
+   *
+   * @param starId The ID of the star to schedule.
+   * @param nextSimulation The time the star should next be simulated, or null if it doesn't need
+   *     to be simulated at all.
+   */
+  public void schedule(long starId, @Nullable Long nextSimulation) {
+    synchronized (pinger) {
+      Long currNextTime = schedule.peekTime();
+      schedule.schedule(starId, nextSimulation);
+      if (nextSimulation != null && (currNextTime == null || nextSimulation < currNextTime)) {
+        pinger.notify();
+      }
+    }
+  }
+
+  /** Remove the given star from the queue (for example, because it's been deleted). */
+  public void unschedule(long starId) {
+    schedule.remove(starId);
+  }
+
+  /**
+   * Gets the number of stars which are due to be simulated but haven't been simulated yet,
+   * including the ones that are currently being simulated.
+   */
+  public int getBacklogSize() {
+    return schedule.countDue(System.currentTimeMillis()) + numInFlight.get();
+  }
+
+  /**
+   * Gets how far behind the queue currently is: that is, the difference between now and the
+   * next_simulation of the most overdue star. Zero if nothing is overdue.
+   */
+  public long getLagMs() {
+    Long nextTime = schedule.peekTime();
+    if (nextTime == null) {
+      return 0;
+    }
+    return Math.max(0, System.currentTimeMillis() - nextTime);
+  }
+
+  /** Gets the lag of the last star we handed off to a worker, at the time we handed it off. */
+  public long getLastLagMs() {
+    return lastLagMs;
+  }
+
   private void run() {
     log.info("Star simulator queue starting up.");
     while (running) {
-      Star star = stars.nextStarForSimulate();
-
-      long waitTime;
-      if (star == null) {
-        log.warning("No stars to simulate, sleeping for a bit.");
-        waitTime = 10 * Time.MINUTE;
-      } else {
-        if (star.next_simulation == null) {
-          log.warning("Star #%d (%s) next_simulation is null.", star.id, star.name);
-          waitTime = 0;
-        } else {
-          waitTime = star.next_simulation - System.currentTimeMillis();
-        }
+      try {
+        workerPermits.acquire();
+      } catch (InterruptedException e) {
+        continue;
       }
 
-      if (waitTime <= 0) {
-        waitTime = 1; // 1 millisecond to ensure that we actually sleep at least a litte.
-      }
+      long now = System.currentTimeMillis();
+      Long nextTime = schedule.peekTime();
+      Long starId = schedule.pollDue(now);
+      if (starId == null) {
+        workerPermits.release();
 
-      // Don't sleep for more than 10 minutes, we'll just loop around and check again.
-      if (waitTime > 10 * Time.MINUTE) {
-        waitTime = 10 * Time.MINUTE;
-      }
+        try {
+          synchronized (pinger) {
+            // Check the next time again now that we've got the lock. Anything scheduled after
+            // this will wait for us to start waiting before it notifies us, so we can't miss it.
+            nextTime = schedule.peekTime();
+            now = System.currentTimeMillis();
 
-      log.debug("Star simulator sleeping for %d ms.", waitTime);
-      try {
-        synchronized (pinger) {
-          pinger.wait(waitTime);
+            long waitTime;
+            if (nextTime == null) {
+              log.warning("No stars to simulate, sleeping for a bit.");
+              waitTime = 10 * Time.MINUTE;
+            } else {
+              waitTime = nextTime - now;
+            }
+
+            if (waitTime <= 0) {
+              waitTime = 1; // 1 millisecond to ensure that we actually sleep at least a litte.
+            }
+
+            // Don't sleep for more than 10 minutes, we'll just loop around and check again.
+            if (waitTime > 10 * Time.MINUTE) {
+              waitTime = 10 * Time.MINUTE;
+            }
+
+            log.debug("Star simulator sleeping for %d ms.", waitTime);
+            pinger.wait(waitTime);
+          }
+        } catch (InterruptedException e) {
+          // Ignore.
         }
-      } catch (InterruptedException e) {
-        // Ignore.
+        continue;
       }
 
-      if (star != null) {
-        long startTime = System.nanoTime();
-        WatchableObject<Star> watchableStar = StarManager.i.getStar(star.id);
+      if (nextTime != null) {
+        lastLagMs = now - nextTime;
+      }
+      numInFlight.incrementAndGet();
+      final long id = starId;
+      threadPool.runTask(() -> {
         try {
-          StarManager.i.modifyStar(watchableStar, Lists.newArrayList(), null /* logHandler */);
-        } catch (SuspiciousModificationException e) {
-          // Shouldn't ever happen, as we're passing an empty list of modifications.
-          log.warning("Unexpected suspicious modification.", e);
+          simulateStar(id);
+        } finally {
+          numInFlight.decrementAndGet();
+          workerPermits.release();
         }
-        long endTime = System.nanoTime();
+      });
+    }
 
-        log.info("Star #%d (%s) simulated in %dms",
-            star.id, star.name, (endTime - startTime) / 1000000L);
+    log.info("Star simulator queue shut down.");
+  }
+
+  private void simulateStar(long starId) {
+    long startTime = System.nanoTime();
+    WatchableObject<Star> watchableStar;
+    try {
+      watchableStar = StarManager.i.getStar(starId);
+      if (watchableStar == null) {
+        log.warning("Star #%d scheduled for simulation, but it no longer exists.", starId);
+        return;
       }
+      StarManager.i.modifyStar(watchableStar, Lists.newArrayList(), null /* logHandler */);
+    } catch (SuspiciousModificationException | RuntimeException e) {
+      // SuspiciousModificationException shouldn't ever happen, as we're passing an empty list of
+      // modifications. Either way, don't let one bad star take down the worker: log it and try
+      // again later.
+      log.error("Error simulating star #%d, retrying in %dms.", starId, RETRY_DELAY_MS, e);
+      schedule(starId, System.currentTimeMillis() + RETRY_DELAY_MS);
+      return;
     }
+    long endTime = System.nanoTime();
 
-    log.info("Star simulator queue shut down.");
+    log.info("Star #%d (%s) simulated in %dms",
+        starId, watchableStar.get().name, (endTime - startTime) / 1000000L);
   }
 }
@@ -0,0 +1,177 @@
+package au.com.codeka.warworlds.server.world;
+
+import au.com.codeka.warworlds.common.proto.Packet;
+import au.com.codeka.warworlds.common.proto.Star;
+import au.com.codeka.warworlds.common.proto.StarDelta;
+import au.com.codeka.warworlds.common.proto.StarDeltasPacket;
+import au.com.codeka.warworlds.common.proto.StarUpdatedPacket;
+import au.com.codeka.warworlds.common.sim.StarDeltaHelper;
+import au.com.codeka.warworlds.server.concurrency.TaskRunner;
+import au.com.codeka.warworlds.server.concurrency.Threads;
+import au.com.codeka.warworlds.server.net.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects updates to the {@link Star}s that a {@link Player} is watching, and sends them to the
+ * client in batches.
+ *
+ * <p>When a star is updated, we don't send it straight away. Instead we wait
+ * {@link #BATCH_WINDOW_MS} for any other updates, then send the latest version of every star that
+ * changed in that time. During combat, or when lots of fleets arrive at once, the same star can be
+ * updated many times a second, and this way the client only gets the final result.
+ *
+ * <p>We also remember the version of each star that we last sent to the client, so that for stars
+ * the client already has, we can send just a {@link StarDelta} rather than the whole star. If the
+ * client finds it can't apply a delta, it'll ask for the whole star again (see
+ * {@link #sendStars}).
+ */
+class StarUpdateBatcher {
+  /** The time we'll wait after the first update, to collect more updates before sending. */
+  private static final int BATCH_WINDOW_MS = 75;
+
+  private final Connection connection;
+
+  /** The stars that have changed since our last batch. Synchronize on this before using it. */
+  private final Map<Long, WatchableObject<Star>> pending = new LinkedHashMap<>();
+  private boolean flushScheduled;
+
+  /**
+   * Set once the player has disconnected, after which we don't send anything. Guarded by
+   * {@link #pending}.
+   */
+  private boolean closed;
+
+  /**
+   * The version of each star we last sent to the client. Synchronize on this before using it, and
+   * keep holding the lock while sending, so that the client gets the packets in the same order that
+   * we update this map.
+   */
+  private final Map<Long, Star> lastSent = new HashMap<>();
+
+  StarUpdateBatcher(Connection connection) {
+    this.connection = connection;
+  }
+
+  /**
+   * Called when a star we're watching has been updated. This is typically called while the star's
+   * lock is held, so it doesn't do anything more than remember the star.
+   */
+  void onStarUpdated(WatchableObject<Star> star) {
+    synchronized (pending) {
+      if (closed) {
+        return;
+      }
+      pending.put(star.get().id, star);
+      if (flushScheduled) {
+        return;
+      }
+      flushScheduled = true;
+    }
+    TaskRunner.i.runTask(this::flush, Threads.BACKGROUND, BATCH_WINDOW_MS);
+  }
+
+  /** Sends the full copy of the given stars to the client straight away. */
+  void sendStars(Collection<Star> stars) {
+    if (stars.isEmpty() || isClosed()) {
+      return;
+    }
+
+    synchronized (lastSent) {
+      for (Star star : stars) {
+        lastSent.put(star.id, star);
+      }
+      connection.send(new Packet.Builder()
+          .star_updated(new StarUpdatedPacket.Builder()
+              .stars(new ArrayList<>(stars))
+              .build())
+          .build());
+    }
+  }
+
+  /**
+   * Forget the given star: we're not watching it any more. If it's updated again later, we'll send
+   * the whole thing.
+   */
+  void forgetStar(long starId) {
+    synchronized (lastSent) {
+      lastSent.remove(starId);
+    }
+  }
+
+  /**
+   * Called when the player disconnects. Any updates we haven't sent yet are dropped, and we won't
+   * send anything else.
+   */
+  void close() {
+    synchronized (pending) {
+      closed = true;
+      pending.clear();
+    }
+    synchronized (lastSent) {
+      lastSent.clear();
+    }
+  }
+
+  private boolean isClosed() {
+    synchronized (pending) {
+      return closed;
+    }
+  }
+
+  /** Sends the latest version of all the stars that have changed since the last batch. */
+  private void flush() {
+    ArrayList<WatchableObject<Star>> stars;
+    synchronized (pending) {
+      stars = new ArrayList<>(pending.values());
+      pending.clear();
+      flushScheduled = false;
+      if (closed) {
+        return;
+      }
+    }
+    if (stars.isEmpty()) {
+      return;
+    }
+
+    synchronized (lastSent) {
+      List<Star> fullStars = new ArrayList<>();
+      List<StarDelta> deltas = new ArrayList<>();
+      for (WatchableObject<Star> watchableStar : stars) {
+        Star star = watchableStar.get();
+        Star prev = lastSent.put(star.id, star);
+        if (prev == star) {
+          // Already sent this version.
+          continue;
+        }
+
+        StarDelta delta = prev == null ? null : StarDeltaHelper.diff(prev, star);
+        if (delta == null
+            || StarDelta.ADAPTER.encodedSize(delta) >= Star.ADAPTER.encodedSize(star)) {
+          fullStars.add(star);
+        } else {
+          deltas.add(delta);
+        }
+      }
+
+      if (!fullStars.isEmpty()) {
+        connection.send(new Packet.Builder()
+            .star_updated(new StarUpdatedPacket.Builder()
+                .stars(fullStars)
+                .build())
+            .build());
+      }
+      if (!deltas.isEmpty()) {
+        connection.send(new Packet.Builder()
+            .star_deltas(new StarDeltasPacket.Builder()
+                .deltas(deltas)
+                .build())
+            .build());
+      }
+    }
+  }
+}
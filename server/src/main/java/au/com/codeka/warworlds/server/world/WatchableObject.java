@@ -17,6 +17,12 @@ public class WatchableObject<T extends Message> {
   }
 
   private final ArrayList<Watcher<T>> watchers = new ArrayList<>();
+
+  /**
+   * The size of {@link #watchers}, so that {@link #getWatcherCount} doesn't have to lock it (and
+   * wait for any {@link #set} that's notifying the watchers).
+   */
+  private volatile int watcherCount;
   private T object;
 
   /**
@@ -46,12 +52,22 @@ public class WatchableObject<T extends Message> {
   public void addWatcher(Watcher<T> watcher) {
     synchronized (watchers) {
       watchers.add(watcher);
+      watcherCount = watchers.size();
     }
   }
 
   public void removeWatcher(Watcher<T> watcher) {
     synchronized (watchers) {
       watchers.remove(watcher);
+      watcherCount = watchers.size();
     }
   }
+
+  /**
+   * Gets the number of {@link Watcher}s currently watching this object. This doesn't lock anything,
+   * so it's safe to call while holding other locks (e.g. from a cache's eviction).
+   */
+  public int getWatcherCount() {
+    return watcherCount;
+  }
 }
@@ -9,6 +9,7 @@ import au.com.codeka.warworlds.common.proto.Star;
 import au.com.codeka.warworlds.server.store.DataStore;
 import au.com.codeka.warworlds.server.store.SectorsStore;
 import au.com.codeka.warworlds.server.world.SectorManager;
+import au.com.codeka.warworlds.server.world.StarManager;
 import au.com.codeka.warworlds.server.world.WatchableObject;
 import javax.annotation.Nullable;
 
@@ -23,6 +24,13 @@ import javax.annotation.Nullable;
  * appropriate one.
  */
 public class NewStarFinder {
+  /**
+   * How far away we look for other colonies when scoring a star. This is a bit more than the
+   * diagonal of a sector, so we'll find anything in the star's own sector as well as colonies just
+   * over the border in the neighbouring sectors.
+   */
+  private static final double COLONY_SEARCH_RADIUS = SectorManager.SECTOR_SIZE * 1.5;
+
   private final Log log;
 
   @Nullable private SectorCoord coord;
@@ -171,7 +179,7 @@ public class NewStarFinder {
         continue;
       }
 
-      double score = scoreStar(sector, star);
+      double score = scoreStar(star);
       if (score > highestScore) {
         highestScore = score;
         highestScoreStar = star;
@@ -194,7 +202,7 @@ public class NewStarFinder {
     return false;
   }
 
-  private double scoreStar(Sector sector, Star star) {
+  private double scoreStar(Star star) {
     int centre = SectorManager.SECTOR_SIZE / 2;
     double distanceToCentre = Math.sqrt((star.offset_x - centre) * (star.offset_x - centre) +
         (star.offset_y - centre) * (star.offset_y - centre));
@@ -210,14 +218,21 @@ public class NewStarFinder {
     double distanceToOtherColonyScore = 1.0;
     double distanceToOtherColony = 0.0;
     Star otherColony = null;
-    for (Star otherStar : sector.stars) {
-      if (otherStar.id.equals(star.id)) {
+    long x = star.sector_x * SectorManager.SECTOR_SIZE + star.offset_x;
+    long y = star.sector_y * SectorManager.SECTOR_SIZE + star.offset_y;
+    for (Long id : DataStore.i.stars().findStarsNear(x, y, COLONY_SEARCH_RADIUS)) {
+      if (id.equals(star.id)) {
+        continue;
+      }
+      WatchableObject<Star> watchableStar = StarManager.i.getStar(id);
+      if (watchableStar == null) {
         continue;
       }
+      Star otherStar = watchableStar.get();
       if (isColonized(otherStar)) {
-        double distanceToColony = Math.sqrt(
-            (star.offset_x - otherStar.offset_x) * (star.offset_x - otherStar.offset_x)
-                + (star.offset_y - otherStar.offset_y) * (star.offset_y - otherStar.offset_y));
+        double dx = otherStar.sector_x * SectorManager.SECTOR_SIZE + otherStar.offset_x - x;
+        double dy = otherStar.sector_y * SectorManager.SECTOR_SIZE + otherStar.offset_y - y;
+        double distanceToColony = Math.sqrt(dx * dx + dy * dy);
         if (otherColony == null || distanceToColony < distanceToOtherColony) {
           otherColony = otherStar;
           distanceToOtherColony = distanceToColony;
@@ -9,6 +9,7 @@ import au.com.codeka.warworlds.common.proto.SectorCoord;
 import au.com.codeka.warworlds.common.proto.Star;
 import au.com.codeka.warworlds.server.store.DataStore;
 import au.com.codeka.warworlds.server.store.SectorsStore;
+import au.com.codeka.warworlds.server.world.NativeColonySweeper;
 import au.com.codeka.warworlds.server.world.SectorManager;
 import java.util.ArrayList;
 import java.util.List;
@@ -104,6 +105,9 @@ public class SectorGenerator {
         .build();
     DataStore.i.sectors().createSector(sector);
 
+    // Give the new stars their native colonies straight away, rather than waiting for the next
+    // sweep.
+    NativeColonySweeper.i.ping();
     return sector;
   }
 
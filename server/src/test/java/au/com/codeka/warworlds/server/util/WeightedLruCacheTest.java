@@ -0,0 +1,110 @@
+package au.com.codeka.warworlds.server.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/** Tests for {@link WeightedLruCache}. */
+public class WeightedLruCacheTest {
+  /** Counts how many times we're asked whether something is pinned (i.e. how much we scan). */
+  private final AtomicInteger pinnedChecks = new AtomicInteger();
+
+  private final WeightedLruCache.Policy<Value> policy = new WeightedLruCache.Policy<Value>() {
+    @Override
+    public int getWeight(Value value) {
+      return value.weight;
+    }
+
+    @Override
+    public boolean isPinned(Value value) {
+      pinnedChecks.incrementAndGet();
+      return value.pinned;
+    }
+  };
+
+  @Test
+  public void evictsLeastRecentlyUsed() {
+    WeightedLruCache<String, Value> cache = new WeightedLruCache<>(policy, 100);
+    cache.put("a", new Value(30, false));
+    cache.put("b", new Value(30, false));
+    cache.put("c", new Value(30, false));
+    cache.get("a");
+
+    // That takes us to 120, we should evict "b" to get back down to 90.
+    cache.put("d", new Value(30, false));
+
+    assertEquals(3, cache.size());
+    assertEquals(90, cache.getTotalWeight());
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+    assertNotNull(cache.get("d"));
+  }
+
+  @Test
+  public void doesNotEvictPinned() {
+    WeightedLruCache<String, Value> cache = new WeightedLruCache<>(policy, 100);
+    cache.put("a", new Value(60, true));
+    cache.put("b", new Value(60, false));
+    cache.put("c", new Value(60, false));
+
+    assertNotNull(cache.get("a"));
+    assertNull(cache.get("b"));
+    assertNotNull(cache.get("c"));
+  }
+
+  @Test
+  public void returnsEvictedValueThatIsStillInUse() {
+    WeightedLruCache<String, Value> cache = new WeightedLruCache<>(policy, 100);
+    Value a = new Value(60, false);
+    cache.put("a", a);
+    cache.put("b", new Value(60, false));
+    assertEquals(1, cache.getEvictions());
+
+    // We've still got hold of "a", so we should get the same instance back, not a new one.
+    assertTrue(cache.peek("a") == a);
+    AtomicInteger loads = new AtomicInteger();
+    Value loaded = cache.get("a", key -> {
+      loads.incrementAndGet();
+      return new Value(60, false);
+    });
+    assertTrue(loaded == a);
+    assertEquals(0, loads.get());
+
+    // And it should be back in the cache proper (which means evicting "b" to make room).
+    assertTrue(cache.get("a") == a);
+    assertNull(cache.get("b"));
+  }
+
+  @Test
+  public void backsOffWhenTooMuchIsPinned() {
+    WeightedLruCache<String, Value> cache = new WeightedLruCache<>(policy, 100);
+    for (int i = 0; i < 11; i++) {
+      cache.put("pinned" + i, new Value(10, true));
+    }
+    assertEquals(110, cache.getTotalWeight());
+
+    // We couldn't evict anything, so we shouldn't scan again until we've grown by 10% of the
+    // maximum weight.
+    pinnedChecks.set(0);
+    cache.put("pinned11", new Value(10, true));
+    assertEquals(0, pinnedChecks.get());
+
+    cache.put("pinned12", new Value(10, true));
+    assertTrue(pinnedChecks.get() > 0);
+  }
+
+  private static class Value {
+    private final int weight;
+    private final boolean pinned;
+
+    Value(int weight, boolean pinned) {
+      this.weight = weight;
+      this.pinned = pinned;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+package au.com.codeka.warworlds.server.world;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import au.com.codeka.warworlds.common.proto.Design;
+import au.com.codeka.warworlds.common.proto.Fleet;
+import au.com.codeka.warworlds.common.proto.Star;
+import au.com.codeka.warworlds.server.store.DataStore;
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Tests for {@link StarManager}. These use a real {@link DataStore}, which the test task in
+ * build.gradle creates from scratch in the build directory.
+ */
+public class StarManagerTest {
+  private static final long EMPIRE_ID = 1L;
+  private static final int NUM_FLEETS = 10;
+  private static final int NUM_ROUNDS = 200;
+
+  @BeforeClass
+  public static void openDataStore() {
+    DataStore.i.open();
+  }
+
+  @AfterClass
+  public static void closeDataStore() {
+    DataStore.i.close();
+  }
+
+  /**
+   * Two threads, each sending all of the fleets on one star to the other over and over, so that
+   * both stars are delivering fleets to each other at the same time. Before fleets were delivered
+   * outside the source star's lock, this could deadlock.
+   */
+  @Test
+  public void twoStarsSendingFleetsToEachOther() throws Exception {
+    final WatchableObject<Star> starA = createStar(NUM_FLEETS);
+    final WatchableObject<Star> starB = createStar(NUM_FLEETS);
+
+    // Line the threads up at the start of every round, so that they're sending at the same time.
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Void> a = executor.submit(() -> sendFleets(starA, starB, barrier));
+      Future<Void> b = executor.submit(() -> sendFleets(starB, starA, barrier));
+
+      // If the stars deadlock, these will time out.
+      a.get(60, TimeUnit.SECONDS);
+      b.get(60, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // Every fleet should have arrived somewhere, and none of them should still be moving.
+    assertEquals(NUM_FLEETS * 2, starA.get().fleets.size() + starB.get().fleets.size());
+    for (Fleet fleet : starA.get().fleets) {
+      assertEquals(Fleet.FLEET_STATE.IDLE, fleet.state);
+    }
+    for (Fleet fleet : starB.get().fleets) {
+      assertEquals(Fleet.FLEET_STATE.IDLE, fleet.state);
+    }
+  }
+
+  /** A fleet that can't be delivered should be put back on the star it came from. */
+  @Test
+  public void undeliverableFleetIsReturned() throws Exception {
+    WatchableObject<Star> star = createStar(1);
+    long missingStarId = DataStore.i.seq().nextIdentifier();
+    setFleetsMoving(star, missingStarId);
+
+    StarManager.i.modifyStar(star, new ArrayList<>(), null);
+
+    assertEquals(1, star.get().fleets.size());
+    Fleet fleet = star.get().fleets.get(0);
+    assertEquals(Fleet.FLEET_STATE.IDLE, fleet.state);
+    assertNull(fleet.destination_star_id);
+    assertNull(fleet.eta);
+  }
+
+  private static Void sendFleets(
+      WatchableObject<Star> from, WatchableObject<Star> to, CyclicBarrier barrier)
+      throws Exception {
+    for (int round = 0; round < NUM_ROUNDS; round++) {
+      barrier.await();
+      setFleetsMoving(from, to.get().id);
+
+      // Simulating the star will find that the fleets have arrived, and deliver them.
+      StarManager.i.modifyStar(from, new ArrayList<>(), null);
+    }
+    return null;
+  }
+
+  /** Sets every idle fleet on the given star moving to the given star, arriving right away. */
+  private static void setFleetsMoving(WatchableObject<Star> star, long destinationStarId) {
+    synchronized (star.lock) {
+      Star.Builder starBuilder = star.get().newBuilder();
+      long now = System.currentTimeMillis();
+      for (int i = 0; i < starBuilder.fleets.size(); i++) {
+        Fleet fleet = starBuilder.fleets.get(i);
+        if (fleet.state != Fleet.FLEET_STATE.IDLE) {
+          continue;
+        }
+        starBuilder.fleets.set(i, fleet.newBuilder()
+            .state(Fleet.FLEET_STATE.MOVING)
+            .state_start_time(now - 1)
+            .destination_star_id(destinationStarId)
+            .eta(now - 1)
+            .build());
+      }
+      star.set(starBuilder.build());
+    }
+  }
+
+  /** Creates a new, empty star with the given number of idle fleets, and saves it to the store. */
+  private static WatchableObject<Star> createStar(int numFleets) {
+    long id = DataStore.i.seq().nextIdentifier();
+    ArrayList<Fleet> fleets = new ArrayList<>();
+    for (int i = 0; i < numFleets; i++) {
+      fleets.add(new Fleet.Builder()
+          .id(DataStore.i.seq().nextIdentifier())
+          .empire_id(EMPIRE_ID)
+          .design_type(Design.DesignType.FIGHTER)
+          .num_ships(1.0f)
+          .stance(Fleet.FLEET_STANCE.NEUTRAL)
+          .state(Fleet.FLEET_STATE.IDLE)
+          .state_start_time(System.currentTimeMillis())
+          .build());
+    }
+
+    DataStore.i.stars().put(id, new Star.Builder()
+        .id(id)
+        .name("Test " + id)
+        .classification(Star.CLASSIFICATION.WHITE)
+        .size(10)
+        .sector_x(0L)
+        .sector_y(0L)
+        .offset_x(100)
+        .offset_y(100)
+        .planets(new ArrayList<>())
+        .fleets(fleets)
+        .build());
+    return StarManager.i.getStar(id);
+  }
+}